@@ -1,6 +1,7 @@
 package karaoke;
 
 import java.io.PrintWriter;
+import java.util.List;
 
 import karaoke.sound.SequencePlayer;
 
@@ -14,21 +15,24 @@ public class Chord implements Music{
     //   represents a chord in which m1 is played together with m2, with a syllable chordSyllable linked to the chord.
     //   It is also associated with an ABC header. 
     // Rep Invariant
-    //   true;
+    //   duration == m1.exactDuration()
+    //   ticksPerBeat == lcm(m1.ticksPerBeat(), m2.ticksPerBeat())
     // Safety from rep exposure: 
     //   all fields are private and immutable
-    //   m1,m2, header are final 
+    //   m1,m2, header, chordSyllable are final 
     //   chordSyllable is never provided to a client
     // Thread Safety argument
     //   This class is threadsafe because it's immutable
-    //   m1, m2, are final 
+    //   m1, m2, chordSyllable are final 
     //   chordSyllable is never exposed to the client
-    //   
+    //   duration and ticksPerBeat are computed once in the constructor
 
     private final Music m1;
     private final Music m2;
     private final Header header;
-    private Syllable chordSyllable; 
+    private final Syllable chordSyllable; 
+    private final Fraction duration;
+    private final int ticksPerBeat;
     
     /**
      * Creates a chord, a union of two or note notes.
@@ -45,21 +49,35 @@ public class Chord implements Music{
         this.m2 = m2;
         this.header = header;
         this.chordSyllable = chordSyllable; 
-
+        this.duration = m1.exactDuration();
+        this.ticksPerBeat = Fraction.lcm(m1.ticksPerBeat(), m2.ticksPerBeat());
     }
     
     @Override
-    public void play(SequencePlayer player, double atBeat, Player mainPlayer) {
-        m1.play(player,atBeat, mainPlayer);
-        m2.play(player, atBeat, mainPlayer);
+    public void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice) {
+        m1.play(player, atBeat, mainPlayer, voice);
+        m2.play(player, atBeat, mainPlayer, voice);
         if (!chordSyllable.isSkipped()) {
-            player.addEvent(atBeat, (x)-> mainPlayer.streamToAll(chordSyllable.getLine(),chordSyllable.getVoice())); 
+            final Lyric lyric = mainPlayer.prepare(chordSyllable);
+            player.addEvent(atBeat, (x)-> mainPlayer.streamLyric(lyric, chordSyllable.getVoice())); 
         }
     }
 
+    @Override
+    public void compile(Timeline.Builder timeline, Fraction atBeat) {
+        timeline.schedule(m2, atBeat);
+        timeline.schedule(m1, atBeat);
+        timeline.addLyric(atBeat, chordSyllable);
+    }
+
     @Override
     public double duration() {
-        return m1.duration();
+        return duration.toDouble();
+    }
+    
+    @Override
+    public Fraction exactDuration() {
+        return duration;
     }
 
     @Override
@@ -69,7 +87,7 @@ public class Chord implements Music{
 
     @Override
     public int ticksPerBeat() {
-        return 360;
+        return ticksPerBeat;
     }
     
     @Override
@@ -88,10 +106,17 @@ public class Chord implements Music{
     @Override
     public Music addSyllableToNote(Syllable inputSyllable) {
         if (this.numNotesFree() == 1) {
-            this.chordSyllable = inputSyllable; 
+            return new Chord(this.m1, this.m2, this.header, inputSyllable); 
+        }
+        return this; 
+    }
+    
+    @Override
+    public Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable) {
+        if (firstSyllable < syllables.size()) {
+            return addSyllableToNote(syllables.get(firstSyllable));
         }
-        
-       return new Chord(this.m1, this.m2, this.header, this.chordSyllable); 
+        return this;
     }
     
     @Override
@@ -0,0 +1,237 @@
+package karaoke;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of lyric lines waiting to be written to one client. Lines are offered by the
+ * thread playing the song and written either by the queue's own writer task, run(), or by an
+ * event loop that polls the queue whenever it is told the queue is ready, so a slow client only
+ * delays itself: offering a line never waits for the client.
+ */
+class ClientQueue implements Runnable {
+
+    /**
+     * Connection to a client that a writer task writes lyrics to.
+     */
+    interface Sink {
+        /**
+         * Sends a line to the client.
+         * @param line line of lyrics
+         * @return false if the client can't be written to any more, true otherwise
+         */
+        boolean write(Lyric line);
+
+        /**
+         * Closes the connection to the client.
+         */
+        void close();
+    }
+
+    // Abstraction Function
+    //  AF(client, out, lines, head, size, policy, closed, ready): the client reached through client,
+    //      written to by out, or by whatever polls this queue if out is null, which is still waiting for lines[head],
+    //      lines[(head + 1) % lines.length], ..., the size lines after head in order, unless closed,
+    //      in which case it has been or is about to be disconnected. ready is told whenever a line
+    //      is offered or the client is disconnected.
+    // Rep Invariant
+    //  0 <= head < lines.length
+    //  0 <= size <= lines.length
+    //  the size lines after head are not null
+    // Safety from rep exposure
+    //  all fields are private, and lines is never returned; the lyrics in it are immutable
+    // Thread Safety argument
+    //  lines, head, size and closed are only accessed while holding lock,
+    //  and out is only used by the writer task, outside the lock,
+    //  so the thread offering lines never waits for the client
+    //  ready must not wait for the client either
+    //  lock and its condition park a waiting writer task rather than pinning it to a platform
+    //  thread, so writer tasks can be virtual threads
+
+    private final Object client;
+    private final Sink out;
+    private final Lyric[] lines;
+    private final Player.OverflowPolicy policy;
+    private int head = 0;
+    private int size = 0;
+    private boolean closed = false;
+    private final Runnable ready;
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled when a line is offered or the client is disconnected
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Creates an empty queue for a client written to by run().
+     * @param client what the client is written through, e.g. its stream, to recognize it by
+     * @param out connection to the client, which the writer task closes when the client is disconnected
+     * @param capacity most lines that can wait for the client, at least 1
+     * @param policy what to do when a line is offered while capacity lines are waiting
+     */
+    ClientQueue(Object client, Sink out, int capacity, Player.OverflowPolicy policy) {
+        this(client, out, capacity, policy, () -> {});
+    }
+
+    /**
+     * Creates an empty queue for a client written to by polling the queue.
+     * @param capacity most lines that can wait for the client, at least 1
+     * @param policy what to do when a line is offered while capacity lines are waiting
+     * @param ready told whenever a line is offered or the client is disconnected, which must not
+     *          wait for the client
+     */
+    ClientQueue(int capacity, Player.OverflowPolicy policy, Runnable ready) {
+        this(null, null, capacity, policy, ready);
+    }
+
+    private ClientQueue(Object client, Sink out, int capacity, Player.OverflowPolicy policy, Runnable ready) {
+        this.client = client;
+        this.out = out;
+        this.lines = new Lyric[capacity];
+        this.policy = policy;
+        this.ready = ready;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert 0 <= head && head < lines.length;
+        assert 0 <= size && size <= lines.length;
+    }
+
+    /**
+     * Adds a line for the client to receive after the lines already waiting, without waiting for the client.
+     * If the queue is full, either drops the oldest waiting line or disconnects the client, by its policy.
+     * @param line line to write to the client
+     * @return false if the client is disconnected, true otherwise
+     */
+    boolean offer(Lyric line) {
+        boolean offered = true;
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (size == lines.length) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        head = (head + 1) % lines.length;
+                        size--;
+                        break;
+                    case DISCONNECT:
+                        closed = true;
+                        size = 0;
+                        offered = false;
+                        break;
+                    default:
+                        throw new AssertionError("should never get here");
+                }
+            }
+            if (offered) {
+                lines[(head + size) % lines.length] = line;
+                size++;
+            }
+            changed.signalAll();
+            checkRep();
+        } finally {
+            lock.unlock();
+        }
+        // told outside the lock, so ready can poll this queue
+        ready.run();
+        return offered;
+    }
+
+    /**
+     * Disconnects the client; lines that are still waiting are dropped.
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            size = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        ready.run();
+    }
+
+    /**
+     * @return true if the client has been disconnected
+     */
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param writer a stream
+     * @return true if this queue's client is written through writer
+     */
+    boolean writesTo(Object writer) {
+        return client != null && client == writer;
+    }
+
+    /**
+     * Waits for the next line for the client.
+     * @return the oldest waiting line, or null once the client is disconnected
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private Lyric take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (size == 0 && !closed) {
+                changed.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the next line for the client, without waiting.
+     * @return the oldest waiting line, or null if no line is waiting or the client is disconnected
+     */
+    Lyric poll() {
+        lock.lock();
+        try {
+            if (closed || size == 0) {
+                return null;
+            }
+            final Lyric line = lines[head];
+            lines[head] = null;
+            head = (head + 1) % lines.length;
+            size--;
+            checkRep();
+            return line;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes lines to the client as they are offered, until the client is disconnected
+     * or can't be written to, and then closes the connection to the client.
+     */
+    @Override
+    public void run() {
+        try {
+            Lyric line;
+            while ((line = take()) != null) {
+                if (!out.write(line)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop writing, the client is disconnected below
+        } finally {
+            close();
+            out.close();
+        }
+    }
+}
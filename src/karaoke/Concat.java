@@ -1,6 +1,8 @@
 package karaoke;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import karaoke.sound.SequencePlayer;
 
@@ -13,16 +15,22 @@ public class Concat implements Music{
     //  AF(m1, m2, header): represents music that concatenates m1 and m2 together such that m1 
     //  plays first and then m2 plays second. Concat is associated with an abc Header 
     // Rep Invariant
-    //  true
+    //  duration == m1.exactDuration() + m2.exactDuration()
+    //  numNotesFree == m1.numNotesFree() + m2.numNotesFree()
+    //  ticksPerBeat == lcm(m1.ticksPerBeat(), m2.ticksPerBeat())
     // Safety from rep exposure
     //  all fields are private and final and immutable 
     // Thread Safety argument
     //  This class is threadsafe because it's immutable:
     //  m1, m2 are private and final
+    //  duration, numNotesFree and ticksPerBeat are computed once in the constructor
 
     private final Music m1;
     private final Music m2;
     private final Header header;
+    private final Fraction duration;
+    private final int numNotesFree;
+    private final int ticksPerBeat;
     
     /**
      * Creates a new Concat object.
@@ -34,18 +42,49 @@ public class Concat implements Music{
         this.m1 = m1;
         this.m2 = m2;
         this.header = header;
-
+        this.duration = m1.exactDuration().plus(m2.exactDuration());
+        this.numNotesFree = m1.numNotesFree() + m2.numNotesFree();
+        this.ticksPerBeat = Fraction.lcm(m1.ticksPerBeat(), m2.ticksPerBeat());
     }
     
     @Override
-    public void play(SequencePlayer player, double atBeat,Player mainPlayer) {
-        m1.play(player, atBeat,mainPlayer);
-        m2.play(player, atBeat + m1.duration(),mainPlayer);
+    public void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice) {
+        m1.play(player, atBeat, mainPlayer, voice);
+        m2.play(player, atBeat + m1.duration(), mainPlayer, voice);
+    }
+
+    @Override
+    public void compile(Timeline.Builder timeline, Fraction atBeat) {
+        // the parser builds left-leaning chains as deep as the song is long, 
+        // so walk down the left spine iteratively instead of recursing into m1
+        List<Music> parts = new ArrayList<>();
+        Music leftmost = this;
+        while (leftmost instanceof Concat) {
+            parts.add(((Concat) leftmost).m2);
+            leftmost = ((Concat) leftmost).m1;
+        }
+        parts.add(leftmost);
+        
+        Fraction[] startBeats = new Fraction[parts.size()];
+        Fraction beat = atBeat;
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            startBeats[i] = beat;
+            beat = beat.plus(parts.get(i).exactDuration());
+        }
+        // queue the last part first so that parts are compiled in playing order
+        for (int i = 0; i < parts.size(); i++) {
+            timeline.schedule(parts.get(i), startBeats[i]);
+        }
     }
 
     @Override
     public double duration() {
-        return m1.duration()+m2.duration();
+        return duration.toDouble();
+    }
+    
+    @Override
+    public Fraction exactDuration() {
+        return duration;
     }
     
     @Override
@@ -55,7 +94,7 @@ public class Concat implements Music{
 
     @Override
     public int ticksPerBeat() {
-        return 360;
+        return ticksPerBeat;
     }
     
     @Override
@@ -65,7 +104,7 @@ public class Concat implements Music{
     
     @Override
     public int numNotesFree() {
-        return m1.numNotesFree() + m2.numNotesFree(); 
+        return numNotesFree; 
     }
     
     @Override
@@ -82,6 +121,19 @@ public class Concat implements Music{
         } 
     }
     
+    @Override
+    public Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable) {
+        if (numNotesFree == 0 || firstSyllable >= syllables.size()) {
+            return this;
+        }
+        Music m1Modified = m1.addSyllablesToNotes(syllables, firstSyllable);
+        Music m2Modified = m2.addSyllablesToNotes(syllables, firstSyllable + m1.numNotesFree());
+        if (m1Modified == m1 && m2Modified == m2) {
+            return this;
+        }
+        return new Concat(m1Modified, m2Modified, header);
+    }
+    
     @Override
     public String toString() {
         return "Concat(" + m1.toString() + ", " + m2.toString() + ")";
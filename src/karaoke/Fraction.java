@@ -0,0 +1,196 @@
+package karaoke;
+
+/**
+ * Immutable exact rational number, used for beat times and note lengths so that
+ * summing the lengths of a long song never drifts the way doubles do.
+ */
+public class Fraction implements Comparable<Fraction> {
+
+    // Abstraction Function
+    //  AF(numerator, denominator): represents the rational number numerator / denominator
+    // Rep Invariant
+    //  denominator > 0
+    //  gcd(|numerator|, denominator) == 1, so every value has exactly one representation
+    // Safety from rep exposure
+    //  all fields are private, final and primitive
+    // Thread Safety argument
+    //  This class is threadsafe because it's immutable
+
+    /**
+     * The fraction 0.
+     */
+    public static final Fraction ZERO = new Fraction(0, 1);
+
+    /**
+     * The fraction 1.
+     */
+    public static final Fraction ONE = new Fraction(1, 1);
+
+    private final int numerator;
+    private final int denominator;
+
+    private Fraction(int numerator, int denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert denominator > 0;
+        assert gcd(Math.abs(numerator), denominator) == 1;
+    }
+
+    /**
+     * @param numerator numerator of the fraction
+     * @param denominator denominator of the fraction, nonzero
+     * @return the fraction numerator / denominator in lowest terms
+     * @throws ArithmeticException if denominator is 0
+     */
+    public static Fraction of(long numerator, long denominator) {
+        if (denominator == 0) {
+            throw new ArithmeticException("denominator must be nonzero");
+        }
+        if (denominator < 0) {
+            numerator = -numerator;
+            denominator = -denominator;
+        }
+        long divisor = gcd(Math.abs(numerator), denominator);
+        return new Fraction(Math.toIntExact(numerator / divisor), Math.toIntExact(denominator / divisor));
+    }
+
+    /**
+     * @param value an integer
+     * @return the fraction value / 1
+     */
+    public static Fraction of(long value) {
+        return of(value, 1);
+    }
+
+    /**
+     * Parses an abc length multiplier.
+     * @param length one of "n", "n/m", "n/", "/m" or "/", where a missing numerator
+     *               is 1 and a missing denominator is 2
+     * @return the value of length
+     * @throws NumberFormatException if length is not of that form
+     */
+    public static Fraction parse(String length) {
+        final int slash = length.indexOf('/');
+        if (slash < 0) {
+            return of(Integer.parseInt(length));
+        }
+        final int numerator = slash == 0 ? 1 : Integer.parseInt(length.substring(0, slash));
+        final int denominator = slash == length.length() - 1 ? 2 : Integer.parseInt(length.substring(slash + 1));
+        return of(numerator, denominator);
+    }
+
+    /**
+     * @param a a >= 0
+     * @param b b >= 0
+     * @return greatest common divisor of a and b, where gcd(0, 0) == 0
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+    /**
+     * @param a a > 0
+     * @param b b > 0
+     * @return least common multiple of a and b, or Integer.MAX_VALUE if it does not fit in an int
+     */
+    public static int lcm(int a, int b) {
+        return (int) Math.min(a / gcd(a, b) * (long) b, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the numerator in lowest terms
+     */
+    public int numerator() {
+        return numerator;
+    }
+
+    /**
+     * @return the denominator in lowest terms, always positive
+     */
+    public int denominator() {
+        return denominator;
+    }
+
+    /**
+     * @param that fraction to add
+     * @return this + that
+     */
+    public Fraction plus(Fraction that) {
+        if (this.denominator == that.denominator) {
+            return of((long) this.numerator + that.numerator, denominator);
+        }
+        return of((long) this.numerator * that.denominator + (long) that.numerator * this.denominator,
+                (long) this.denominator * that.denominator);
+    }
+
+    /**
+     * @param that fraction to multiply by
+     * @return this * that
+     */
+    public Fraction times(Fraction that) {
+        return of((long) this.numerator * that.numerator, (long) this.denominator * that.denominator);
+    }
+
+    /**
+     * @param that fraction to compare to
+     * @return the larger of this and that
+     */
+    public Fraction max(Fraction that) {
+        return this.compareTo(that) >= 0 ? this : that;
+    }
+
+    /**
+     * @param ticksPerBeat number of ticks in one beat, > 0
+     * @return this many beats as a whole number of ticks, rounded to the nearest
+     *         tick if it is not exact
+     */
+    public long toTicks(int ticksPerBeat) {
+        if (ticksPerBeat % denominator == 0) {
+            return (long) numerator * (ticksPerBeat / denominator);
+        }
+        return Math.round((double) numerator * ticksPerBeat / denominator);
+    }
+
+    /**
+     * @return the nearest double to this fraction
+     */
+    public double toDouble() {
+        return (double) numerator / denominator;
+    }
+
+    @Override
+    public int compareTo(Fraction that) {
+        return Long.compare((long) this.numerator * that.denominator, (long) that.numerator * this.denominator);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (that instanceof Fraction) {
+            Fraction other = (Fraction) that;
+            return numerator == other.numerator && denominator == other.denominator;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return numerator * 31 + denominator;
+    }
+
+    @Override
+    public String toString() {
+        if (denominator == 1) {
+            return String.valueOf(numerator);
+        }
+        return numerator + "/" + denominator;
+    }
+}
@@ -1,8 +1,13 @@
 package karaoke;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+import karaoke.sound.Instrument;
+
 /**
  * Represents a header, which stores all the beginning information of the music (everything except notes and sections)
  * 
@@ -16,13 +21,14 @@ import java.util.Set;
  *      NoteLength: When we say a note is of length "1", it actually means a note that is x beats long
  *      Voices: Represents the set of voices heard throughout the piece, in the form of various instruments.
  *      Music: The musical note part, aka the non-header part of the piece. 
+ *      Instruments: the instrument each voice is played by, given by its V: field, piano by default
  *
  */
 public class Header {
     
     // Abstraction Function
     //  AF(index, title, meterNumerator, meterDenominator, key, 
-    //     tempo, noteLength, voices, music, tempoLenght, composer): 
+    //     tempo, noteLength, voices, music, tempoLenght, composer, instruments): 
     //  represents a header object that lists the fields:
     //      Index: the index of the piece
     //      Title: the title of the piece
@@ -33,6 +39,7 @@ public class Header {
     //      NoteLength: When we say a note is of length "1", it actually means a note that is x beats long
     //      Voices: Represents the set of voices heard throughout the piece, in the form of various instruments.
     //      Music: The musical note part, aka the non-header part of the piece. 
+    //      Instruments: voice v is played by instruments.get(v), or DEFAULT_INSTRUMENT if it has none
     //
     // Rep Invariant
     //   true
@@ -40,6 +47,7 @@ public class Header {
     //   all the fields are private and final
     //   all the fields except voices are immutable 
     //   voices is defensively copied when observed by client
+    //   instruments is copied on construction and never returned
     // Thread Safety argument
     //   The class is immutable
     //   all fields are private and final 
@@ -57,12 +65,27 @@ public class Header {
     private final String music;
     private final double tempoLength;
     private final String composer;
+    private final Map<String, Instrument> instruments; //V: instrument=
+
+    /**
+     * Instrument of the voices whose V: field doesn't give one, and of music without voices.
+     */
+    public static final Instrument DEFAULT_INSTRUMENT = Instrument.PIANO;
 
     /**
      * Constructs a default header
      * @param header
      */
     public Header(int index, String title, int num, int den, String key, double tempo, double noteLength, Set<String> voices, String music, double tempoLength, String composer) {
+        this(index, title, num, den, key, tempo, noteLength, voices, music, tempoLength, composer,
+                Collections.emptyMap());
+    }
+
+    /**
+     * Constructs a header whose voices may be played by other instruments than the default
+     * @param instruments the instrument of each voice that isn't played by DEFAULT_INSTRUMENT
+     */
+    public Header(int index, String title, int num, int den, String key, double tempo, double noteLength, Set<String> voices, String music, double tempoLength, String composer, Map<String, Instrument> instruments) {
         this.index = index;
         this.title = title;
         this.meterNumerator = num;
@@ -74,6 +97,7 @@ public class Header {
         this.music = music;
         this.tempoLength = tempoLength;
         this.composer = composer;
+        this.instruments = new HashMap<>(instruments);
     }
     
     /**
@@ -152,4 +176,12 @@ public class Header {
         return composer;
     }
     
+    /**
+     * @param voice name of a voice, or null for music without voices
+     * @return the instrument the voice is played by; DEFAULT_INSTRUMENT if its V: field doesn't give one
+     */
+    public Instrument instrument(String voice) {
+        return instruments.getOrDefault(voice, DEFAULT_INSTRUMENT);
+    }
+    
 }
@@ -0,0 +1,120 @@
+package karaoke;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable table of which note letters a key signature sharpens or flattens.
+ * Every key is decoded once into two bitmasks over the letters A-G, so looking up
+ * the accidental of a note is a shift and a mask instead of a string search.
+ */
+public class KeySignature {
+
+    // Abstraction Function
+    //  AF(sharps, flats): represents the key signature in which the letter ('A' + i) is
+    //  sharpened if bit i of sharps is set, flattened if bit i of flats is set,
+    //  and natural otherwise
+    // Rep Invariant
+    //  (sharps & flats) == 0
+    //  sharps and flats only use the lowest NUM_LETTERS bits
+    // Safety from rep exposure
+    //  all fields are private, final and primitive
+    // Thread Safety argument
+    //  This class is threadsafe because it's immutable
+    //  KEYS is only written in the static initializer
+
+    /**
+     * Number of note letters, A through G.
+     */
+    public static final int NUM_LETTERS = 7;
+
+    /**
+     * Key signature without any sharps or flats.
+     */
+    public static final KeySignature NONE = new KeySignature(0, 0);
+
+    private static final Map<String, KeySignature> KEYS = new HashMap<>();
+
+    static
+    {
+        final String sharpOrder = "FCGDAEB";
+        final String[] sharpMajors = { "C", "G", "D", "A", "E", "B", "F#", "C#" };
+        final String[] sharpMinors = { "Am", "Em", "Bm", "F#m", "C#m", "G#m", "D#m", "A#m" };
+        for (int n = 0; n < sharpMajors.length; n++) {
+            KeySignature key = new KeySignature(mask(sharpOrder.substring(0, n)), 0);
+            KEYS.put(sharpMajors[n], key);
+            KEYS.put(sharpMinors[n], key);
+        }
+
+        final String flatOrder = "BEADGCF";
+        final String[] flatMajors = { "C", "F", "Bb", "Eb", "Ab", "Db", "Gb", "Cb" };
+        final String[] flatMinors = { "Am", "Dm", "Gm", "Cm", "Fm", "Bbm", "Ebm", "Abm" };
+        for (int n = 0; n < flatMajors.length; n++) {
+            KeySignature key = new KeySignature(0, mask(flatOrder.substring(0, n)));
+            KEYS.put(flatMajors[n], key);
+            KEYS.put(flatMinors[n], key);
+        }
+    }
+
+    private final int sharps;
+    private final int flats;
+
+    private KeySignature(int sharps, int flats) {
+        this.sharps = sharps;
+        this.flats = flats;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert (sharps & flats) == 0;
+        assert (sharps | flats) >>> NUM_LETTERS == 0;
+    }
+
+    /**
+     * @param letters upper case letters in A-G
+     * @return bitmask with bit (letter - 'A') set for each letter
+     */
+    private static int mask(String letters) {
+        int mask = 0;
+        for (int i = 0; i < letters.length(); i++) {
+            mask |= 1 << (letters.charAt(i) - 'A');
+        }
+        return mask;
+    }
+
+    /**
+     * @param key key as written in the K: field of an abc header, e.g. "Bb" or "F#m"
+     * @return the key signature of key, or NONE if key is not recognized
+     */
+    public static KeySignature of(String key) {
+        return KEYS.getOrDefault(key, NONE);
+    }
+
+    /**
+     * @param letter index of a note letter, 0 for A through 6 for G
+     * @return number of semitones the key signature moves that letter: 1, -1 or 0
+     */
+    public int transpose(int letter) {
+        return ((sharps >>> letter) & 1) - ((flats >>> letter) & 1);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (that instanceof KeySignature) {
+            KeySignature other = (KeySignature) that;
+            return sharps == other.sharps && flats == other.flats;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return sharps * 31 + flats;
+    }
+
+    @Override
+    public String toString() {
+        return "KeySignature(sharps: " + Integer.toBinaryString(sharps)
+                + ", flats: " + Integer.toBinaryString(flats) + ")";
+    }
+}
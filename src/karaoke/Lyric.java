@@ -0,0 +1,138 @@
+package karaoke;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A line of lyrics streamed to clients, with the syllable being sung highlighted, encoded once
+ * for every client that receives it: as a line of plain text, as a server-sent event, and as
+ * WebSocket messages.
+ *
+ * A WebSocket client is sent each line of the song once, as a binary LINE message, and then a
+ * binary HIGHLIGHT message for every syllable sung on it:
+ *   LINE:      byte 0, line id (4 bytes), the line in UTF-8
+ *   HIGHLIGHT: byte 1, line id (4 bytes), begin (2 bytes), end (2 bytes)
+ * all big-endian, where the highlighted syllable is the chars of the line from begin inclusive
+ * to end exclusive, and begin == end if nothing is highlighted.
+ */
+class Lyric {
+
+    /** first byte of a LINE message */
+    static final byte LINE = 0;
+    /** first byte of a HIGHLIGHT message */
+    static final byte HIGHLIGHT = 1;
+
+    // Abstraction Function
+    //  AF(text, textBytes, eventBytes, lineId, lineFrame, highlightFrame): the line of lyrics text,
+    //      which a plain text stream sends as textBytes and an event stream sends as eventBytes,
+    //      and which is line lineId with a syllable highlighted, which a WebSocket client is sent as
+    //      lineFrame, if it hasn't been sent line lineId before, and then as highlightFrame
+    // Rep Invariant
+    //  textBytes is text and a line separator, in UTF-8
+    //  eventBytes is a server-sent event whose data is text, in UTF-8
+    //  lineFrame and highlightFrame are binary WebSocket frames of a LINE and a HIGHLIGHT message for lineId
+    // Safety from rep exposure
+    //  all fields are private and final, and the arrays are only returned as read-only buffers
+    //  or passed to OutputStream.write, which doesn't modify them
+    // Thread Safety argument
+    //  immutable, so the same lyric can be written to every client by any thread
+
+    private final String text;
+    private final byte[] textBytes;
+    private final byte[] eventBytes;
+    private final int lineId;
+    private final byte[] lineFrame;
+    private final byte[] highlightFrame;
+
+    /**
+     * Encodes a line of lyrics.
+     * @param text line of lyrics, with the highlighted syllable marked
+     * @param lineId id of line, the same for every lyric of the same line
+     * @param line the line of lyrics without marks
+     * @param begin index in line of the first char of the highlighted syllable
+     * @param end index in line after the last char of the highlighted syllable, begin if none is
+     */
+    Lyric(String text, int lineId, String line, int begin, int end) {
+        this.text = text;
+        this.textBytes = (text + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+        // every line of an event's data gets its own field, and a blank line ends the event
+        final StringBuilder event = new StringBuilder();
+        for (String eventLine : text.split("\r\n|\r|\n", -1)) {
+            event.append("data: ").append(eventLine).append('\n');
+        }
+        event.append('\n');
+        this.eventBytes = event.toString().getBytes(StandardCharsets.UTF_8);
+
+        this.lineId = lineId;
+        final byte[] lineBytes = line.getBytes(StandardCharsets.UTF_8);
+        this.lineFrame = WebSocket.frame(WebSocket.BINARY,
+                ByteBuffer.allocate(1 + 4 + lineBytes.length).put(LINE).putInt(lineId).put(lineBytes).array());
+        this.highlightFrame = WebSocket.frame(WebSocket.BINARY,
+                ByteBuffer.allocate(1 + 4 + 2 + 2).put(HIGHLIGHT).putInt(lineId)
+                        .putShort((short) begin).putShort((short) end).array());
+    }
+
+    /**
+     * @return the line of lyrics
+     */
+    String text() {
+        return text;
+    }
+
+    /**
+     * @return a read-only view of the line and a line separator in UTF-8, positioned at its start
+     */
+    ByteBuffer textBytes() {
+        return ByteBuffer.wrap(textBytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the line as a server-sent event in UTF-8, positioned at its start
+     */
+    ByteBuffer eventBytes() {
+        return ByteBuffer.wrap(eventBytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return id of the line, the same for every lyric of the same line
+     */
+    int lineId() {
+        return lineId;
+    }
+
+    /**
+     * @return a read-only view of the WebSocket frame of the LINE message of this line,
+     *          positioned at its start
+     */
+    ByteBuffer lineFrame() {
+        return ByteBuffer.wrap(lineFrame).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a read-only view of the WebSocket frame of the HIGHLIGHT message of this lyric,
+     *          positioned at its start
+     */
+    ByteBuffer highlightFrame() {
+        return ByteBuffer.wrap(highlightFrame).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the line and a line separator as plain text.
+     * @param out stream to a client
+     * @throws IOException if the client can't be written to
+     */
+    void writeText(OutputStream out) throws IOException {
+        out.write(textBytes);
+    }
+
+    /**
+     * Writes the line as a server-sent event.
+     * @param out stream to a client
+     * @throws IOException if the client can't be written to
+     */
+    void writeEvent(OutputStream out) throws IOException {
+        out.write(eventBytes);
+    }
+}
@@ -10,8 +10,10 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
@@ -19,7 +21,6 @@ import javax.sound.midi.MidiUnavailableException;
 import com.sun.net.httpserver.HttpServer;
 
 import edu.mit.eecs.parserlib.UnableToParseException;
-import karaoke.parser.KaraokeParser;
 import karaoke.sound.Instrument;
 import karaoke.sound.MidiSequencePlayer;
 import karaoke.sound.SequencePlayer;
@@ -32,7 +33,7 @@ public class Main {
 
     /**
      * main method for karoke machine
-     * @param args command line argument in which ABC file is passed in args[0]
+     * @param args command line argument in which an ABC file, or a song file written by SongFile, is passed in args[0]
      * @throws IOException
      */
     public static void main(String[] args) throws MidiUnavailableException, InvalidMidiDataException, IOException{
@@ -47,12 +48,6 @@ public class Main {
             catch (IOException e) {
                 throw new IOException("file not found");
             }
-            String line;
-            String abcString = "";
-            while ((line = br.readLine()) != null) {
-                abcString += line + "\n";
-            }
-            in.close();
             String ip = "unknown";
             for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
                 for (InetAddress address: Collections.list(iface.getInetAddresses())) {
@@ -65,28 +60,57 @@ public class Main {
                 }
             }
             
-            Music m = KaraokeParser.parse(abcString);
-            Header header = m.header();
+            final Song song;
+            if (SongFile.isSongFile(file)) {
+                // precompiled songs are mapped straight into memory
+                in.close();
+                song = SongFile.read(file);
+            }
+            else {
+                String line;
+                String abcString = "";
+                while ((line = br.readLine()) != null) {
+                    abcString += line + "\n";
+                }
+                in.close();
+                // repeat launches of the same song load it from the cache instead of parsing it again
+                song = SongCache.defaultCache().load(abcString);
+            }
+            Header header = song.header();
             System.out.println(header.title());
             System.out.println(header.composer());
-            Instrument piano = Instrument.PIANO;
+            // the instruments of the voices, and of music outside them
+            final Set<Instrument> instruments = EnumSet.of(header.instrument(null));
+            for (String voice : header.voices()) {
+                instruments.add(header.instrument(voice));
+            }
 
 
             final int beatsPerMinute = (int) (header.tempoLength()/header.noteLength()*header.tempo()); // a beat is a quarter note, so this is 120 quarter notes per minute
-            final int ticksPerBeat = 96; // allows up to 1/64-beat notes to be played with fidelity
-            SequencePlayer player = new MidiSequencePlayer(beatsPerMinute, ticksPerBeat);
+            // the smallest resolution at which every note of the song starts and ends on a whole tick
+            final Timeline timeline = song.timeline();
+            SequencePlayer player = new MidiSequencePlayer(beatsPerMinute, timeline.ticksPerBeat());
+            // open the synthesizer and load the song's instruments now, so the song starts as soon as it is asked to
+            MidiSequencePlayer.preload(instruments.toArray(new Instrument[0]));
                         
             final int serverPort = 4567;
             Player mainPlayer = new Player();
-            Object lock = new Object();
-            WebServer webserver = new WebServer(serverPort, mainPlayer,lock,m);
-            webserver.start();
+            if (System.getProperty(NioWebServer.SERVER_PROPERTY, "threads").equals("nio")) {
+                // a few I/O threads stream to every client, instead of a thread per client
+                NioWebServer webserver = new NioWebServer(serverPort, mainPlayer, header,
+                        Runtime.getRuntime().availableProcessors());
+                webserver.start();
+            }
+            else {
+                WebServer webserver = new WebServer(serverPort, mainPlayer, header);
+                webserver.start();
+            }
             
-            m.play(player, 0, mainPlayer);
+            timeline.schedule(player, mainPlayer, header);
             
             final BufferedReader systemIn = new BufferedReader(new InputStreamReader(System.in));
-            if (m.header().voices().size()>0) {
-                for (String voice:m.header().voices()) {
+            if (header.voices().size()>0) {
+                for (String voice:header.voices()) {
                     System.out.println("Go to \"http://" + ip + ":4567/"
 
                             + voice + "\" to view lyrics for " + voice + " voice");
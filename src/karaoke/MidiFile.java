@@ -0,0 +1,122 @@
+package karaoke;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sound.midi.InvalidMidiDataException;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.MidiFileSequencePlayer;
+import karaoke.sound.Pitch;
+
+/**
+ * Exports compiled songs as Type 1 Standard MIDI Files, which any sequencer can play without
+ * parsing the abc file again: the first track holds the title, tempo and meter of the header,
+ * and each voice gets a track with its notes and its syllables as lyric events. Following the
+ * lyric conventions of Standard MIDI Files, a syllable carries the spaces after it, and the first
+ * syllable of each new line of a voice is preceded by a carriage return.
+ */
+public class MidiFile {
+
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+
+    // starts a new line of lyrics
+    private static final String LINE_BREAK = "\r";
+
+    private MidiFile() {
+        // not instantiable, only static methods
+    }
+
+    /**
+     * Exports an abc file or song file as a MIDI file.
+     * @param args an abc file or song file written by SongFile, followed by the MIDI file to write
+     * @throws IOException if a file can't be read or written
+     * @throws UnableToParseException if the abc file can't be parsed
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException {
+        final File file = new File(args[0]);
+        final Song song;
+        if (SongFile.isSongFile(file)) {
+            song = SongFile.read(file);
+        } else {
+            song = SongCache.defaultCache().load(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            write(song, out);
+        }
+    }
+
+    /**
+     * Writes a song as a Type 1 Standard MIDI File.
+     * @param song compiled song to write
+     * @param out stream to write the file to, which is not closed
+     * @throws IOException if out can't be written, or the song can't be stored in a MIDI file
+     */
+    public static void write(Song song, OutputStream out) throws IOException {
+        final Header header = song.header();
+        final Timeline timeline = song.timeline();
+        // a beat is a quarter note, as in Main
+        final int beatsPerMinute = (int) (header.tempoLength() / header.noteLength() * header.tempo());
+        final MidiFileSequencePlayer player;
+        try {
+            player = new MidiFileSequencePlayer(beatsPerMinute, timeline.ticksPerBeat(), out);
+        } catch (InvalidMidiDataException | IllegalArgumentException e) {
+            throw new IOException("can't store tempo or resolution of " + header.title(), e);
+        }
+        player.setTitle(header.title());
+        if (header.meterN() > 0 && header.meterD() > 0 && Integer.bitCount(header.meterD()) == 1) {
+            player.setTimeSignature(header.meterN(), header.meterD());
+        }
+
+        final List<String> voices = timeline.voices();
+        final List<Syllable> syllables = timeline.syllables();
+        // last syllable of each voice
+        final Map<String, Syllable> lastSyllables = new HashMap<>();
+        for (int i = 0; i < timeline.size(); i++) {
+            final int voiceIndex = timeline.voiceIndex(i);
+            final String voice = voiceIndex == Timeline.NO_VOICE ? null : voices.get(voiceIndex);
+            final double atBeat = timeline.start(i) / (double) timeline.ticksPerBeat();
+            if (timeline.syllableIndex(i) != Timeline.NO_SYLLABLE) {
+                final Syllable syllable = syllables.get(timeline.syllableIndex(i));
+                final Syllable last = lastSyllables.put(voice, syllable);
+                final boolean newLine = last != null && (!last.getLyricLine().equals(syllable.getLyricLine())
+                        || last.getBeginIndex() > syllable.getBeginIndex());
+                player.addLyric(voice, (newLine ? LINE_BREAK : "") + text(syllable), atBeat);
+            }
+            if (timeline.note(i) != Timeline.NO_NOTE) {
+                player.addNote(voice, header.instrument(voice), Pitch.MIDDLE_C.transpose(timeline.note(i) - MIDI_NOTE_MIDDLE_C),
+                        atBeat, timeline.length(i) / (double) timeline.ticksPerBeat());
+            }
+        }
+        try {
+            player.play();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param syllable a syllable
+     * @return the text of the syllable and the spaces that follow it in its line
+     */
+    private static String text(Syllable syllable) {
+        final String line = syllable.getLyricLine();
+        int end = syllable.getEndIndex();
+        while (end < line.length() && line.charAt(end) == ' ') {
+            end++;
+        }
+        return line.substring(syllable.getBeginIndex(), end);
+    }
+}
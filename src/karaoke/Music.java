@@ -1,6 +1,7 @@
 package karaoke;
 
 import java.io.PrintWriter;
+import java.util.List;
 
 import karaoke.sound.SequencePlayer;
 
@@ -27,20 +28,47 @@ public interface Music {
      * @param player player to play on
      * @param atBeat when to play
      */
-    void play(SequencePlayer player, double atBeat, Player mainPlayer);
+    default void play(SequencePlayer player, double atBeat, Player mainPlayer) {
+        play(player, atBeat, mainPlayer, null);
+    }
+    
+    /**
+     * Adds the notes of the music to player, played by the instrument the header gives their voice,
+     * as Timeline.schedule does
+     * @param player player to play on
+     * @param atBeat when to play
+     * @param voice name of the voice the music is in, or null if it is in none; named voices
+     *          inside the music are played by their own instruments
+     */
+    void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice);
+    
+    /**
+     * Adds the notes and lyric events of the music to a timeline. Composite music
+     * hands its parts back to the timeline instead of compiling them recursively.
+     * @param timeline timeline to add to
+     * @param atBeat when the music starts
+     */
+    void compile(Timeline.Builder timeline, Fraction atBeat);
     
     /**
      * @return the total duration of the music in beats
      */
     double duration();
     
+    /**
+     * @return the total duration of the music in beats, exactly
+     */
+    Fraction exactDuration();
+    
     /**
      * @return beats per minute of the music
      */
     int beatsPerMinute();
     
     /**
-     * @return ticks per beat of the music
+     * @return the smallest number of ticks per beat at which every note start, note end and 
+     *         the duration of the music fall on a whole tick, or Integer.MAX_VALUE if that 
+     *         does not fit in an int
      */
     int ticksPerBeat();
     
@@ -61,4 +89,15 @@ public interface Music {
      */
     Music addSyllableToNote(Syllable syllable); 
     
+    /**
+     * produces a new Music object with syllables attached to its free notes in one pass, 
+     * from left to right, starting with syllables.get(firstSyllable). Syllables left over 
+     * once every note is taken are ignored. Equivalent to calling addSyllableToNote 
+     * once for each syllable, but only rebuilds the nodes that change.
+     * @param syllables syllables of a lyric line
+     * @param firstSyllable index of the first syllable to attach, 0 <= firstSyllable <= syllables.size()
+     * @return Music object with syllables
+     */
+    Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable); 
+    
 }
@@ -0,0 +1,75 @@
+package karaoke;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects a sequence of Music elements and concatenates them into a height-balanced
+ * tree of Concats, so that the depth of the result grows with the logarithm of the
+ * number of elements rather than linearly.
+ */
+public class MusicBuilder {
+
+    // Abstraction Function
+    //  AF(parts, header): represents the music that plays parts.get(0), parts.get(1), ...
+    //  one after another, associated with the abc Header header
+    // Rep Invariant
+    //  parts does not contain null
+    // Safety from rep exposure
+    //  all fields are private and final
+    //  parts is never returned, and its elements are immutable
+    // Thread Safety argument
+    //  not threadsafe, a MusicBuilder must be confined to the thread building the music
+
+    private final Header header;
+    private final List<Music> parts = new ArrayList<>();
+
+    /**
+     * Creates an empty MusicBuilder.
+     * @param header header associated with the music being built
+     */
+    public MusicBuilder(Header header) {
+        this.header = header;
+    }
+
+    /**
+     * Appends music to the end of the sequence.
+     * @param music music to play after everything added so far
+     */
+    public void add(Music music) {
+        parts.add(music);
+    }
+
+    /**
+     * @return true if nothing has been added yet
+     */
+    public boolean isEmpty() {
+        return parts.isEmpty();
+    }
+
+    /**
+     * Concatenates everything added so far. The builder is not cleared, so more
+     * music may be added and build() called again.
+     * @return a balanced Concat tree of the added music in order, or a zero-length
+     *         rest if nothing was added
+     */
+    public Music build() {
+        if (parts.isEmpty()) {
+            return new Rest(header, "0");
+        }
+        return balance(0, parts.size());
+    }
+
+    /**
+     * @param from index of the first part, from < to
+     * @param to index past the last part
+     * @return parts from..to-1 concatenated, split at the midpoint
+     */
+    private Music balance(int from, int to) {
+        if (to - from == 1) {
+            return parts.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        return new Concat(balance(from, mid), balance(mid, to), header);
+    }
+}
@@ -0,0 +1,543 @@
+package karaoke;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Web server that streams lyrics like WebServer, but from a small fixed set of I/O threads.
+ * Every connection is registered once with the selector of one I/O thread, which writes lyrics
+ * to it whenever its client has some waiting, so an idle viewer costs a socket and a queue
+ * rather than a parked thread.
+ *
+ * Serves /textStream, the lyrics of the lines before any voice, and /voice for every voice of
+ * the song, each as a plain text stream that ends when the client disconnects, the same
+ * lyrics as server-sent events at /events/textStream and /events/voice, and as WebSocket
+ * messages at /ws/textStream and /ws/voice, in the binary format described by Lyric.
+ */
+public class NioWebServer {
+
+    // Abstraction function:
+    //   A server listening on serverChannel, whose connections are each served by one of loops,
+    //   streaming the lyrics that player gets for the voice the connection requested.
+    //
+    // Representation invariant:
+    //   loops.length >= 1
+    //   every path in paths starts with "/"
+    //
+    // Safety from rep exposure:
+    //   All fields are private and final, and only port() is observed by clients
+    //
+    // Thread safety argument:
+    //   serverChannel is only accepted from by the thread of loops[0]
+    //   each connection's channel and buffers are only used by the thread of its loop
+    //   other threads only hand connections to a loop through its threadsafe queues, and wake it up
+    //   player is threadsafe, and paths and voices are never mutated after construction
+
+    /**
+     * Name of the system property that selects the server Main uses, "threads" (WebServer, the
+     * default) or "nio" (NioWebServer).
+     */
+    public static final String SERVER_PROPERTY = "karaoke.server";
+
+    // IMPORTANT: some web browsers don't start displaying a page until at least 2K bytes
+    // have been received.  So we'll send a line containing 2K spaces first.
+    private static final int ENOUGH_BYTES_TO_START_STREAMING = 2048;
+
+    // longest request this server reads before giving up on it
+    private static final int MAX_REQUEST_BYTES = 8192;
+
+    private static final String EVENTS_PREFIX = "/events";
+    private static final String WEBSOCKET_PREFIX = "/ws";
+
+    private static final byte[] STREAM_START;
+    private static final byte[] EVENT_STREAM_START = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/event-stream; charset=utf-8\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: 10\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + "not found\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BAD_REQUEST = ("HTTP/1.1 400 Bad Request\r\n"
+            + "Content-Type: text/plain; charset=utf-8\r\n"
+            + "Content-Length: 12\r\n"
+            + "Connection: close\r\n"
+            + "\r\n"
+            + "bad request\n").getBytes(StandardCharsets.US_ASCII);
+
+    static
+    {
+        final StringBuilder start = new StringBuilder("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: close\r\n"
+                + "\r\n");
+        for (int i = 0; i < ENOUGH_BYTES_TO_START_STREAMING; ++i) {
+            start.append(' ');
+        }
+        start.append(System.lineSeparator());
+        STREAM_START = start.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private final ServerSocketChannel serverChannel;
+    private final Player player;
+    private final Set<String> paths = new HashSet<>();
+    private final IoLoop[] loops;
+
+    /**
+     * Creates a new server that listens for connections who want to join in on Karaoke.
+     * @param port the port number to listen on, or 0 for any free port
+     * @param player the player that streams the lyrics of the song to clients
+     * @param header header of the song that we are streaming the lyrics to
+     * @param ioThreads number of threads that read from and write to connections, at least 1
+     * @throws IOException if network problem
+     */
+    public NioWebServer(int port, Player player, Header header, int ioThreads) throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("need at least one I/O thread");
+        }
+        this.player = player;
+        paths.add("/textStream");
+        for (String voice : header.voices()) {
+            paths.add("/" + voice);
+        }
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(i);
+        }
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int port() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * start the server
+     */
+    public void start() {
+        for (IoLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * stop the server, disconnecting every client
+     */
+    public void stop() {
+        for (IoLoop loop : loops) {
+            loop.thread.interrupt();
+            loop.selector.wakeup();
+        }
+        for (IoLoop loop : loops) {
+            try {
+                loop.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // already stopped listening
+        }
+    }
+
+    /**
+     * @param request a request, with its headers
+     * @param name name of a header
+     * @return value of the first header of request called name, ignoring case, or null if it has none
+     */
+    private static String header(String request, String name) {
+        for (String line : request.split("\r\n")) {
+            final int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param path path of a request, without EVENTS_PREFIX or WEBSOCKET_PREFIX
+     * @return voice whose lyrics are streamed for path, or null if path is not served
+     */
+    private String voiceOf(String path) {
+        if (!paths.contains(path)) {
+            return null;
+        }
+        return path.equals("/textStream") ? "unknown" : path.substring(1);
+    }
+
+    /**
+     * A thread serving its connections from one selector.
+     */
+    private class IoLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        // connections accepted by loops[0] for this loop to register
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        // connections whose clients have been sent lyrics or disconnected since this loop last looked
+        private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean awake = new AtomicBoolean(false);
+        private int nextLoop = 0;
+
+        IoLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "lyric I/O " + index);
+        }
+
+        /**
+         * Wakes up this loop to look at its queues, unless it is already going to.
+         * Called from other threads, and never waits.
+         */
+        void wakeup() {
+            if (awake.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    selector.select();
+                    awake.set(false);
+                    registerAccepted();
+                    writeReady();
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            final Connection connection = (Connection) key.attachment();
+                            try {
+                                if (key.isReadable()) {
+                                    connection.read();
+                                }
+                                if (key.isValid() && key.isWritable()) {
+                                    connection.write();
+                                }
+                            } catch (IOException e) {
+                                connection.close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                System.err.println("lyric I/O thread failed: " + e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // nothing left to release
+                }
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                // spread connections over the loops in turn
+                final IoLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                loop.accepted.add(channel);
+                if (loop != this) {
+                    loop.wakeup();
+                }
+            }
+            registerAccepted();
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    final Connection connection = new Connection(this, channel);
+                    channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    try {
+                        channel.close();
+                    } catch (IOException closeFailed) {
+                        // already closed
+                    }
+                }
+            }
+        }
+
+        private void writeReady() {
+            Connection connection;
+            while ((connection = ready.poll()) != null) {
+                connection.queued.set(false);
+                try {
+                    connection.write();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * How a connection streams lyrics to its client.
+     */
+    private enum Format {
+        /** plain text, a line per lyric */
+        TEXT,
+        /** server-sent events, an event per lyric */
+        EVENTS,
+        /** WebSocket messages, each line once and then a highlight per lyric */
+        WEBSOCKET
+    }
+
+    /**
+     * One client's connection, used only by the thread of its loop.
+     */
+    private class Connection {
+
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        // bytes waiting to be written to the client, in order
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+        // the client's queue of lyrics once it has asked for a stream, or null before then
+        private ClientQueue client = null;
+        private String voice = null;
+        private Format format = Format.TEXT;
+        // ids of the lines a WebSocket client has been sent
+        private final Set<Integer> sentLines = new HashSet<>();
+        // true once the request has been answered, after which output is the last thing written
+        private boolean closeAfterOutput = false;
+        private boolean closed = false;
+        // true while this connection is in its loop's ready queue, so it is only there once
+        private final AtomicBoolean queued = new AtomicBoolean(false);
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (client != null && format == Format.WEBSOCKET) {
+                readFrames();
+                return;
+            }
+            if (client != null || closeAfterOutput) {
+                // the request has been read, and anything else the client sends is ignored
+                final ByteBuffer ignored = ByteBuffer.allocate(256);
+                if (channel.read(ignored) < 0) {
+                    close();
+                }
+                return;
+            }
+            if (channel.read(request) < 0 || !request.hasRemaining()) {
+                close();
+                return;
+            }
+            final String received = new String(request.array(), 0, request.position(), StandardCharsets.US_ASCII);
+            if (!received.contains("\r\n\r\n")) {
+                return;
+            }
+
+            // request line: GET /path?query HTTP/1.1
+            final String[] requestLine = received.substring(0, received.indexOf("\r\n")).split(" ");
+            String path = requestLine.length >= 2 ? requestLine[1] : "";
+            if (path.indexOf('?') >= 0) {
+                path = path.substring(0, path.indexOf('?'));
+            }
+            System.err.println("received request " + path);
+            if (path.startsWith(EVENTS_PREFIX + "/")) {
+                format = Format.EVENTS;
+                path = path.substring(EVENTS_PREFIX.length());
+            } else if (path.startsWith(WEBSOCKET_PREFIX + "/")) {
+                format = Format.WEBSOCKET;
+                path = path.substring(WEBSOCKET_PREFIX.length());
+            }
+            voice = voiceOf(path);
+            final String key = header(received, "Sec-WebSocket-Key");
+            if (voice == null || !requestLine[0].equals("GET")) {
+                closeAfterOutput = true;
+                output.add(ByteBuffer.wrap(NOT_FOUND));
+            } else if (format == Format.WEBSOCKET && key == null) {
+                closeAfterOutput = true;
+                output.add(ByteBuffer.wrap(BAD_REQUEST));
+            } else {
+                switch (format) {
+                    case TEXT:
+                        output.add(ByteBuffer.wrap(STREAM_START));
+                        break;
+                    case EVENTS:
+                        output.add(ByteBuffer.wrap(EVENT_STREAM_START));
+                        break;
+                    case WEBSOCKET:
+                        output.add(ByteBuffer.wrap(WebSocket.handshake(key)));
+                        // frames the client sent right behind its request are left in read mode for readFrames
+                        request.flip();
+                        request.position(received.indexOf("\r\n\r\n") + 4);
+                        break;
+                    default:
+                        throw new AssertionError("should never get here");
+                }
+                client = player.addClient(voice, () -> {
+                    if (queued.compareAndSet(false, true)) {
+                        loop.ready.add(this);
+                        loop.wakeup();
+                    }
+                });
+                if (format == Format.WEBSOCKET) {
+                    // the socket may not become readable again for frames that are already in request
+                    readFrames();
+                    return;
+                }
+            }
+            write();
+        }
+
+        /**
+         * Reads the frames a WebSocket client sent, answering pings and closing frames.
+         * request holds the bytes of a frame that hasn't been received whole yet, in read mode.
+         */
+        private void readFrames() throws IOException {
+            request.compact();
+            final int read = channel.read(request);
+            request.flip();
+            if (read < 0) {
+                close();
+                return;
+            }
+            try {
+                byte[] frame;
+                while ((frame = WebSocket.nextFrame(request)) != null) {
+                    final byte[] data = Arrays.copyOfRange(frame, 1, frame.length);
+                    if (frame[0] == WebSocket.CLOSE) {
+                        // answer with the client's status, and stop streaming
+                        output.add(ByteBuffer.wrap(WebSocket.frame(WebSocket.CLOSE, data)));
+                        closeAfterOutput = true;
+                        break;
+                    } else if (frame[0] == WebSocket.PING) {
+                        output.add(ByteBuffer.wrap(WebSocket.frame(WebSocket.PONG, data)));
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                close();
+                return;
+            }
+            write();
+        }
+
+        /**
+         * Writes as much of the waiting output and lyrics as the client accepts without blocking.
+         */
+        void write() throws IOException {
+            if (closed) {
+                return;
+            }
+            while (true) {
+                while (!output.isEmpty()) {
+                    channel.write(output.peek());
+                    if (output.peek().hasRemaining()) {
+                        // wait until the client can take more
+                        interest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    output.remove();
+                }
+                if (closeAfterOutput) {
+                    close();
+                    return;
+                }
+                if (client == null) {
+                    break;
+                }
+                final Lyric line = client.poll();
+                if (line == null) {
+                    if (client.isClosed()) {
+                        close();
+                        return;
+                    }
+                    break;
+                }
+                // views of the bytes every client of the voice is sent, encoded once by the player
+                switch (format) {
+                    case TEXT:
+                        output.add(line.textBytes());
+                        break;
+                    case EVENTS:
+                        output.add(line.eventBytes());
+                        break;
+                    case WEBSOCKET:
+                        // decided as the lyric is written, so a line is sent even if an earlier lyric
+                        // of it was dropped from the client's queue
+                        if (sentLines.add(line.lineId())) {
+                            output.add(line.lineFrame());
+                        }
+                        output.add(line.highlightFrame());
+                        break;
+                    default:
+                        throw new AssertionError("should never get here");
+                }
+            }
+            interest(SelectionKey.OP_READ);
+        }
+
+        private void interest(int ops) {
+            final SelectionKey key = channel.keyFor(loop.selector);
+            if (key != null && key.isValid()) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (client != null) {
+                player.removeClient(voice, client);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+}
@@ -1,15 +1,8 @@
 package karaoke;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
-import karaoke.sound.Instrument;
 import karaoke.sound.Pitch;
 import karaoke.sound.SequencePlayer;
 
@@ -19,76 +12,31 @@ import karaoke.sound.SequencePlayer;
 public class Note implements Music{
     
     // Abstraction Function
-    //  AF(transpose, octave, pitch, noteLength, tupletLength, noteSyllable, header):
-    //  represents a note with transposition of integer transpose semitones away from 
-    //  specified pitch & octave. A note's length is determined by noteLength * tupletLength, 
+    //  AF(pitch, noteLength, tupletLength, noteSyllable, header):
+    //  represents a note of pitch pitch, whose length is determined by noteLength * tupletLength, 
     //  and has a corresponding syllable, noteSyllable. It is also associated with the Header header.  
     // Rep Invariant
-    //  true
+    //  notelength >= 0, tupletlength > 0
+    //  duration == notelength * tupletlength
     // Safety from rep exposure
     //  all fields are private and immutable
     //  every observer method returns an immutable object
     // Thread Safety argument
     //  This class is threadsafe because it's immutable: 
-    //  noteSyllable is final
-    //  transpose, octave, pitch, noteLength, tupletLength point to immutable 
-    //  objects, are never exposed to clients, and is confined 
-    //  to one single thread in the class
+    //  all fields are final, and point to immutable objects or primitives
+    //  noteSyllable is replaced only by constructing a new Note
 
-    private static final Map<String, List<String>> SHARPS;
-    private static final Map<String, List<String>> FLATS;
-
-    static 
-    {
-        SHARPS = new HashMap<String, List<String>>();
-        SHARPS.put("C", new ArrayList<>());
-        SHARPS.put("G", Arrays.asList("F"));
-        SHARPS.put("D", Arrays.asList("F","C"));
-        SHARPS.put("A", Arrays.asList("F", "C", "G"));
-        SHARPS.put("E", Arrays.asList("F","C", "G", "D"));
-        SHARPS.put("B", Arrays.asList("F", "C", "G", "D", "A"));
-        SHARPS.put("F#", Arrays.asList("F", "C", "G", "D", "A", "E"));
-        SHARPS.put("C#", Arrays.asList("F", "C", "G", "D", "A", "E", "B"));
-        SHARPS.put("Am", new ArrayList<>());
-        SHARPS.put("Em", Arrays.asList("F"));
-        SHARPS.put("Bm", Arrays.asList("F","C"));
-        SHARPS.put("F#m", Arrays.asList("F", "C", "G"));
-        SHARPS.put("C#m", Arrays.asList("F","C", "G", "D"));
-        SHARPS.put("G#m", Arrays.asList("F", "C", "G", "D", "A"));
-        SHARPS.put("D#m", Arrays.asList("F", "C", "G", "D", "A", "E"));
-        SHARPS.put("A#m", Arrays.asList("F", "C", "G", "D", "A", "E", "B"));
-        
-        FLATS = new HashMap<String, List<String>>();
-        FLATS.put("C", new ArrayList<>());
-        FLATS.put("F", Arrays.asList("B"));
-        FLATS.put("Bb", Arrays.asList("B","E"));
-        FLATS.put("Eb", Arrays.asList("B", "E", "A"));
-        FLATS.put("Ab", Arrays.asList("B","E", "A", "D"));
-        FLATS.put("Db", Arrays.asList("B", "E", "A", "D", "G"));
-        FLATS.put("Gb", Arrays.asList("B", "E", "A", "D", "G", "C"));
-        FLATS.put("Cb", Arrays.asList("B", "E", "A", "D", "G", "C", "F"));
-        FLATS.put("Am", new ArrayList<>());
-        FLATS.put("Dm", Arrays.asList("B"));
-        FLATS.put("Gm", Arrays.asList("B","E"));
-        FLATS.put("Cm", Arrays.asList("B", "E", "A"));
-        FLATS.put("Fm", Arrays.asList("B","E", "A", "D"));
-        FLATS.put("Bbm", Arrays.asList("B", "E", "A", "D", "G"));
-        FLATS.put("Ebm", Arrays.asList("B", "E", "A", "D", "G", "C"));
-        FLATS.put("Abm", Arrays.asList("B", "E", "A", "D", "G", "C", "F"));
-    }
-
-    private int transpose;
-    private int octave;
-    private Pitch pitch;
-    private double notelength;
-    private double tupletlength;
-    private Syllable noteSyllable; 
-    private Header header;
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
     
-    private String noteStringInput; 
-    private String noteStringLength; 
-    private String tupletStringLength; 
-    private char notebase;
+    private static final Syllable NO_SYLLABLE = new Syllable("unknown","",0,0);
+
+    private final Pitch pitch;
+    private final Fraction notelength;
+    private final Fraction tupletlength;
+    private final Fraction duration;
+    private final Syllable noteSyllable; 
+    private final Header header;
     
     /**
      * Creates a new Note from a given parseable string and header information.
@@ -108,7 +56,7 @@ public class Note implements Music{
      * @param tupletStringLength the multiplier to multiply current note by due to tuplets
      */
     public Note(String noteInput, Header header, String tupletStringLength) {
-        this(noteInput, header, "1", tupletStringLength, new Syllable("unknown","",0,0));
+        this(noteInput, header, "1", tupletStringLength, NO_SYLLABLE);
     }
     
     /**
@@ -121,7 +69,7 @@ public class Note implements Music{
      * @param tupletStringLength tupletStringLength the duration multiplier for current note by due to tuplets
      */
     public Note(String noteInput, Header header, String length, String tupletStringLength) {
-        this(noteInput, header, length, tupletStringLength, new Syllable("unknown","", 0,0));
+        this(noteInput, header, length, tupletStringLength, NO_SYLLABLE);
     }
     
     /**
@@ -136,23 +84,58 @@ public class Note implements Music{
      * @param noteSyllable the syllable of Lyric that corresponds to this particular Note
      */
     public Note(String noteStringInput, Header header, String noteStringLength, String tupletStringLength, Syllable noteSyllable) {
-        this.noteStringInput = noteStringInput; 
+        this(parsePitch(noteStringInput, header), Fraction.parse(noteStringLength), Fraction.parse(tupletStringLength), 
+                noteSyllable, header);
+    }
+    
+    private Note(Pitch pitch, Fraction notelength, Fraction tupletlength, Syllable noteSyllable, Header header) {
+        this.pitch = pitch;
+        this.notelength = notelength;
+        this.tupletlength = tupletlength;
+        this.duration = notelength.times(tupletlength);
+        this.noteSyllable = noteSyllable;
         this.header = header;
-        this.noteStringLength = noteStringLength;
-        this.tupletStringLength = tupletStringLength;
-        this.noteSyllable = noteSyllable; 
-        
+        checkRep();
+    }
+    
+    /**
+     * Creates a new Note from already decoded fields, without parsing any strings.
+     * 
+     * @param midiNote MIDI note number of the note, middle C is 60
+     * @param length the duration multiplier for the note, >= 0
+     * @param tupletFactor the duration multiplier for the note due to tuplets, > 0
+     * @param header Header info about the entire piece
+     * @return a Note with no syllable attached
+     */
+    public static Note decoded(int midiNote, Fraction length, Fraction tupletFactor, Header header) {
+        return new Note(Pitch.MIDDLE_C.transpose(midiNote - MIDI_NOTE_MIDDLE_C), length, tupletFactor, 
+                NO_SYLLABLE, header);
+    }
+    
+    private void checkRep() {
+        assert notelength.compareTo(Fraction.ZERO) >= 0;
+        assert tupletlength.compareTo(Fraction.ZERO) > 0;
+    }
+    
+    /**
+     * @param noteStringInput abc note: accidentals, then a letter, then octave marks, e.g. "^^c''"
+     * @param header header whose key signature applies when the note has no accidentals
+     * @return the pitch of the note
+     */
+    private static Pitch parsePitch(String noteStringInput, Header header) {
+        char notebase = ' ';
         for (int i=0; i<noteStringInput.length(); i++) {
             if (noteStringInput.charAt(i)!='^' && noteStringInput.charAt(i)!='_' && noteStringInput.charAt(i)!='=') {
                 notebase = noteStringInput.charAt(i);
                 break;
             }
         }
-        octave = 0;
+        int octave = 0;
         if (Character.isLowerCase(notebase)) {
             octave += 1;
             notebase = Character.toUpperCase(notebase);
         }
+        int transpose = 0;
         boolean accidentals = false;
         for (int i=0; i<noteStringInput.length(); i++) {
             if (noteStringInput.charAt(i)==',') {
@@ -176,78 +159,34 @@ public class Note implements Music{
         }
  
         if (!accidentals) {
-            if (SHARPS.containsKey(header.key()) && SHARPS.get(header.key()).contains(String.valueOf(notebase))) {
-                transpose +=1;
-            }
-            else if (FLATS.containsKey(header.key()) && FLATS.get(header.key()).contains(String.valueOf(notebase))) {
-                transpose -=1;
-            }
-        }
-        pitch = new Pitch(notebase);
-        int finaltranspose = transpose + octave*12;
-        pitch = pitch.transpose(finaltranspose);
-        if (noteStringLength.contains("/")) {
-            if (noteStringLength.charAt(0)=='/') {
-                if (noteStringLength.length()>1) {
-                    notelength = 1.0/Double.parseDouble(noteStringLength.substring(1, noteStringLength.length()));
-                }
-                else {
-                    notelength = 1.0/2.0;
-                }
-            }
-            else {
-                double numerator = Double.parseDouble(noteStringLength.substring(0,noteStringLength.indexOf("/")));
-                double denominator = 0.0;
-                if(noteStringLength.charAt(noteStringLength.length()-1)=='/') {
-                    denominator = 2.0;
-                }
-                else {
-                    denominator = Double.parseDouble(noteStringLength.substring(noteStringLength.indexOf("/")+1,noteStringLength.length()));
-                }    
-                notelength = numerator/denominator;
-            }
-        }
-        else {
-            notelength = Double.parseDouble(noteStringLength);
-        }
-        //Very similar code to notelength
-        if (tupletStringLength.contains("/")) {
-            if (tupletStringLength.charAt(0)=='/') {
-                if (tupletStringLength.length()>1) {
-                    tupletlength = 1.0/Double.parseDouble(noteStringLength.substring(1, tupletStringLength.length()));
-                }
-                else {
-                    tupletlength = 1.0/2.0;
-                }
-            }
-            else {
-                double numerator = Double.parseDouble(tupletStringLength.substring(0,tupletStringLength.indexOf("/")));
-                double denominator = 0.0;
-                if(tupletStringLength.charAt(tupletStringLength.length()-1)=='/') {
-                    denominator = 2.0;
-                }
-                else {
-                    denominator = Double.parseDouble(tupletStringLength.substring(tupletStringLength.indexOf("/")+1,tupletStringLength.length()));
-                }    
-                tupletlength = numerator/denominator;
-            }
-        }
-        else {
-            tupletlength = Double.parseDouble(tupletStringLength);
+            transpose = KeySignature.of(header.key()).transpose(notebase - 'A');
         }
+        return new Pitch(notebase).transpose(transpose + octave*Pitch.OCTAVE);
     }
     
     @Override
-    public void play(SequencePlayer player, double atBeat, Player mainPlayer) {
-        player.addNote(Instrument.PIANO, pitch, atBeat, notelength);
+    public void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice) {
+        // notes without lyrics have no voice in their syllable, so the voice is the one played in
+        player.addNote(header.instrument(voice), pitch, atBeat, notelength.toDouble());
         if (!noteSyllable.isSkipped()) {
-            player.addEvent(atBeat, (x)-> mainPlayer.streamToAll(noteSyllable.getLine(),noteSyllable.getVoice())); 
+            final Lyric lyric = mainPlayer.prepare(noteSyllable);
+            player.addEvent(atBeat, (x)-> mainPlayer.streamLyric(lyric, noteSyllable.getVoice())); 
         }
     }
 
+    @Override
+    public void compile(Timeline.Builder timeline, Fraction atBeat) {
+        timeline.addNote(pitch, atBeat, notelength, noteSyllable);
+    }
+
     @Override
     public double duration() {
-        return notelength*tupletlength;
+        return duration.toDouble();
+    }
+    
+    @Override
+    public Fraction exactDuration() {
+        return duration;
     }
 
     @Override
@@ -257,12 +196,12 @@ public class Note implements Music{
 
     @Override
     public int ticksPerBeat() {
-        return 360;
+        return Fraction.lcm(notelength.denominator(), duration.denominator());
     }
 
     @Override
     public String toString() {
-        return "Note(" + noteStringInput + noteStringLength + ")";
+        return "Note(" + pitch + ", " + duration + ")";
     }
     
     @Override
@@ -282,29 +221,36 @@ public class Note implements Music{
     @Override
     public Music addSyllableToNote(Syllable inputSyllable) {
         if (this.numNotesFree() == 1) {
-            this.noteSyllable = inputSyllable; 
+            return new Note(
+                    this.pitch,
+                    this.notelength,
+                    this.tupletlength,
+                    inputSyllable,
+                    this.header);
+        }
+        return this;
+    }
+    
+    @Override
+    public Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable) {
+        if (firstSyllable < syllables.size()) {
+            return addSyllableToNote(syllables.get(firstSyllable));
         }
-                
-        return new Note(
-                this.noteStringInput,
-                this.header,
-                this.noteStringLength,
-                this.tupletStringLength,
-                this.noteSyllable);
+        return this;
     }
     
     @Override
     public boolean equals(Object that) {
         if (that instanceof Note){
             Note other = (Note) that;
-            return this.pitch.equals(other.pitch) && this.notelength==other.notelength;
+            return this.pitch.equals(other.pitch) && this.notelength.equals(other.notelength);
         }
         return false;
     }
     
     @Override
     public int hashCode() {
-        return this.pitch.hashCode() + (int) Math.round(this.notelength);
+        return this.pitch.hashCode() + this.notelength.hashCode();
     }
    
 }
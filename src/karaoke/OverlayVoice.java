@@ -1,6 +1,7 @@
 package karaoke;
 
 import java.io.PrintWriter;
+import java.util.List;
 
 import karaoke.sound.SequencePlayer;
 
@@ -10,19 +11,25 @@ import karaoke.sound.SequencePlayer;
 public class OverlayVoice implements Music{
     
     // Abstraction Function
-    //  AF(m1, m2, header); represents music that overlays m1 and m2, such that it plays both music objects 
-    //  simultaneously. OverlyVoice is also associated with ABC header. 
+    //  AF(m1, m2, header, voice); represents music that overlays m1 and m2, such that it plays both music objects 
+    //  simultaneously. OverlyVoice is also associated with ABC header. m2 is the music of the voice named voice,
+    //  or of no particular voice if voice is null.
     // Rep Invariant: 
-    //  true
+    //  duration == max(m1.exactDuration(), m2.exactDuration())
+    //  ticksPerBeat == lcm(m1.ticksPerBeat(), m2.ticksPerBeat())
     // Safety from rep exposure
     //  all fields are private, final, and immutable
     // Thread Safety argument
     //  This class is threadsafe because it's immutable
     //  m1, m2, are private and final 
+    //  duration and ticksPerBeat are computed once in the constructor
 
     private final Music m1;
     private final Music m2;
     private final Header header;
+    private final String voice;
+    private final Fraction duration;
+    private final int ticksPerBeat;
     
     /**
      * Constructor for voice
@@ -30,21 +37,49 @@ public class OverlayVoice implements Music{
      * @param m2 second voice
      */
     public OverlayVoice(Music m1, Music m2, Header header) {
+        this(m1, m2, header, null);
+    }
+
+    /**
+     * Constructor for a named voice
+     * @param m1 first voice
+     * @param m2 second voice
+     * @param voice name of the second voice, or null if it has none
+     */
+    public OverlayVoice(Music m1, Music m2, Header header, String voice) {
         this.m1 = m1;
         this.m2 = m2;
         this.header = header;
-
+        this.voice = voice;
+        this.duration = m1.exactDuration().max(m2.exactDuration());
+        this.ticksPerBeat = Fraction.lcm(m1.ticksPerBeat(), m2.ticksPerBeat());
     }
     
     @Override
-    public void play(SequencePlayer player, double atBeat,Player mainPlayer) {
-        m1.play(player, atBeat,mainPlayer);
-        m2.play(player, atBeat,mainPlayer);
+    public void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice) {
+        m1.play(player, atBeat, mainPlayer, voice);
+        // m2 is in this overlay's voice if it names one, like compile schedules it
+        m2.play(player, atBeat, mainPlayer, this.voice == null ? voice : this.voice);
+    }
+
+    @Override
+    public void compile(Timeline.Builder timeline, Fraction atBeat) {
+        if (voice == null) {
+            timeline.schedule(m2, atBeat);
+        } else {
+            timeline.scheduleVoice(voice, m2, atBeat);
+        }
+        timeline.schedule(m1, atBeat);
     }
 
     @Override
     public double duration() {
-        return Double.max(m1.duration(), m2.duration());
+        return duration.toDouble();
+    }
+    
+    @Override
+    public Fraction exactDuration() {
+        return duration;
     }
 
     @Override
@@ -56,7 +91,7 @@ public class OverlayVoice implements Music{
 
     @Override
     public int ticksPerBeat() {
-        return 360;
+        return ticksPerBeat;
     }
 
     @Override
@@ -74,6 +109,11 @@ public class OverlayVoice implements Music{
         return this; 
     }
     
+    @Override
+    public Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable) {
+        return this; 
+    }
+    
     @Override
     public String toString() {
         return "Voice: " + m1.toString() + "\nVoice:" + m2.toString();
@@ -1,73 +1,457 @@
 package karaoke;
 
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
-
-import javax.sound.midi.InvalidMidiDataException;
-import javax.sound.midi.MidiUnavailableException;
-
-import karaoke.sound.MidiSequencePlayer;
-import karaoke.sound.SequencePlayer;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * keeps track of the outputs to stream to
  */
 public class Player {
-    
+
     /*
      * Abstraction function
-     *  AF(writers) = a collection of clients that we want to stream lyrics to, where each element 
-     *      is a printwriter that gives outputs the lyrics
+     *  AF(voices, capacity, policy, writerTasks, lineIds, nextLineId) = a collection of clients that we want to stream
+     *      lyrics to, where voices.get(v) are the connected clients viewing voice v and the lyrics recently
+     *      streamed to them, each client with a queue of at most capacity lyrics that the thread that added
+     *      the client, or else a task of writerTasks, writes to the client.s text or event stream,
+     *      or that an event loop polls, and where
+     *      lineIds.get(line) is the id that WebSocket clients know line by
      *  Rep invariant
-     *      true
+     *      capacity >= 1
+     *      a client is in at most one voice's list of clients
+     *      the values of lineIds are distinct and less than nextLineId
      *  Safety from rep exposure
-     *      nothing is returned
-     *      inputs are all immutable
+     *      only futures completed by the writer tasks and the queues of clients added by addClient are returned
+     *      inputs are all immutable, except the streams, which are only written by the
+     *          thread writing their client's queue
      *  Thread safety argument
      *      all fields are private and final
-     *      elements are only added to list, so there won't be any errors with accessing indices
+     *      voices is a threadsafe map of VoiceClients, which are threadsafe, so clients can join or leave
+     *          while lyrics are streamed without any lock shared by all voices, and a lyric and a joining
+     *          client of the same voice are ordered by that voice's lock
+     *      streamToAll only adds lyrics to the clients' queues, which never wait for the clients,
+     *          so the thread playing the song never waits for network I/O, and holds a voice's lock only briefly
+     *      streamToAll encodes each lyric once, into an immutable Lyric shared by all of its clients
+     *      lineIds is a threadsafe map, whose ids are taken from the atomic counter nextLineId
      */
 
-    
-    private final Map<String,List<PrintWriter>> writers;
+    /**
+     * What a client's queue does when a lyric is streamed while it is full.
+     */
+    public static enum OverflowPolicy {
+        /** drop the oldest lyric the client hasn't received yet */
+        DROP_OLDEST,
+        /** disconnect the client */
+        DISCONNECT
+    }
 
     /**
-     * constructor for player
+     * Number of lyrics that can wait for a client with the default constructor.
+     */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * Name of the system property that selects the overflow policy of the default constructor,
+     * "drop_oldest" (the default) or "disconnect".
+     */
+    public static final String OVERFLOW_PROPERTY = "karaoke.overflow";
+
+    /**
+     * Number of the most recent lines of a voice whose lyrics a client is sent as soon as it joins,
+     * so it has something to show before the next syllable is sung.
+     */
+    public static final int RECENT_LINES = 3;
+
+    private final ConcurrentMap<String,VoiceClients> voices;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ExecutorService writerTasks;
+    private final ConcurrentMap<String,Integer> lineIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLineId = new AtomicInteger();
+
+    /**
+     * constructor for player, where at most DEFAULT_CAPACITY lyrics can wait for a client,
+     * the overflow policy is selected by the system property OVERFLOW_PROPERTY,
+     * and the kind of writer threads by the system property ThreadMode.PROPERTY
+     * @throws IllegalArgumentException if a property names no overflow policy or thread mode
      */
     public Player(){
-        writers = new HashMap<String,List<PrintWriter>>();
+        this(DEFAULT_CAPACITY,
+                OverflowPolicy.valueOf(System.getProperty(OVERFLOW_PROPERTY, "drop_oldest").toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * constructor for player
+     * @param capacity most lyrics that can wait for a client that hasn't received them yet, at least 1
+     * @param policy what to do when a lyric is streamed to a client that already has capacity lyrics waiting
+     */
+    public Player(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, ThreadMode.fromProperty());
+    }
+
+    /**
+     * constructor for player
+     * @param capacity most lyrics that can wait for a client that hasn't received them yet, at least 1
+     * @param policy what to do when a lyric is streamed to a client that already has capacity lyrics waiting
+     * @param threads kind of thread that writes lyrics to each client added by addWriterAsync or addEventStreamAsync
+     */
+    public Player(int capacity, OverflowPolicy policy, ThreadMode threads) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.voices = new ConcurrentHashMap<String,VoiceClients>();
+        this.capacity = capacity;
+        this.policy = policy;
+        // writer threads don't keep the program running once the song is over
+        this.writerTasks = threads.newExecutor("lyric writer", true);
+    }
+
+
+    /**
+     * adds a client's plain text stream and writes the lyrics of its voice to it on the calling thread,
+     * one line each, until the client is disconnected, either by removeWriter, by its overflow policy,
+     * or because writing to it fails; then out is closed and this returns. Each line's UTF-8 bytes are
+     * encoded once and shared by every client of the voice. A thread that is already serving the client,
+     * such as a web server's request handler, writes to it this way, so the client costs no other thread.
+     * @param out stream that we want to stream to
+     * @param voice voice that the client wants to view
+     */
+    public void addWriter(OutputStream out, String voice) {
+        write(join(voice, new ClientQueue(out, textSink(out), capacity, policy)), voice);
+    }
+
+    /**
+     * adds a client's plain text stream as addWriter does, but writes to it with a writer task, so this
+     * returns as soon as the client has joined its voice
+     * @param out stream that we want to stream to
+     * @param voice voice that the client wants to view
+     * @return a future that completes once the client is disconnected and out is closed
+     */
+    public CompletableFuture<Void> addWriterAsync(OutputStream out, String voice) {
+        return writeAsync(join(voice, new ClientQueue(out, textSink(out), capacity, policy)), voice);
+    }
+
+    /**
+     * adds a client's server-sent event stream and writes the lyrics of its voice to it on the calling
+     * thread, until the client is disconnected, either by its overflow policy or because writing to it
+     * fails; then out is closed and this returns. Each lyric is sent as one event, whose bytes are
+     * encoded once and shared by every client of the voice. The response headers must already have
+     * been sent.
+     * @param out stream of the response to the client
+     * @param voice voice that the client wants to view
+     */
+    public void addEventStream(OutputStream out, String voice) {
+        write(join(voice, new ClientQueue(out, eventSink(out), capacity, policy)), voice);
+    }
+
+    /**
+     * adds a client's server-sent event stream as addEventStream does, but writes to it with a writer
+     * task, so this returns as soon as the client has joined its voice
+     * @param out stream of the response to the client
+     * @param voice voice that the client wants to view
+     * @return a future that completes once the client is disconnected and out is closed
+     */
+    public CompletableFuture<Void> addEventStreamAsync(OutputStream out, String voice) {
+        return writeAsync(join(voice, new ClientQueue(out, eventSink(out), capacity, policy)), voice);
+    }
+
+    private static ClientQueue.Sink textSink(OutputStream out) {
+        return new StreamSink(out) {
+            @Override void writeTo(Lyric line, OutputStream out) throws IOException {
+                line.writeText(out);
+            }
+        };
+    }
+
+    private static ClientQueue.Sink eventSink(OutputStream out) {
+        return new StreamSink(out) {
+            @Override void writeTo(Lyric line, OutputStream out) throws IOException {
+                line.writeEvent(out);
+            }
+        };
+    }
+
+    /**
+     * A client's stream, which each lyric is written to as bytes encoded once for every client
+     * and then flushed.
+     */
+    private abstract static class StreamSink implements ClientQueue.Sink {
+        private final OutputStream out;
+
+        StreamSink(OutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes the bytes of a lyric.
+         * @param line lyric to write
+         * @param out stream to the client
+         * @throws IOException if the client can't be written to
+         */
+        abstract void writeTo(Lyric line, OutputStream out) throws IOException;
+
+        @Override public boolean write(Lyric line) {
+            try {
+                writeTo(line, out);
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override public void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the client is already gone
+            }
+        }
+    }
+
+    /**
+     * writes a client's lyrics on the calling thread until it is disconnected, then removes it
+     * @param client queue of a client that has joined voice, written to by a sink
+     * @param voice voice that the client views
+     */
+    private void write(ClientQueue client, String voice) {
+        client.run();
+        clientsOf(voice).remove(client);
+    }
+
+    /**
+     * writes a client's lyrics with a writer task until it is disconnected, then removes it
+     * @param client queue of a client that has joined voice, written to by a sink
+     * @param voice voice that the client views
+     * @return a future that completes once the client is disconnected and its sink is closed
+     */
+    private CompletableFuture<Void> writeAsync(ClientQueue client, String voice) {
+        final CompletableFuture<Void> disconnected = new CompletableFuture<>();
+        writerTasks.execute(() -> {
+            try {
+                write(client, voice);
+            } finally {
+                disconnected.complete(null);
+            }
+        });
+        return disconnected;
+    }
+
+    /**
+     * adds a client written to by polling its queue, e.g. by an event loop, rather than by a writer task
+     * @param voice voice that the client wants to view
+     * @param ready told whenever a lyric is streamed to the client or the client is disconnected,
+     *          which must not wait for the client
+     * @return the client's queue, whose capacity and overflow policy are this player's
+     */
+    ClientQueue addClient(String voice, Runnable ready) {
+        return join(voice, new ClientQueue(capacity, policy, ready));
+    }
+
+    /**
+     * adds a client to the clients of a voice, after offering it the recent lines of the voice
+     * @param voice voice that the client wants to view
+     * @param client queue of the client
+     * @return client
+     */
+    private ClientQueue join(String voice, ClientQueue client) {
+        final VoiceClients voiceClients = voices.computeIfAbsent(voice, v -> new VoiceClients());
+        voiceClients.lock.lock();
+        try {
+            // at most capacity of them, so offering them never overflows the queue
+            for (Lyric lyric : voiceClients.recent(capacity)) {
+                client.offer(lyric);
+            }
+            voiceClients.clients.add(client);
+        } finally {
+            voiceClients.lock.unlock();
+        }
+        return client;
+    }
+
+    /**
+     * disconnects a client added by addClient; lyrics it hasn't received yet are dropped
+     * @param voice voice that the client views
+     * @param client queue of the client
+     */
+    void removeClient(String voice, ClientQueue client) {
+        client.close();
+        clientsOf(voice).remove(client);
     }
-    
-        
+
     /**
-     * adds a client's printwriter
-     * @param out printwriter that we want to stream to
-     * @param voice voice that the client wants to view 
+     * disconnects a client, closing its stream; lyrics it hasn't received yet are dropped
+     * @param out stream of the client, added by addWriter or addWriterAsync
+     * @param voice voice that the client views
      */
-    public void addWriter(PrintWriter out, String voice) {
+    public void removeWriter(OutputStream out, String voice) {
+        final List<ClientQueue> voiceClients = clientsOf(voice);
+        for (ClientQueue client : voiceClients) {
+            if (client.writesTo(out)) {
+                client.close();
+                voiceClients.remove(client);
+            }
+        }
+    }
 
-        if (writers.containsKey(voice)) {
-            writers.get(voice).add(out);
+    /**
+     * disconnects every client of a voice, closing their streams once the threads
+     * writing to them notice, which returns from addWriter and addEventStream and completes the futures
+     * of addWriterAsync and addEventStreamAsync; lyrics they haven't received yet are dropped
+     * @param voice voice whose clients to disconnect
+     */
+    public void disconnect(String voice) {
+        final List<ClientQueue> voiceClients = clientsOf(voice);
+        for (ClientQueue client : voiceClients) {
+            client.close();
+            voiceClients.remove(client);
         }
-        else {
-            writers.put(voice, new ArrayList<PrintWriter>());
-            writers.get(voice).add(out);
+    }
+
+    /**
+     * disconnects every client of every voice, as by disconnect(voice)
+     */
+    public void disconnectAll() {
+        for (String voice : voices.keySet()) {
+            disconnect(voice);
         }
     }
-    
+
     /**
-     * streams to all clients
+     * @param voice a voice
+     * @return the number of connected clients viewing voice
+     */
+    public int numClients(String voice) {
+        return clientsOf(voice).size();
+    }
+
+    private List<ClientQueue> clientsOf(String voice) {
+        final VoiceClients voiceClients = voices.get(voice);
+        return voiceClients == null ? Collections.emptyList() : voiceClients.clients;
+    }
+
+    /**
+     * streams to all clients, without waiting for any of them to receive the lyrics;
+     * clients that join later are sent the lyrics of the most recent lines first
      * @param lyrics lyrics that we want to stream
      * @param voice the voice we want to stream
      */
     public void streamToAll(String lyrics, String voice) {
-        for (PrintWriter writer:writers.get(voice)) {
-            writer.println(lyrics);
+        // nothing is highlighted in a line that isn't a syllable
+        offerToAll(new Lyric(lyrics, lineId(lyrics), lyrics, 0, 0), voice);
+    }
+
+    /**
+     * streams the line of a syllable with the syllable highlighted to all clients of its voice,
+     * without waiting for any of them to receive it;
+     * clients that join later are sent the lyrics of the most recent lines first
+     * @param syllable syllable being sung
+     */
+    public void streamSyllable(Syllable syllable) {
+        streamLyric(prepare(syllable), syllable.getVoice());
+    }
+
+    /**
+     * encodes the line of a syllable with the syllable highlighted, for every kind of client, so that
+     * streaming it while the song plays builds no strings or bytes
+     * @param syllable a syllable of the song
+     * @return the lyric to stream when syllable is sung
+     */
+    Lyric prepare(Syllable syllable) {
+        final String line = syllable.getLyricLine();
+        return new Lyric(syllable.getLine(), lineId(line), line, syllable.getBeginIndex(), syllable.getEndIndex());
+    }
+
+    /**
+     * streams a lyric prepared by this player to all clients of a voice, without waiting for any of them
+     * to receive it; clients that join later are sent the lyrics of the most recent lines first
+     * @param lyric lyric returned by prepare
+     * @param voice the voice we want to stream
+     */
+    void streamLyric(Lyric lyric, String voice) {
+        offerToAll(lyric, voice);
+    }
+
+    /**
+     * @param line a line of lyrics, without marks
+     * @return the id WebSocket clients know line by
+     */
+    private int lineId(String line) {
+        return lineIds.computeIfAbsent(line, l -> nextLineId.getAndIncrement());
+    }
+
+    private void offerToAll(Lyric lyric, String voice) {
+        final VoiceClients voiceClients = voices.computeIfAbsent(voice, v -> new VoiceClients());
+        voiceClients.lock.lock();
+        try {
+            voiceClients.remember(lyric);
+            for (ClientQueue client : voiceClients.clients) {
+                if (!client.offer(lyric)) {
+                    // don't wait for the thread writing to it to notice, it may be stuck writing to the client
+                    voiceClients.clients.remove(client);
+                }
+            }
+        } finally {
+            voiceClients.lock.unlock();
+        }
+    }
+
+    /**
+     * The clients of one voice, and the lyrics most recently streamed to them.
+     */
+    private static class VoiceClients {
+
+        // Abstraction function
+        //   AF(clients, recent, lock) = the connected clients viewing a voice, where recent are the
+        //       last lyrics streamed of the last RECENT_LINES lines of the voice, oldest first
+        // Rep invariant
+        //   recent.size() <= RECENT_LINES
+        //   the lyrics of recent are of distinct lines
+        // Thread safety argument
+        //   clients is a threadsafe copy-on-write list
+        //   recent is only accessed while holding lock, which is also held while a lyric is offered
+        //       to clients and while a client joins, so a client that joins is offered the recent
+        //       lyrics and then every later lyric, once each, in order
+
+        private final List<ClientQueue> clients = new CopyOnWriteArrayList<>();
+        private final Deque<Lyric> recent = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Records a lyric streamed to the voice, replacing the last lyric of the same line
+         * if the line is still being sung. Must hold lock.
+         */
+        void remember(Lyric lyric) {
+            if (!recent.isEmpty() && recent.peekLast().lineId() == lyric.lineId()) {
+                recent.removeLast();
+            }
+            recent.addLast(lyric);
+            if (recent.size() > RECENT_LINES) {
+                recent.removeFirst();
+            }
+        }
+
+        /**
+         * Must hold lock.
+         * @param most most lyrics to return
+         * @return the newest at most most recent lyrics, oldest first
+         */
+        List<Lyric> recent(int most) {
+            final List<Lyric> lyrics = new ArrayList<>(recent);
+            return lyrics.subList(Math.max(0, lyrics.size() - most), lyrics.size());
         }
     }
-    
 }
@@ -0,0 +1,80 @@
+package karaoke;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.sound.WavSequencePlayer;
+
+/**
+ * Renders songs to WAV files without a sound card, several songs at a time, each as fast
+ * as a processor can render it.
+ */
+public class RenderCatalog {
+
+    private static final String WAV_SUFFIX = ".wav";
+
+    /**
+     * Renders every song to a WAV file of the same name in the output directory, with the
+     * suffix .wav instead of its own. Songs that can't be read or parsed are reported on
+     * System.err and skipped.
+     * @param args the output directory, then ABC files or song files written by SongFile
+     * @throws IOException if the output directory can't be created
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: RenderCatalog outputDirectory song...");
+            return;
+        }
+        final File outputDirectory = new File(args[0]);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("can't create " + outputDirectory);
+        }
+        final long start = System.nanoTime();
+        final AtomicInteger rendered = new AtomicInteger();
+        Arrays.stream(args, 1, args.length).parallel().map(File::new).forEach(file -> {
+            try {
+                render(file, outputDirectory);
+                rendered.incrementAndGet();
+            } catch (IOException | UnableToParseException e) {
+                System.err.println("can't render " + file + ": " + e.getMessage());
+            }
+        });
+        System.out.printf("rendered %d of %d songs in %.1f s%n",
+                rendered.get(), args.length - 1, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Renders a song to a WAV file.
+     * @param file ABC file or song file written by SongFile
+     * @param outputDirectory directory to write the WAV file to
+     * @throws IOException if the song can't be read or the WAV file can't be written
+     * @throws UnableToParseException if the song is an ABC file that can't be parsed
+     */
+    public static void render(File file, File outputDirectory) throws IOException, UnableToParseException {
+        final Song song;
+        if (SongFile.isSongFile(file)) {
+            song = SongFile.read(file);
+        } else {
+            song = SongCache.defaultCache().load(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        }
+        final Header header = song.header();
+        // a beat is a quarter note, as in Main
+        final int beatsPerMinute = (int) (header.tempoLength() / header.noteLength() * header.tempo());
+
+        final String name = file.getName().replaceFirst("\\.[^.]*$", "");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(outputDirectory, name + WAV_SUFFIX)))) {
+            final WavSequencePlayer player = new WavSequencePlayer(beatsPerMinute, out);
+            // nobody is listening for the lyrics, so they go to a player without clients
+            song.timeline().schedule(player, new Player(), header);
+            player.play();
+        }
+    }
+}
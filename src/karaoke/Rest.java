@@ -1,6 +1,7 @@
 package karaoke;
 
 import java.io.PrintWriter;
+import java.util.List;
 
 import karaoke.sound.SequencePlayer;
 
@@ -22,7 +23,7 @@ public class Rest implements Music{
     //   header and restLength are immutable
     
     private final Header header;
-    private final double restLength;
+    private final Fraction restLength;
     
     /**
      * Constructor for Rest
@@ -30,31 +31,17 @@ public class Rest implements Music{
      * @param length length of rest
      */
     public Rest(Header header, String length) {
+        this(header, Fraction.parse(length));
+    }
+    
+    /**
+     * Constructor for Rest from an already decoded length
+     * @param header header for the music
+     * @param restLength length of rest, >= 0
+     */
+    public Rest(Header header, Fraction restLength) {
         this.header = header;
-        if (length.contains("/")) {
-            if (length.charAt(0)=='/') {
-                if (length.length()>1) {
-                    restLength = 1.0/Double.parseDouble(length.substring(1, length.length()));
-                }
-                else {
-                    restLength = 1.0/2.0;
-                }
-            }
-            else {
-                double numerator = Double.parseDouble(length.substring(0,length.indexOf("/")));
-                double denominator = 0.0;
-                if(length.charAt(length.length()-1)=='/') {
-                    denominator = 2.0;
-                }
-                else {
-                    denominator = Double.parseDouble(length.substring(length.indexOf("/")+1,length.length()));
-                }    
-                restLength = numerator/denominator;
-            }
-        }
-        else {
-            restLength = Double.parseDouble(length);
-        }
+        this.restLength = restLength;
     }
     
     public Rest(Header header) {
@@ -62,12 +49,22 @@ public class Rest implements Music{
     }
 
     @Override
-    public void play(SequencePlayer player, double atBeat, Player mainPlayer) {
+    public void play(SequencePlayer player, double atBeat, Player mainPlayer, String voice) {
         //don't play anything
     }
     
+    @Override
+    public void compile(Timeline.Builder timeline, Fraction atBeat) {
+        //nothing to schedule
+    }
+    
     @Override
     public double duration() {
+        return restLength.toDouble();
+    }
+    
+    @Override
+    public Fraction exactDuration() {
         return restLength;
     }
 
@@ -78,7 +75,7 @@ public class Rest implements Music{
 
     @Override
     public int ticksPerBeat() {
-        return 360;
+        return restLength.denominator();
     }
     
     @Override
@@ -91,6 +88,11 @@ public class Rest implements Music{
         return this; 
     }
     
+    @Override
+    public Music addSyllablesToNotes(List<Syllable> syllables, int firstSyllable) {
+        return this; 
+    }
+    
     @Override
     public int numNotesFree() {
         return 0; 
@@ -105,13 +107,13 @@ public class Rest implements Music{
     public boolean equals(Object that) {
         if (that instanceof Rest) {
             Rest other = (Rest) that;
-            return restLength == other.restLength;
+            return restLength.equals(other.restLength);
         }
         return false;
     }
     
     @Override
     public int hashCode() {
-        return (int) Math.round(restLength);
+        return restLength.hashCode();
     }
 }
@@ -0,0 +1,58 @@
+package karaoke;
+
+/**
+ * Immutable compiled song: the header of an abc file together with the flat timeline
+ * of its notes and lyrics, which is everything needed to play it.
+ */
+public class Song {
+
+    // Abstraction Function
+    //  AF(header, timeline): represents the song described by header whose notes and
+    //  lyrics are played as scheduled in timeline
+    // Rep Invariant
+    //  true
+    // Safety from rep exposure
+    //  all fields are private and final
+    //  timeline is immutable, and header only exposes defensive copies of its mutable parts
+    // Thread Safety argument
+    //  This class is threadsafe because it's immutable
+
+    private final Header header;
+    private final Timeline timeline;
+
+    /**
+     * @param header header of the song
+     * @param timeline timeline of the song's notes and lyrics
+     */
+    public Song(Header header, Timeline timeline) {
+        this.header = header;
+        this.timeline = timeline;
+    }
+
+    /**
+     * @param music music to compile
+     * @return the song with music's header, compiled at music's minimal resolution
+     */
+    public static Song compile(Music music) {
+        return new Song(music.header(), Timeline.compile(music));
+    }
+
+    /**
+     * @return header of the song
+     */
+    public Header header() {
+        return header;
+    }
+
+    /**
+     * @return timeline of the song's notes and lyrics
+     */
+    public Timeline timeline() {
+        return timeline;
+    }
+
+    @Override
+    public String toString() {
+        return "Song(" + header.title() + ", " + timeline.size() + " events)";
+    }
+}
@@ -0,0 +1,153 @@
+package karaoke;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.KaraokeParser;
+
+/**
+ * Persistent store of compiled songs in a directory on disk. Each song is filed under a
+ * hash of its abc text and of the grammars it was parsed with, so launching the same song
+ * again loads its header and timeline directly instead of rerunning the parser, and any
+ * change to the file or the grammars simply misses the cache.
+ *
+ * Changes to the Java code of the parser or compiler are not hashed: any change that builds a
+ * different song from the same abc text, e.g. how accidentals carry over or the order voices are
+ * overlaid in, must bump SongFile.FORMAT_VERSION, or the cache keeps serving songs built the old way.
+ */
+public class SongCache {
+
+    // Abstraction Function
+    //  AF(directory): represents the map from key(abc) to the compiled song of abc, for every
+    //  song file in directory named key(abc) + SongFile.SUFFIX
+    // Rep Invariant
+    //  true
+    // Safety from rep exposure
+    //  all fields are private and final, and Files are immutable
+    // Thread Safety argument
+    //  entries are song files, written to a temporary file and atomically moved into place, so a
+    //  concurrent reader (in this or another process) sees either no entry or a complete one
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    private final File directory;
+
+    /**
+     * Creates a cache that stores songs in directory, creating it when the first song is stored.
+     * @param directory directory to store songs in
+     */
+    public SongCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the cache in the directory named by the system property karaoke.cache,
+     *         or in .karaoke/cache under the user's home directory if it is not set
+     */
+    public static SongCache defaultCache() {
+        final String path = System.getProperty("karaoke.cache");
+        if (path != null) {
+            return new SongCache(new File(path));
+        }
+        return new SongCache(new File(new File(System.getProperty("user.home"), ".karaoke"), "cache"));
+    }
+
+    /**
+     * @param abc text of an abc file
+     * @return hex digest of the song file format version, the header and music grammars, and abc
+     * @throws IOException if the grammar files can't be read
+     */
+    public static String key(String abc) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("every Java platform supports " + HASH_ALGORITHM, e);
+        }
+        digest.update((byte) SongFile.FORMAT_VERSION);
+        for (String grammar : new String[] { KaraokeParser.HEADER_GRAMMAR, KaraokeParser.MUSIC_GRAMMAR }) {
+            final byte[] bytes = Files.readAllBytes(new File(grammar).toPath());
+            digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+            digest.update(bytes);
+        }
+        digest.update(abc.getBytes(StandardCharsets.UTF_8));
+
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Loads the compiled song of abc, parsing and storing it if it is not in the cache yet.
+     * Failing to read or write the cache is reported on System.err but never prevents
+     * the song from being returned.
+     * @param abc text of an abc file
+     * @return the compiled song of abc
+     * @throws UnableToParseException if abc is not cached and can't be parsed
+     */
+    public Song load(String abc) throws UnableToParseException {
+        String key = null;
+        try {
+            key = key(abc);
+            final Optional<Song> cached = lookup(key);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        } catch (IOException e) {
+            System.err.println("can't read song cache: " + e.getMessage());
+        }
+
+        final Song song = Song.compile(KaraokeParser.parse(abc));
+        if (key != null) {
+            try {
+                store(key, song);
+            } catch (IOException e) {
+                System.err.println("can't write song cache: " + e.getMessage());
+            }
+        }
+        return song;
+    }
+
+    /**
+     * @param key key of a song, as returned by key()
+     * @return the song stored under key, or empty if there is none
+     * @throws IOException if the entry exists but can't be read or is corrupt
+     */
+    public Optional<Song> lookup(String key) throws IOException {
+        final File file = new File(directory, key + SongFile.SUFFIX);
+        if (!file.isFile()) {
+            return Optional.empty();
+        }
+        return Optional.of(SongFile.read(file));
+    }
+
+    /**
+     * Stores a song under key, replacing any song already stored there.
+     * @param key key of the song, as returned by key()
+     * @param song compiled song to store
+     * @throws IOException if the cache directory or file can't be written
+     */
+    public void store(String key, Song song) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can't create " + directory);
+        }
+        final File temp = File.createTempFile(key, ".tmp", directory);
+        try {
+            SongFile.write(song, temp);
+            Files.move(temp.toPath(), new File(directory, key + SongFile.SUFFIX).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package karaoke;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.KaraokeParser;
+import karaoke.sound.Instrument;
+
+/**
+ * Reads and writes compiled songs in a compact, versioned binary format.
+ *
+ * A song file is a sequence of big-endian ints (doubles are stored as two ints):
+ *      magic, version
+ *      string table: count, then for each string its UTF-8 length and bytes
+ *      header: index, title, meter numerator, meter denominator, key, tempo, note length,
+ *              tempo length, music, composer, voice count, then each voice and the ordinal of its instrument
+ *      syllables: ticks per beat, count, then voice, lyric line, begin, end of each
+ *      voices of the events: count, then each voice
+ *      events: count, then every start, then every length, then every packed note and syllable,
+ *              then every voice index
+ * where every string is stored once in the string table and referred to by its index.
+ *
+ * Reading maps the file into memory and copies each event array out with a single bulk
+ * get, so loading a song does not create an object per note.
+ */
+public class SongFile {
+
+    /**
+     * Version of the song file format; files written with another version are not read.
+     * SongCache keys its songs by this version too, so it must also be bumped whenever the parser
+     * or compiler would build a different song from the same abc text.
+     */
+    public static final int FORMAT_VERSION = 5;
+
+    /**
+     * Suffix of song files.
+     */
+    public static final String SUFFIX = ".song";
+
+    // first int of every song file
+    private static final int MAGIC = 0x4B53_4F4E; // "KSON"
+
+    // an event's note and syllable index are packed into one int: (syllable + 1) << NOTE_BITS | (note + 1)
+    private static final int NOTE_BITS = 8;
+    private static final int NOTE_MASK = (1 << NOTE_BITS) - 1;
+    private static final int MAX_NOTE = NOTE_MASK - 1;
+    private static final int MAX_SYLLABLES = (1 << (Integer.SIZE - NOTE_BITS)) - 1;
+
+    private SongFile() {
+        // not instantiable, only static methods
+    }
+
+    /**
+     * Compiles abc files into song files.
+     * @param args an abc file to read, followed by the song file to write
+     * @throws IOException if a file can't be read or written
+     * @throws UnableToParseException if the abc file can't be parsed
+     */
+    public static void main(String[] args) throws IOException, UnableToParseException {
+        final String abc = new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8);
+        write(Song.compile(KaraokeParser.parse(abc)), new File(args[1]));
+    }
+
+    /**
+     * Writes a song file, replacing file if it exists.
+     * @param song compiled song to write
+     * @param file file to write
+     * @throws IOException if file can't be written, or song has a note outside the MIDI range
+     *         or too many syllables to be stored
+     */
+    public static void write(Song song, File file) throws IOException {
+        final Header header = song.header();
+        final Timeline timeline = song.timeline();
+        final List<Syllable> syllables = timeline.syllables();
+        if (syllables.size() > MAX_SYLLABLES) {
+            throw new IOException("too many syllables to store: " + syllables.size());
+        }
+
+        // intern every string, so that each lyric line is stored once however many syllables it has
+        final Map<String, Integer> strings = new HashMap<>();
+        final List<String> table = new ArrayList<>();
+        final Set<String> voices = header.voices();
+        for (String string : new String[] { header.title(), header.key(), header.getMusic(), header.composer() }) {
+            intern(string, strings, table);
+        }
+        for (String voice : voices) {
+            intern(voice, strings, table);
+        }
+        for (Syllable syllable : syllables) {
+            intern(syllable.getVoice(), strings, table);
+            intern(syllable.getLyricLine(), strings, table);
+        }
+        for (String voice : timeline.voices()) {
+            intern(voice, strings, table);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(table.size());
+            for (String string : table) {
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(header.index());
+            out.writeInt(strings.get(header.title()));
+            out.writeInt(header.meterN());
+            out.writeInt(header.meterD());
+            out.writeInt(strings.get(header.key()));
+            out.writeDouble(header.tempo());
+            out.writeDouble(header.noteLength());
+            out.writeDouble(header.tempoLength());
+            out.writeInt(strings.get(header.getMusic()));
+            out.writeInt(strings.get(header.composer()));
+            out.writeInt(voices.size());
+            for (String voice : voices) {
+                out.writeInt(strings.get(voice));
+                out.writeInt(header.instrument(voice).ordinal());
+            }
+
+            out.writeInt(timeline.ticksPerBeat());
+            out.writeInt(syllables.size());
+            for (Syllable syllable : syllables) {
+                out.writeInt(strings.get(syllable.getVoice()));
+                out.writeInt(strings.get(syllable.getLyricLine()));
+                out.writeInt(syllable.getBeginIndex());
+                out.writeInt(syllable.getEndIndex());
+            }
+            out.writeInt(timeline.voices().size());
+            for (String voice : timeline.voices()) {
+                out.writeInt(strings.get(voice));
+            }
+
+            final int size = timeline.size();
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(timeline.start(i));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(timeline.length(i));
+            }
+            for (int i = 0; i < size; i++) {
+                final int note = timeline.note(i);
+                if (note > MAX_NOTE || note < Timeline.NO_NOTE) {
+                    throw new IOException("can't store note " + note);
+                }
+                out.writeInt(((timeline.syllableIndex(i) + 1) << NOTE_BITS) | (note + 1));
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(timeline.voiceIndex(i));
+            }
+        }
+    }
+
+    private static void intern(String string, Map<String, Integer> strings, List<String> table) {
+        if (!strings.containsKey(string)) {
+            strings.put(string, table.size());
+            table.add(string);
+        }
+    }
+
+    /**
+     * @param file file to check
+     * @return true if file starts like a song file of any version
+     * @throws IOException if file can't be read
+     */
+    public static boolean isSongFile(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // keep reading until the magic number is complete or the file ends
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a song file by mapping it into memory.
+     * @param file song file to read
+     * @return the song stored in file
+     * @throws IOException if file can't be read, is not a song file of FORMAT_VERSION, or is corrupt
+     */
+    public static Song read(File file) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return read(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("corrupt song file " + file, e);
+        }
+    }
+
+    private static Song read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("not a song file");
+        }
+        final int version = buffer.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("song file version " + version + " is not " + FORMAT_VERSION);
+        }
+
+        final String[] table = new String[count(buffer)];
+        for (int i = 0; i < table.length; i++) {
+            final byte[] bytes = new byte[count(buffer)];
+            buffer.get(bytes);
+            table[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        final int index = buffer.getInt();
+        final String title = table[buffer.getInt()];
+        final int meterNumerator = buffer.getInt();
+        final int meterDenominator = buffer.getInt();
+        final String key = table[buffer.getInt()];
+        final double tempo = buffer.getDouble();
+        final double noteLength = buffer.getDouble();
+        final double tempoLength = buffer.getDouble();
+        final String music = table[buffer.getInt()];
+        final String composer = table[buffer.getInt()];
+        final int numVoices = count(buffer);
+        final Set<String> voices = new HashSet<>();
+        final Map<String, Instrument> instruments = new HashMap<>();
+        final Instrument[] allInstruments = Instrument.values();
+        for (int i = 0; i < numVoices; i++) {
+            final String voice = table[buffer.getInt()];
+            voices.add(voice);
+            instruments.put(voice, allInstruments[buffer.getInt()]);
+        }
+        final Header header = new Header(index, title, meterNumerator, meterDenominator, key, tempo, noteLength,
+                voices, music, tempoLength, composer, instruments);
+
+        final int ticksPerBeat = buffer.getInt();
+        if (ticksPerBeat <= 0) {
+            throw new IOException("corrupt song file");
+        }
+        final int numSyllables = count(buffer);
+        final List<Syllable> syllables = new ArrayList<>(numSyllables);
+        for (int i = 0; i < numSyllables; i++) {
+            final String voice = table[buffer.getInt()];
+            final String line = table[buffer.getInt()];
+            final int begin = buffer.getInt();
+            final int end = buffer.getInt();
+            if (begin < 0 || begin > end) {
+                throw new IOException("corrupt song file");
+            }
+            syllables.add(new Syllable(voice, line, begin, end));
+        }
+        final int numEventVoices = count(buffer);
+        final List<String> eventVoices = new ArrayList<>(numEventVoices);
+        for (int i = 0; i < numEventVoices; i++) {
+            eventVoices.add(table[buffer.getInt()]);
+        }
+
+        final int size = count(buffer);
+        final IntBuffer events = buffer.asIntBuffer();
+        final int[] starts = new int[size];
+        final int[] lengths = new int[size];
+        final int[] notes = new int[size];
+        final int[] syllableIndices = new int[size];
+        final int[] voiceIndices = new int[size];
+        events.get(starts);
+        events.get(lengths);
+        events.get(notes);
+        events.get(voiceIndices);
+        for (int i = 0; i < size; i++) {
+            final int packed = notes[i];
+            notes[i] = (packed & NOTE_MASK) - 1;
+            syllableIndices[i] = (packed >>> NOTE_BITS) - 1;
+            if (starts[i] < 0 || lengths[i] < 0 || (i > 0 && starts[i - 1] > starts[i])
+                    || syllableIndices[i] >= numSyllables
+                    || voiceIndices[i] < Timeline.NO_VOICE || voiceIndices[i] >= numEventVoices) {
+                throw new IOException("corrupt song file");
+            }
+        }
+        return new Song(header, new Timeline(starts, lengths, notes, syllableIndices, syllables,
+                voiceIndices, eventVoices, ticksPerBeat));
+    }
+
+    private static int count(ByteBuffer buffer) throws IOException {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            // every counted item takes at least one byte, so a larger count can't be valid
+            throw new IOException("corrupt song file");
+        }
+        return count;
+    }
+}
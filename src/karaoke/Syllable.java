@@ -10,20 +10,23 @@ import karaoke.sound.SequencePlayer;
 public class Syllable {
 
     // Abstraction Function:
-    //  AF(voice, lyricLine, begin, end): represents a syllable linked to a voice, in which it's text 
-    //  can be indexed through lyricLine.substring(begin, end-1)
+    //  AF(voice, lyricLine, begin, end, line): represents a syllable linked to a voice, in which it's text 
+    //  can be indexed through lyricLine.substring(begin, end-1), and which is displayed as line
     // Rep Invariant:
     //  begin <= end
+    //  line is lyricLine with the syllable surrounded by stars
     // Safety from rep exposure:
     //  all fields are final, private, and immutable
     // Thread Safety argument: 
     //  This class is threadsafe is because it's immutable: 
-    //  lyricLine, begin, end, voice are private & final 
+    //  lyricLine, begin, end, voice, line are private & final 
     
     private final String lyricLine;
     private final int begin;
     private final int end;
     private final String voice;
+    // built once, so that displaying the syllable while the song plays builds no strings
+    private final String line;
 
     
     public Syllable(String voice, String lyricLine, int begin, int end) { 
@@ -31,6 +34,21 @@ public class Syllable {
         this.lyricLine = lyricLine; 
         this.begin = begin;
         this.end = end;
+        this.line = highlight(lyricLine, begin, end);
+    }
+
+    private static String highlight(String lyricLine, int begin, int end) {
+        final StringBuilder line = new StringBuilder(lyricLine.length() + 2);
+        for (int i=0; i<lyricLine.length(); i++) {
+            if (i==begin) {
+                line.append('*');
+            }
+            line.append(lyricLine.charAt(i));
+            if (i==end-1) {
+                line.append('*');
+            }
+        }
+        return line.toString();
     }
     
     // this is the lyric line passed from the parser
@@ -64,16 +82,6 @@ public class Syllable {
     
     public String getLine() {
         checkRep();
-        String line = "";
-        for (int i=0; i<lyricLine.length(); i++) {
-            if (i==begin) {
-                line += "*";
-            }
-            line += lyricLine.charAt(i);
-            if (i==end-1) {
-                line += "*";
-            }
-        }
         return line;        
     }
     
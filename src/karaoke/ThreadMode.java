@@ -0,0 +1,82 @@
+package karaoke;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The kind of thread that serves each client of the web server and writes lyrics to it.
+ */
+public enum ThreadMode {
+
+    /** a platform thread per task, from a cached pool */
+    PLATFORM,
+
+    /**
+     * a virtual thread per task, which only costs memory for its stack while it waits;
+     * needs a JDK with virtual threads, otherwise platform threads are used
+     */
+    VIRTUAL;
+
+    /**
+     * Name of the system property that selects the thread mode, "platform" (the default) or "virtual".
+     */
+    public static final String PROPERTY = "karaoke.threads";
+
+    /**
+     * @return the thread mode named by the system property PROPERTY, or PLATFORM if it is not set
+     * @throws IllegalArgumentException if the property names no thread mode
+     */
+    public static ThreadMode fromProperty() {
+        return valueOf(System.getProperty(PROPERTY, "platform").toUpperCase(Locale.ROOT));
+    }
+
+    // creates an executor of virtual threads, or null if this JDK has none
+    private static final Method NEW_VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+    /**
+     * @return the method of Executors creating a virtual thread per task, looked up at run time so that
+     *          this still compiles and runs on JDKs without virtual threads, or null if there is none
+     */
+    private static Method virtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if this JDK can run virtual threads; if not, VIRTUAL uses platform threads
+     */
+    public static boolean virtualThreadsAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs every task in a new thread of this mode, or in a reused
+     * platform thread if this is PLATFORM or the JDK has no virtual threads.
+     * @param name name of the platform threads
+     * @param daemon true if the platform threads should not keep the program running;
+     *          virtual threads never do
+     * @return a new executor
+     */
+    public ExecutorService newExecutor(String name, boolean daemon) {
+        if (this == VIRTUAL && !virtualThreadsAvailable()) {
+            System.err.println("virtual threads need a newer JDK, using platform threads");
+        } else if (this == VIRTUAL) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                System.err.println("can't create virtual threads, using platform threads: " + e);
+            }
+        }
+        return Executors.newCachedThreadPool(task -> {
+            final Thread thread = new Thread(task, name);
+            thread.setDaemon(daemon);
+            return thread;
+        });
+    }
+}
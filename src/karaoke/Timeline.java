@@ -0,0 +1,451 @@
+package karaoke;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+import karaoke.sound.Instrument;
+import karaoke.sound.Pitch;
+import karaoke.sound.SequencePlayer;
+
+/**
+ * A flattened, immutable schedule of a Music object. Every note and lyric event of the music
+ * is stored in parallel primitive arrays sorted by start tick, so the whole song can be
+ * handed to a SequencePlayer in one linear sweep instead of re-walking the Music tree.
+ */
+public class Timeline {
+
+    // Abstraction Function
+    //  AF(starts, lengths, notes, syllableIndices, syllables, voiceIndices, voices, ticksPerBeat):
+    //  represents a song as a sequence of events, where event i starts at tick starts[i],
+    //  lasts lengths[i] ticks, sounds MIDI note notes[i] (nothing if notes[i] == NO_NOTE),
+    //  displays syllables.get(syllableIndices[i]) (nothing if syllableIndices[i] == NO_SYLLABLE),
+    //  and belongs to voice voices.get(voiceIndices[i]) (no voice if voiceIndices[i] == NO_VOICE).
+    //  A tick is 1/ticksPerBeat of a beat.
+    // Rep Invariant
+    //  starts, lengths, notes, syllableIndices, voiceIndices all have the same length
+    //  starts is sorted in ascending order, and starts[i] >= 0, lengths[i] >= 0
+    //  syllableIndices[i] == NO_SYLLABLE or 0 <= syllableIndices[i] < syllables.size()
+    //  voiceIndices[i] == NO_VOICE or 0 <= voiceIndices[i] < voices.size()
+    //  voices has no duplicates
+    //  ticksPerBeat > 0
+    // Safety from rep exposure
+    //  all fields are private and final
+    //  the arrays are only passed in by Builder and SongFile, which drop their references to them
+    //  the arrays are never returned, observers only return their elements
+    //  syllables and voices are unmodifiable lists of immutable Syllables and Strings
+    // Thread Safety argument
+    //  This class is threadsafe because it's immutable:
+    //  all fields are final and are never mutated after construction
+
+    /**
+     * Note number of an event that only displays a lyric.
+     */
+    public static final int NO_NOTE = -1;
+
+    /**
+     * Syllable index of an event that has no lyric attached.
+     */
+    public static final int NO_SYLLABLE = -1;
+
+    /**
+     * Voice index of an event that is not part of a named voice.
+     */
+    public static final int NO_VOICE = -1;
+
+    /**
+     * Largest resolution compile(Music) will use; this is also the largest a standard MIDI file can store.
+     */
+    public static final int MAX_TICKS_PER_BEAT = 0x7FFF;
+
+    /**
+     * Resolution compile(Music) falls back to, rounding to the nearest tick, when a song
+     * would need more than MAX_TICKS_PER_BEAT ticks per beat to be exact.
+     */
+    public static final int FALLBACK_TICKS_PER_BEAT = 960;
+
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+
+    private final int[] starts;
+    private final int[] lengths;
+    private final int[] notes;
+    private final int[] syllableIndices;
+    private final List<Syllable> syllables;
+    private final int[] voiceIndices;
+    private final List<String> voices;
+    private final int ticksPerBeat;
+
+    /**
+     * Creates a timeline from its events, which must satisfy the rep invariant.
+     * The arrays are not copied, so the caller must not mutate them afterwards.
+     */
+    Timeline(int[] starts, int[] lengths, int[] notes, int[] syllableIndices,
+            List<Syllable> syllables, int[] voiceIndices, List<String> voices, int ticksPerBeat) {
+        this.starts = starts;
+        this.lengths = lengths;
+        this.notes = notes;
+        this.syllableIndices = syllableIndices;
+        this.syllables = Collections.unmodifiableList(new ArrayList<>(syllables));
+        this.voiceIndices = voiceIndices;
+        this.voices = Collections.unmodifiableList(new ArrayList<>(voices));
+        this.ticksPerBeat = ticksPerBeat;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert starts.length == lengths.length;
+        assert starts.length == notes.length;
+        assert starts.length == syllableIndices.length;
+        assert starts.length == voiceIndices.length;
+        assert ticksPerBeat > 0;
+        for (int i = 0; i < starts.length; i++) {
+            assert starts[i] >= 0 && lengths[i] >= 0;
+            assert i == 0 || starts[i - 1] <= starts[i];
+            assert syllableIndices[i] == NO_SYLLABLE || syllableIndices[i] < syllables.size();
+            assert voiceIndices[i] == NO_VOICE || voiceIndices[i] < voices.size();
+        }
+    }
+
+    /**
+     * Compiles a Music object into a flat timeline at the smallest resolution in which every
+     * event falls exactly on a tick, music.ticksPerBeat(). If that exceeds MAX_TICKS_PER_BEAT,
+     * events are instead rounded to the nearest tick at FALLBACK_TICKS_PER_BEAT.
+     *
+     * @param music music to compile
+     * @return the timeline of all notes and lyric events in music, starting at beat 0
+     */
+    public static Timeline compile(Music music) {
+        final int ticksPerBeat = music.ticksPerBeat();
+        return compile(music, ticksPerBeat <= MAX_TICKS_PER_BEAT ? ticksPerBeat : FALLBACK_TICKS_PER_BEAT);
+    }
+
+    /**
+     * Compiles a Music object into a flat timeline. The Music tree is walked with an explicit
+     * work stack, so compiling does not recurse once per level of the tree. Events that
+     * do not fall on a whole tick are rounded to the nearest one.
+     *
+     * @param music music to compile
+     * @param ticksPerBeat resolution of the timeline, must be positive
+     * @return the timeline of all notes and lyric events in music, starting at beat 0
+     */
+    public static Timeline compile(Music music, int ticksPerBeat) {
+        Builder builder = new Builder(ticksPerBeat);
+        builder.schedule(music, Fraction.ZERO);
+        return builder.build();
+    }
+
+    /**
+     * @return the number of events in the timeline
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @return the number of ticks in one beat
+     */
+    public int ticksPerBeat() {
+        return ticksPerBeat;
+    }
+
+    /**
+     * @param i index of an event, 0 <= i < size()
+     * @return the tick at which event i starts
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @param i index of an event, 0 <= i < size()
+     * @return the number of ticks event i lasts
+     */
+    public int length(int i) {
+        return lengths[i];
+    }
+
+    /**
+     * @param i index of an event, 0 <= i < size()
+     * @return the MIDI note number of event i, or NO_NOTE if it only displays a lyric
+     */
+    public int note(int i) {
+        return notes[i];
+    }
+
+    /**
+     * @param i index of an event, 0 <= i < size()
+     * @return the index into syllables() of the lyric shown at event i, or NO_SYLLABLE if none
+     */
+    public int syllableIndex(int i) {
+        return syllableIndices[i];
+    }
+
+    /**
+     * @return the syllables referenced by the events of this timeline
+     */
+    public List<Syllable> syllables() {
+        return syllables;
+    }
+
+    /**
+     * @param i index of an event, 0 <= i < size()
+     * @return index into voices() of the voice event i belongs to, or NO_VOICE if it is in none
+     */
+    public int voiceIndex(int i) {
+        return voiceIndices[i];
+    }
+
+    /**
+     * @return the names of the voices referenced by the events of this timeline, in the order
+     *          they were compiled
+     */
+    public List<String> voices() {
+        return voices;
+    }
+
+    /**
+     * Adds every event of the timeline to a player, in order of start tick, with every note
+     * played by Header.DEFAULT_INSTRUMENT.
+     *
+     * @param player player to schedule the notes and lyric callbacks on
+     * @param mainPlayer the player that streams lyrics to clients
+     */
+    public void schedule(SequencePlayer player, Player mainPlayer) {
+        schedule(player, mainPlayer, voice -> Header.DEFAULT_INSTRUMENT);
+    }
+
+    /**
+     * Adds every event of the timeline to a player, in order of start tick, with the notes of
+     * each voice played by the instrument the header gives it.
+     *
+     * @param player player to schedule the notes and lyric callbacks on
+     * @param mainPlayer the player that streams lyrics to clients
+     * @param header header of the song, giving the instrument of each voice
+     */
+    public void schedule(SequencePlayer player, Player mainPlayer, Header header) {
+        schedule(player, mainPlayer, header::instrument);
+    }
+
+    private void schedule(SequencePlayer player, Player mainPlayer, Function<String, Instrument> instrumentOf) {
+        // instrument of each voice, and of the notes in no voice
+        final Instrument[] voiceInstruments = new Instrument[voices.size()];
+        for (int v = 0; v < voiceInstruments.length; v++) {
+            voiceInstruments[v] = instrumentOf.apply(voices.get(v));
+        }
+        final Instrument noVoiceInstrument = instrumentOf.apply(null);
+        final int[] numNotes = new int[Instrument.values().length];
+        for (int i = 0; i < starts.length; i++) {
+            if (notes[i] != NO_NOTE) {
+                numNotes[instrument(i, voiceInstruments, noVoiceInstrument).ordinal()]++;
+            }
+        }
+        // the notes of each instrument are handed over at once, so the player can schedule them in one pass
+        for (Instrument instrument : Instrument.values()) {
+            final int count = numNotes[instrument.ordinal()];
+            if (count == 0) {
+                continue;
+            }
+            final Pitch[] pitches = new Pitch[count];
+            final double[] startBeats = new double[count];
+            final double[] numBeats = new double[count];
+            int n = 0;
+            for (int i = 0; i < starts.length && n < count; i++) {
+                if (notes[i] != NO_NOTE && instrument(i, voiceInstruments, noVoiceInstrument) == instrument) {
+                    pitches[n] = Pitch.MIDDLE_C.transpose(notes[i] - MIDI_NOTE_MIDDLE_C);
+                    startBeats[n] = starts[i] / (double) ticksPerBeat;
+                    numBeats[n] = lengths[i] / (double) ticksPerBeat;
+                    n++;
+                }
+            }
+            player.addNotes(instrument, pitches, startBeats, numBeats);
+        }
+
+        for (int i = 0; i < starts.length; i++) {
+            final double atBeat = starts[i] / (double) ticksPerBeat;
+            if (syllableIndices[i] != NO_SYLLABLE) {
+                final Syllable syllable = syllables.get(syllableIndices[i]);
+                // encoded now, so the callback only hands the bytes to the clients
+                final Lyric lyric = mainPlayer.prepare(syllable);
+                final String voice = syllable.getVoice();
+                player.addEvent(atBeat, (x) -> mainPlayer.streamLyric(lyric, voice));
+            }
+        }
+    }
+
+    /**
+     * @return the instrument of the voice of event i
+     */
+    private Instrument instrument(int i, Instrument[] voiceInstruments, Instrument noVoiceInstrument) {
+        return voiceIndices[i] == NO_VOICE ? noVoiceInstrument : voiceInstruments[voiceIndices[i]];
+    }
+
+    @Override
+    public String toString() {
+        String timeline = "";
+        for (int i = 0; i < starts.length; i++) {
+            timeline += "Tick: " + starts[i] + " Length: " + lengths[i] + " Note: " + notes[i]
+                    + " Syllable: " + syllableIndices[i] + "\n";
+        }
+        return timeline;
+    }
+
+    /**
+     * Mutable accumulator of timeline events, passed to Music.compile. Composite Music variants
+     * hand their parts back through schedule() rather than compiling them recursively.
+     */
+    public static class Builder {
+
+        // Rep Invariant
+        //  0 <= size <= starts.length == lengths.length == notes.length == syllableIndices.length
+        //      == voiceIndices.length
+        //  pending, pendingBeats and pendingVoices have the same size
+        //  currentVoice and every voice index added are NO_VOICE or indices into voices
+        // Thread Safety argument
+        //  not threadsafe, a Builder must be confined to the thread compiling the timeline
+
+        private final int ticksPerBeat;
+        private final Deque<Music> pending = new ArrayDeque<>();
+        private final Deque<Fraction> pendingBeats = new ArrayDeque<>();
+        private final Deque<Integer> pendingVoices = new ArrayDeque<>();
+        private final List<Syllable> syllables = new ArrayList<>();
+        private final List<String> voices = new ArrayList<>();
+        // voice of the music being compiled
+        private int currentVoice = NO_VOICE;
+        private int[] starts = new int[16];
+        private int[] lengths = new int[16];
+        private int[] notes = new int[16];
+        private int[] syllableIndices = new int[16];
+        private int[] voiceIndices = new int[16];
+        private int size = 0;
+
+        private Builder(int ticksPerBeat) {
+            if (ticksPerBeat <= 0) {
+                throw new IllegalArgumentException("ticks per beat must be positive");
+            }
+            this.ticksPerBeat = ticksPerBeat;
+        }
+
+        /**
+         * Queues music to be compiled into the timeline starting at atBeat, in the same voice
+         * as the music being compiled.
+         *
+         * @param music music to compile
+         * @param atBeat beat at which the music starts
+         */
+        public void schedule(Music music, Fraction atBeat) {
+            pending.push(music);
+            pendingBeats.push(atBeat);
+            pendingVoices.push(currentVoice);
+        }
+
+        /**
+         * Queues the music of a voice to be compiled into the timeline starting at atBeat.
+         *
+         * @param voice name of the voice
+         * @param music music of the voice
+         * @param atBeat beat at which the music starts
+         */
+        public void scheduleVoice(String voice, Music music, Fraction atBeat) {
+            int index = voices.indexOf(voice);
+            if (index < 0) {
+                index = voices.size();
+                voices.add(voice);
+            }
+            pending.push(music);
+            pendingBeats.push(atBeat);
+            pendingVoices.push(index);
+        }
+
+        /**
+         * Adds a note event to the timeline.
+         *
+         * @param pitch pitch of the note
+         * @param atBeat beat at which the note starts
+         * @param numBeats number of beats the note is played
+         * @param syllable syllable shown when the note starts; skipped syllables are not shown
+         */
+        public void addNote(Pitch pitch, Fraction atBeat, Fraction numBeats, Syllable syllable) {
+            final int start = toTick(atBeat);
+            add(start, toTick(atBeat.plus(numBeats)) - start,
+                    MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C), syllable);
+        }
+
+        /**
+         * Adds an event to the timeline that only displays a lyric.
+         *
+         * @param atBeat beat at which the lyric is shown
+         * @param syllable syllable to show; skipped syllables are not added
+         */
+        public void addLyric(Fraction atBeat, Syllable syllable) {
+            if (!syllable.isSkipped()) {
+                add(toTick(atBeat), 0, NO_NOTE, syllable);
+            }
+        }
+
+        private int toTick(Fraction beat) {
+            return Math.toIntExact(beat.toTicks(ticksPerBeat));
+        }
+
+        private void add(int start, int length, int note, Syllable syllable) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+                lengths = Arrays.copyOf(lengths, 2 * size);
+                notes = Arrays.copyOf(notes, 2 * size);
+                syllableIndices = Arrays.copyOf(syllableIndices, 2 * size);
+                voiceIndices = Arrays.copyOf(voiceIndices, 2 * size);
+            }
+            starts[size] = start;
+            lengths[size] = length;
+            notes[size] = note;
+            if (syllable.isSkipped()) {
+                syllableIndices[size] = NO_SYLLABLE;
+            } else {
+                syllableIndices[size] = syllables.size();
+                syllables.add(syllable);
+            }
+            voiceIndices[size] = currentVoice;
+            size++;
+        }
+
+        /**
+         * Compiles all queued music, then sorts the events by start tick. Events that start
+         * on the same tick keep the order in which they were added.
+         *
+         * @return the finished timeline
+         */
+        private Timeline build() {
+            while (!pending.isEmpty()) {
+                currentVoice = pendingVoices.pop();
+                pending.pop().compile(this, pendingBeats.pop());
+            }
+
+            // sort by start tick, breaking ties by insertion order
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) starts[i] << Integer.SIZE) | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedStarts = new int[size];
+            int[] sortedLengths = new int[size];
+            int[] sortedNotes = new int[size];
+            int[] sortedSyllables = new int[size];
+            int[] sortedVoices = new int[size];
+            for (int i = 0; i < size; i++) {
+                int from = (int) order[i];
+                sortedStarts[i] = starts[from];
+                sortedLengths[i] = lengths[from];
+                sortedNotes[i] = notes[from];
+                sortedSyllables[i] = syllableIndices[from];
+                sortedVoices[i] = voiceIndices[from];
+            }
+            return new Timeline(sortedStarts, sortedLengths, sortedNotes, sortedSyllables, syllables,
+                    sortedVoices, voices, ticksPerBeat);
+        }
+    }
+}
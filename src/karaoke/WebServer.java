@@ -7,11 +7,10 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.InetSocketAddress;
-import java.nio.charset.StandardCharsets;
-import java.util.concurrent.Executors;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
 import com.sun.net.httpserver.HttpExchange;
@@ -39,30 +38,49 @@ public class WebServer {
     // Thread safety argument:
     //   Web servers have automatic synchronization
     //   All fields are private and final and never accessed by clients
+    //   each request is handled by a task of handlers, which writes its client's lyrics itself until
+    //   the client disconnects, waiting for them on a lock's condition rather than a monitor,
+    //   so handlers can be virtual threads
     
     private final HttpServer server;
-    private static Object lock;
+    private final ExecutorService handlers;
     private static Player mainPlayer;
 
     /**
      * Creates a new WebServer that listens for connections who want to join in on Karaoke.
-     * @param port the port number to connect to
+     * Requests are handled by threads of the kind selected by the system property ThreadMode.PROPERTY.
+     * @param port the port number to connect to, or 0 for any free port
      * @param mainPlayer the player that contains all of the outputstreams to stream to
-     * @param lock lock that is shared among all threads
-     * @param m music that we are streaming the lyrics to
+     * @param header header of the song that we are streaming the lyrics to
      * @throws IOException if network problem
+     * @throws IllegalArgumentException if the property names no thread mode
      */
-    public WebServer(int port,  Player mainPlayer, Object lock, Music m) throws IOException{
+    public WebServer(int port,  Player mainPlayer, Header header) throws IOException{
+        this(port, mainPlayer, header, ThreadMode.fromProperty());
+    }
+
+    /**
+     * Creates a new WebServer that listens for connections who want to join in on Karaoke.
+     * @param port the port number to connect to, or 0 for any free port
+     * @param mainPlayer the player that contains all of the outputstreams to stream to
+     * @param header header of the song that we are streaming the lyrics to
+     * @param threads kind of thread that handles each request, for as long as its client is connected
+     * @throws IOException if network problem
+     */
+    public WebServer(int port,  Player mainPlayer, Header header, ThreadMode threads) throws IOException{
         WebServer.mainPlayer = mainPlayer;
-        WebServer.lock = lock;
         this.server = HttpServer.create(new InetSocketAddress(port), 0);
-     // handle concurrent requests with multiple threads
-        server.setExecutor(Executors.newCachedThreadPool());
+        // handle concurrent requests with multiple threads, which write to their clients until they disconnect
+        // and so don't keep the program running once the server is stopped
+        this.handlers = threads.newExecutor("web server", true);
+        server.setExecutor(handlers);
         // register handlers
         server.createContext("/textStream", WebServer::textStream);
-        for (String voice:m.header().voices()) {
+        for (String voice:header.voices()) {
             server.createContext("/" + voice, WebServer::voiceStream);
         }
+        final Set<String> voices = new HashSet<>(header.voices());
+        server.createContext("/events", exchange -> eventStream(exchange, voices));
     }
     
     /**
@@ -71,6 +89,23 @@ public class WebServer {
     public void start() {
         server.start();
     }
+
+    /**
+     * @return the port this server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * stop the webserver, disconnecting every client of its player without waiting for them
+     */
+    public void stop() {
+        server.stop(0);
+        // the handlers write to their clients until the clients are disconnected
+        mainPlayer.disconnectAll();
+        handlers.shutdownNow();
+    }
     
     /**
      * This handler sends a plain text stream of lines of lyrics to a song,
@@ -92,32 +127,19 @@ public class WebServer {
         final int lengthNotKnownYet = 0;
         exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
         
-        // get output stream to write to web browser
-        final boolean autoflushOnPrintln = true;
-        PrintWriter out = new PrintWriter(
-                              new OutputStreamWriter(
-                                  exchange.getResponseBody(), 
-                                  StandardCharsets.UTF_8), 
-                              autoflushOnPrintln);
+        // get output stream to write to web browser; the player writes each line's UTF-8 bytes,
+        // encoded once for all of its clients, straight to it
+        final OutputStream out = exchange.getResponseBody();
         
         try {
             // IMPORTANT: some web browsers don't start displaying a page until at least 2K bytes
             // have been received.  So we'll send a line containing 2K spaces first.
             final int enoughBytesToStartStreaming = 2048;
-            for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
-                out.print(' ');
-            }
-            out.println(); // also flushes
+            out.write(" ".repeat(enoughBytesToStartStreaming).getBytes(UTF_8));
+            out.write(System.lineSeparator().getBytes(UTF_8));
+            out.flush();
+            // writes the lyrics on this thread until the client disconnects
             mainPlayer.addWriter(out,"unknown");
-            synchronized (lock) {
-                while (true) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
             
             
         } finally {
@@ -146,38 +168,60 @@ public class WebServer {
         final int lengthNotKnownYet = 0;
         exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
         
-        // get output stream to write to web browser
-        final boolean autoflushOnPrintln = true;
-        PrintWriter out = new PrintWriter(
-                              new OutputStreamWriter(
-                                  exchange.getResponseBody(), 
-                                  StandardCharsets.UTF_8), 
-                              autoflushOnPrintln);
+        // get output stream to write to web browser; the player writes each line's UTF-8 bytes,
+        // encoded once for all of its clients, straight to it
+        final OutputStream out = exchange.getResponseBody();
         
         try {
             // IMPORTANT: some web browsers don't start displaying a page until at least 2K bytes
             // have been received.  So we'll send a line containing 2K spaces first.
             final int enoughBytesToStartStreaming = 2048;
-            for (int i = 0; i < enoughBytesToStartStreaming; ++i) {
-                out.print(' ');
-            }
-
-            out.println(); // also flushes
+            out.write(" ".repeat(enoughBytesToStartStreaming).getBytes(UTF_8));
+            out.write(System.lineSeparator().getBytes(UTF_8));
+            out.flush();
 
+            // writes the lyrics on this thread until the client disconnects
             mainPlayer.addWriter(out,voice);
-            synchronized (lock) {
-                while (true) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
             
         } finally {
             exchange.close();
         }
     }
+
+    /**
+     * This handler sends the lines of lyrics of /events/textStream, or of the voice of
+     * /events/voice, as a stream of server-sent events, one event per line.
+     * The bytes of each event are encoded once by the player for all of its clients.
+     * 
+     * @param exchange request/reply object
+     * @param voices voices of the song
+     * @throws IOException if network problem
+     */
+    private static void eventStream(HttpExchange exchange, Set<String> voices) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        System.err.println("received request " + path);
+        final String name = path.startsWith("/events/") ? path.substring("/events/".length()) : "";
+        final String voice = name.equals("textStream") ? "unknown" : name;
+        if (!voice.equals("unknown") && !voices.contains(voice)) {
+            final int notFoundCode = 404;
+            final int noBody = -1;
+            exchange.sendResponseHeaders(notFoundCode, noBody);
+            exchange.close();
+            return;
+        }
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        final int successCode = 200;
+        final int lengthNotKnownYet = 0;
+        exchange.sendResponseHeaders(successCode, lengthNotKnownYet);
+
+        try {
+            // writes the events on this thread until the client disconnects
+            mainPlayer.addEventStream(exchange.getResponseBody(), voice);
+        } finally {
+            exchange.close();
+        }
+    }
     
 }
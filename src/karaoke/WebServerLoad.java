@@ -0,0 +1,139 @@
+package karaoke;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the threads and memory WebServer needs to keep many idle clients connected,
+ * for each kind of thread that can handle its requests. Run by hand, it is not a unit test.
+ * On a JDK without virtual threads, such as the JDK 17 this project builds with, VIRTUAL falls
+ * back to platform threads, so both modes measure the same thing there.
+ */
+public class WebServerLoad {
+
+    private static final int DEFAULT_CLIENTS = 10_000;
+    private static final int LYRICS = 3;
+    // clients whose lyrics are read back, spread over all of them
+    private static final int CHECKED_CLIENTS = 10;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    /**
+     * Connects many clients to a WebServer streaming /textStream, prints the number of live threads
+     * and the heap used once they are all connected, and then streams a few lyrics and checks that
+     * a sample of the clients receives them.
+     * Each client takes two file descriptors in this one process, so the open file limit must be
+     * more than twice the number of clients.
+     * @param args number of clients, 10000 if not given, and thread mode, "platform" or "virtual",
+     *          the system property ThreadMode.PROPERTY if not given
+     * @throws IOException if network problem
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int numClients = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENTS;
+        final ThreadMode threads = args.length > 1
+                ? ThreadMode.valueOf(args[1].toUpperCase(Locale.ROOT))
+                : ThreadMode.fromProperty();
+        if (threads == ThreadMode.VIRTUAL && !ThreadMode.virtualThreadsAvailable()) {
+            System.out.println("this JDK has no virtual threads, so VIRTUAL measures platform threads");
+        }
+        final Header header = new Header(1, "Load test", 4, 4, "C", 100, 0.125,
+                new HashSet<>(Arrays.asList("unknown")), "", 0.125, "Unknown");
+
+        final Player player = new Player(Player.DEFAULT_CAPACITY, Player.OverflowPolicy.DROP_OLDEST, threads);
+        final WebServer server = new WebServer(0, player, header, threads);
+        server.start();
+        final int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        final long baseHeap = usedHeap();
+
+        final byte[] request = "GET /textStream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        final List<SocketChannel> clients = new ArrayList<>();
+        try {
+            final long start = System.nanoTime();
+            for (int i = 0; i < numClients; i++) {
+                final SocketChannel client = SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+                clients.add(client);
+                client.write(ByteBuffer.wrap(request));
+            }
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (player.numClients("unknown") < numClients && System.nanoTime() < deadline) {
+                Thread.sleep(100);
+            }
+            final int connected = player.numClients("unknown");
+            final double seconds = (System.nanoTime() - start) / 1e9;
+
+            final int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+            final long heap = usedHeap();
+            System.out.printf("%s threads (virtual threads %savailable), %d of %d clients connected in %.1f s%n",
+                    threads, ThreadMode.virtualThreadsAvailable() ? "" : "not ", connected, numClients, seconds);
+            System.out.printf("live platform threads: %d (%d before connecting)%n", liveThreads, baseThreads);
+            System.out.printf("heap used: %.1f MB (%.1f MB before connecting), %.1f KB per client%n",
+                    heap / 1e6, baseHeap / 1e6, (heap - baseHeap) / 1e3 / Math.max(connected, 1));
+
+            for (int line = 0; line < LYRICS; line++) {
+                player.streamToAll("lyric " + line, "unknown");
+            }
+            int received = 0;
+            for (int i = 0; i < CHECKED_CLIENTS && i < clients.size(); i++) {
+                if (receivesLyrics(clients.get(i * clients.size() / CHECKED_CLIENTS).socket())) {
+                    received++;
+                }
+            }
+            System.out.printf("%d of %d checked clients received every lyric%n",
+                    received, Math.min(CHECKED_CLIENTS, clients.size()));
+        } finally {
+            for (SocketChannel client : clients) {
+                client.close();
+            }
+            server.stop();
+        }
+    }
+
+    /**
+     * @return bytes of heap in use after a garbage collection
+     */
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Reads a client's response up to the lyrics streamed by main.
+     * @param socket connected client that has sent its request
+     * @return true if the client received every lyric in order
+     */
+    private static boolean receivesLyrics(Socket socket) throws IOException {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        final InputStreamReader in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+        // the response is chunked, so look for the lyrics among the chunk sizes rather than line by line
+        final StringBuilder response = new StringBuilder();
+        final String last = "lyric " + (LYRICS - 1);
+        int c;
+        while (response.indexOf(last) < 0 && (c = in.read()) >= 0) {
+            response.append((char) c);
+        }
+        int from = 0;
+        for (int line = 0; line < LYRICS; line++) {
+            from = response.indexOf("lyric " + line, from);
+            if (from < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,122 @@
+package karaoke;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The parts of the WebSocket protocol (RFC 6455) that a server streaming lyrics needs:
+ * the opening handshake, unmasked frames from the server, and masked frames from a client.
+ */
+class WebSocket {
+
+    /** opcode of a frame of binary data */
+    static final int BINARY = 0x2;
+    /** opcode of a frame that closes the connection */
+    static final int CLOSE = 0x8;
+    /** opcode of a ping, which is answered by a pong with the same data */
+    static final int PING = 0x9;
+    /** opcode of a pong */
+    static final int PONG = 0xA;
+
+    // appended to the client's key by the handshake, from RFC 6455
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    // most data a frame from a client can carry, since clients only send control frames
+    private static final int MAX_CLIENT_PAYLOAD = 125;
+
+    private WebSocket() {
+        // not instantiable
+    }
+
+    /**
+     * @param key the Sec-WebSocket-Key of a client's opening handshake
+     * @return the Sec-WebSocket-Accept that the server answers key with
+     */
+    static String accept(String key) {
+        try {
+            final MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            final byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("every JDK has SHA-1", e);
+        }
+    }
+
+    /**
+     * @param key the Sec-WebSocket-Key of a client's opening handshake
+     * @return the server's response to the handshake, in ASCII
+     */
+    static byte[] handshake(String key) {
+        return ("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept(key) + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param opcode opcode of the frame
+     * @param payload data of the frame
+     * @return a whole, final, unmasked frame from the server carrying payload
+     */
+    static byte[] frame(int opcode, byte[] payload) {
+        final int headerLength;
+        if (payload.length < 126) {
+            headerLength = 2;
+        } else if (payload.length <= 0xFFFF) {
+            headerLength = 4;
+        } else {
+            headerLength = 10;
+        }
+        final ByteBuffer frame = ByteBuffer.allocate(headerLength + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            frame.put((byte) 126).putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127).putLong(payload.length);
+        }
+        frame.put(payload);
+        return frame.array();
+    }
+
+    /**
+     * Takes the next whole frame a client sent out of the bytes received from it.
+     * @param received bytes received from the client, in read mode; the frame is removed
+     *          from it if it is whole, and otherwise it is left as it was
+     * @return the frame's opcode followed by its unmasked data, or null if the frame isn't whole yet
+     * @throws IllegalArgumentException if the client broke the protocol, by not masking the frame
+     *          or by sending more data than a control frame carries
+     */
+    static byte[] nextFrame(ByteBuffer received) {
+        if (received.remaining() < 2) {
+            return null;
+        }
+        final int start = received.position();
+        final int opcode = received.get(start) & 0x0F;
+        final int second = received.get(start + 1) & 0xFF;
+        final int length = second & 0x7F;
+        if ((second & 0x80) == 0) {
+            throw new IllegalArgumentException("frames from a client must be masked");
+        }
+        if (length > MAX_CLIENT_PAYLOAD) {
+            throw new IllegalArgumentException("frame from a client too long");
+        }
+        final int maskLength = 4;
+        if (received.remaining() < 2 + maskLength + length) {
+            return null;
+        }
+        final byte[] frame = new byte[1 + length];
+        frame[0] = (byte) opcode;
+        for (int i = 0; i < length; i++) {
+            final byte mask = received.get(start + 2 + i % maskLength);
+            frame[1 + i] = (byte) (received.get(start + 2 + maskLength + i) ^ mask);
+        }
+        received.position(start + 2 + maskLength + length);
+        return frame;
+    }
+}
@@ -0,0 +1,453 @@
+package karaoke.parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import karaoke.Chord;
+import karaoke.Fraction;
+import karaoke.Header;
+import karaoke.KeySignature;
+import karaoke.Music;
+import karaoke.MusicBuilder;
+import karaoke.Note;
+import karaoke.OverlayVoice;
+import karaoke.Rest;
+import karaoke.Syllable;
+import karaoke.sound.Pitch;
+
+/**
+ * Assembles the Music of an abc body from its elements, in the order a parser reads them:
+ * the notes, rests, barlines and repeats of each line, then the line's lyrics, then the
+ * end of the line. Keeps track of the current voice, the accidentals of the current measure
+ * and the music to repeat, so that every KaraokeParser implementation builds the same Music.
+ */
+class BodyBuilder {
+
+    // Abstraction Function
+    //  AF(header, keySignature, voice, voiceToMusic, voiceToMusicRepeat, voiceToFirstRepeat,
+    //     voiceToAccidentals, measureAccidentals, musicLine, lineSyllables):
+    //  the abc body read so far, in which the completed lines of each voice v are voiceToMusic.get(v),
+    //  and the current line of the current voice has elements musicLine and lyrics lineSyllables.
+    //  voiceToMusicRepeat.get(v) is the music a :| in voice v repeats, which stops collecting
+    //  once voiceToFirstRepeat.get(v) reaches an ending [1 or [2.
+    //  voiceToAccidentals.get(v) maps the MIDI note number of a natural note to its accidental in
+    //  semitones for the rest of the current measure of voice v, and measureAccidentals is that map
+    //  for the current voice.
+    // Rep Invariant
+    //  voiceToMusicRepeat and voiceToFirstRepeat contain voice
+    //  measureAccidentals == voiceToAccidentals.get(voice)
+    // Safety from rep exposure
+    //  all fields are private, and no mutable field is returned
+    // Thread Safety argument
+    //  not threadsafe, a BodyBuilder must be confined to the thread parsing the body
+
+    /**
+     * Voice of the lines before the first V: field of a body.
+     */
+    static final String FIRST_VOICE = "unknown";
+
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+
+    // semitones above C of the natural note letters A through G
+    private static final int[] LETTER_SEMITONES = { 9, 11, 0, 2, 4, 5, 7 };
+
+    private final Header header;
+    private final KeySignature keySignature;
+    private String voice = FIRST_VOICE;
+    // in the order of each voice's first ended line
+    private final Map<String, MusicBuilder> voiceToMusic = new LinkedHashMap<>();
+    private final Map<String, MusicBuilder> voiceToMusicRepeat = new HashMap<>();
+    private final Map<String, Boolean> voiceToFirstRepeat = new HashMap<>();
+    private final Map<String, Map<Integer, Integer>> voiceToAccidentals = new HashMap<>();
+    private Map<Integer, Integer> measureAccidentals = new HashMap<>();
+    private MusicBuilder musicLine;
+    private final List<Syllable> lineSyllables = new ArrayList<>();
+
+    /**
+     * Creates a builder for an empty body.
+     * @param header header of the abc file, whose key signature applies to the body
+     */
+    BodyBuilder(Header header) {
+        this.header = header;
+        this.keySignature = KeySignature.of(header.key());
+        this.musicLine = new MusicBuilder(header);
+        voiceToMusicRepeat.put(voice, new MusicBuilder(header));
+        voiceToFirstRepeat.put(voice, false);
+        voiceToAccidentals.put(voice, measureAccidentals);
+    }
+
+    /**
+     * Decodes a note.
+     *
+     * @param header Header info about the entire piece
+     * @param keySignature key signature of header
+     * @param measureAccidentals Keeps track of the accidentals throughout the measure,
+     *          mapping the MIDI note number of a natural note to its accidental in semitones
+     * @param hasAccidental true if the note is written with an accidental
+     * @param accidental semitones the written accidental moves the note, ignored if !hasAccidental
+     * @param basenote letter of the note, A-G or a-g
+     * @param octaves number of ' marks after the note, or minus the number of , marks
+     * @param length the length multiplier of the note
+     * @param tupletFactor the multiplicative factor of the note's length if the note is part of a tuple
+     * @return the note
+     */
+    static Music decodeNote(Header header, KeySignature keySignature, Map<Integer, Integer> measureAccidentals,
+            boolean hasAccidental, int accidental, char basenote, int octaves, Fraction length, Fraction tupletFactor) {
+        final int letter = Character.toUpperCase(basenote) - 'A';
+        int naturalNote = MIDI_NOTE_MIDDLE_C + LETTER_SEMITONES[letter] + octaves * Pitch.OCTAVE;
+        if (Character.isLowerCase(basenote)) {
+            naturalNote += Pitch.OCTAVE;
+        }
+
+        // an explicit accidental lasts for the rest of the measure,
+        // otherwise the measure's accidental or else the key signature applies
+        if (hasAccidental) {
+            measureAccidentals.put(naturalNote, accidental);
+        } else if (measureAccidentals.containsKey(naturalNote)) {
+            accidental = measureAccidentals.get(naturalNote);
+        } else {
+            accidental = keySignature.transpose(letter);
+        }
+        return Note.decoded(naturalNote + accidental, length, tupletFactor, header);
+    }
+
+    /**
+     * Decodes a note of the current measure; see decodeNote(). The note is not added to the body.
+     * @return the note
+     */
+    Music note(boolean hasAccidental, int accidental, char basenote, int octaves, Fraction length,
+            Fraction tupletFactor) {
+        return decodeNote(header, keySignature, measureAccidentals, hasAccidental, accidental, basenote,
+                octaves, length, tupletFactor);
+    }
+
+    /**
+     * @param notes notes of a chord, in the order they are written, not empty
+     * @return the chord of notes
+     */
+    Music chord(List<Music> notes) {
+        //initialize chord with the first note
+        Music chord = notes.get(0);
+        for (int i = 1; i < notes.size(); i++) {
+            chord = new Chord(chord, notes.get(i), header);
+        }
+        return chord;
+    }
+
+    /**
+     * @param length the length multiplier of the rest
+     * @return the rest
+     */
+    Music rest(Fraction length) {
+        return new Rest(header, length);
+    }
+
+    /**
+     * @param tupletNum the number of a tuplet spec, e.g. 3 for (3
+     * @return the multiplicative factor of the lengths of the notes in the tuplet
+     */
+    static Fraction tupletFactor(int tupletNum) {
+        // tupletNum can only be 2,3,4
+        switch (tupletNum) {
+            case 2:
+                return Fraction.of(3, 2);
+            case 3:
+                return Fraction.of(2, 3);
+            case 4:
+                return Fraction.of(3, 4);
+            default:
+                System.out.println("tuplet number is not 2,3,4");
+                return Fraction.ONE;
+        }
+    }
+
+    /**
+     * Appends a note, chord or rest to the current line, and to the music to repeat.
+     * @param element music to append
+     */
+    void add(Music element) {
+        musicLine.add(element);
+        if (!voiceToFirstRepeat.get(voice)) {
+            voiceToMusicRepeat.get(voice).add(element);
+        }
+    }
+
+    /**
+     * @param barlineType barline as written, one of "|", "||", "[|", "|]", ":|", "|:"
+     */
+    void barline(String barlineType) {
+        switch (barlineType) {
+            case "|":
+                // cause accidentals to go away
+                measureAccidentals.clear();
+                break;
+            case ":|":
+                // repeat everything from entry point
+                MusicBuilder musicRepeat = voiceToMusicRepeat.get(voice);
+                musicLine.add(musicRepeat.build());
+                musicRepeat = new MusicBuilder(header);
+                voiceToMusicRepeat.put(voice, musicRepeat);
+                break;
+            case "|:":
+                // start repeating from when this starts
+                musicRepeat = new MusicBuilder(header);
+                break;
+            default:
+                System.out.println("something wrong with barlineTYpe");
+        }
+        // end measure
+    }
+
+    /**
+     * @param repeatType ending as written, "[1" or "[2"
+     */
+    void nthRepeat(String repeatType) {
+        // will entail storing music in an additional data structure
+        switch (repeatType) {
+            case "[1":
+                voiceToFirstRepeat.put(voice, true);
+                break;
+            case "[2":
+                voiceToFirstRepeat.put(voice, true);
+                break;
+            default:
+                System.out.println("something wrong with repeatType");
+        }
+    }
+
+    /**
+     * @param lyricalElement text of an element of a w: field
+     * @return true if the element is written with a fixed symbol or spaces rather than lyric text
+     */
+    private static boolean isSymbol(String lyricalElement) {
+        switch (lyricalElement) {
+            case "-":
+            case "_":
+            case "*":
+            case "~":
+            case "|":
+                return true;
+            default:
+                return !lyricalElement.isEmpty() && lyricalElement.trim().isEmpty();
+        }
+    }
+
+    /**
+     * @param lyricalElements texts of the elements of a w: field, in order
+     * @return the line of lyrics the elements show
+     */
+    static String getLyricLine(List<String> lyricalElements) {
+        String lyricLine = "";
+        for (String lyricElement : lyricalElements) {
+            switch (lyricElement) {
+            case " ":
+                lyricLine += ' ';
+                break;
+            case "-":
+                break;
+            case "_":
+                break;
+            case "*":
+                break;
+            case "~":
+                lyricLine += ' ';
+                break;
+            case "\\-":
+                lyricLine += '-';
+                break;
+            case "|":
+                break;
+            default:
+                // lyric text
+                lyricLine += lyricElement;
+
+            }
+        }
+        return lyricLine;
+    }
+
+    /**
+     * Adds the lyrics of the current line.
+     * @param lyricalElements texts of the elements of the line's w: field, in order
+     */
+    void lyric(List<String> lyricalElements) {
+        // string that will be passed into each syllable
+        String lyricLineString = getLyricLine(lyricalElements);
+
+        // keep track of syllables in lyric line
+        LinkedList<Syllable> syllableNoteList = new LinkedList<>();
+        Boolean joinSyllable = false;
+        String previousElement = "";
+        int currentIndex = 0;
+
+        for (String lyricElementValue : lyricalElements) {
+            if (isSymbol(lyricElementValue)) {
+                switch (lyricElementValue) {
+                    case " ":
+                        currentIndex += 1;
+                        previousElement = " ";
+                        break;
+                    case "-":
+                        if (previousElement == "-"
+                        || previousElement == " ") {
+                            // hyphen is regarded as a separate syllable
+                            Syllable latestSyllable = syllableNoteList.removeLast();
+                            int latestSyllableBegin = latestSyllable.getBeginIndex();
+                            int latestSyllableEnd = latestSyllable.getEndIndex();
+
+                            syllableNoteList.addLast(new Syllable(
+                                    voice,
+                                    lyricLineString,
+                                    latestSyllableBegin,
+                                    latestSyllableEnd));
+                        }
+                        previousElement = "-";
+                        break;
+                    case "_":
+                        previousElement = "_";
+                        break;
+                    case "*":
+                        Syllable latestSyllable = syllableNoteList.removeLast();
+                        int latestSyllableBegin = latestSyllable.getBeginIndex();
+                        int latestSyllableEnd = latestSyllable.getEndIndex();
+
+                        syllableNoteList.addLast(new Syllable(
+                                voice,
+                                lyricLineString,
+                                latestSyllableBegin,
+                                latestSyllableEnd));
+
+                        previousElement = "*";
+                        break;
+                    case "~":
+                        currentIndex += 1;
+                        previousElement = "~";
+                        joinSyllable = true;
+                        break;
+                    case "|":
+                        previousElement = "|";
+                        break;
+                    default:
+                        System.out.println("something is wrong with lyricElement");
+                }
+            } else if (lyricElementValue.equals("\\-")) {
+                // combines multiple syllables under one note
+                currentIndex +=1;
+                previousElement = "\\-";
+                joinSyllable = true;
+            } else {
+                // append lyricText to syllable
+                String lyricString = lyricElementValue;
+                int beginIndex = currentIndex;
+
+                if (joinSyllable) {
+                    // add new syllable object and use same begin and end index from previous
+                    // syllable
+
+                    Syllable latestSyllable = syllableNoteList.removeLast();
+                    int latestSyllableBegin = latestSyllable.getBeginIndex();
+                    int latestSyllableEnd = latestSyllable.getEndIndex();
+
+                    syllableNoteList.addLast(new Syllable(
+                            voice,
+                            lyricLineString,
+                            latestSyllableBegin,
+                            latestSyllableEnd));
+
+                    // turn joinSyllable off
+                    joinSyllable = false;
+
+                } else {
+                    // regular syllable
+                    syllableNoteList.add(
+                            new Syllable(
+                                    voice,
+                                    lyricLineString,
+                                    beginIndex,
+                                    beginIndex + lyricString.length()));
+                }
+
+                currentIndex += lyricString.length();
+                previousElement = lyricString;
+            }
+        }
+
+        // lyrics are added to the line once all of its elements are collected
+        lineSyllables.addAll(syllableNoteList);
+    }
+
+    /**
+     * Switches to another voice, given by a V: field in the body.
+     * @param newVoice name of the voice
+     */
+    void voice(String newVoice) {
+        voice = newVoice;
+
+        // add repeat for voices
+        voiceToMusicRepeat.put(voice, new MusicBuilder(header));
+        voiceToFirstRepeat.put(voice, false);
+
+        // each voice's measures are independent of the other voices'
+        measureAccidentals = voiceToAccidentals.computeIfAbsent(voice, v -> new HashMap<>());
+    }
+
+    /**
+     * Ends the current line, appending it with its lyrics to the current voice.
+     */
+    void endLine() {
+        // given the list of lyrics, add them to the music data type
+        // from left to right
+        Music lineMusic = musicLine.build().addSyllablesToNotes(lineSyllables, 0);
+
+        // add abcLine to appropriate voice
+        if (!voiceToMusic.containsKey(voice)) {
+            voiceToMusic.put(voice, new MusicBuilder(header));
+        }
+        voiceToMusic.get(voice).add(lineMusic);
+
+        musicLine = new MusicBuilder(header);
+        lineSyllables.clear();
+    }
+
+    /**
+     * @return the music of every line ended so far, with the voices played together
+     */
+    Music build() {
+        return overlay(header, voices());
+    }
+
+    /**
+     * @return map from each voice with an ended line to the music of its lines, in order, iterating
+     *          over the voices in the order their first lines ended
+     */
+    Map<String, Music> voices() {
+        // give voiceToMusic, concat all the music lines
+        Map<String, Music> voiceToSingleMusic = new LinkedHashMap<>();
+        for (String singleVoice : voiceToMusic.keySet()) {
+            voiceToSingleMusic.put(singleVoice, voiceToMusic.get(singleVoice).build());
+        }
+        return voiceToSingleMusic;
+    }
+
+    /**
+     * @param header header of the abc file
+     * @param voiceToMusic map from each voice to its music, with the voices put in the order they
+     *          first appear in the body so that the overlay is the same however the voices were built
+     * @return the music of every voice played together, overlaid in the map's iteration order
+     */
+    static Music overlay(Header header, Map<String, Music> voiceToMusic) {
+        Music music = new Rest(header, "0");
+
+        // overlay all of the voice
+        for (Map.Entry<String, Music> musicVoice : voiceToMusic.entrySet()) {
+            music = new OverlayVoice(music, musicVoice.getValue(), header, musicVoice.getKey());
+        }
+
+        return music;
+    }
+}
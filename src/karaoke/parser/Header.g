@@ -32,4 +32,4 @@ digit ::= [0-9]+;
 newline ::= "\n" | "\r" "\n"?;
 spaceortab ::= " " | "\t";
 basenote ::= [A-G];
-text ::= [a-zA-z 0-9'.,]*;
\ No newline at end of file
+text ::= [a-zA-z 0-9'.,=]*;
\ No newline at end of file
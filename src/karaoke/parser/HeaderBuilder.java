@@ -0,0 +1,164 @@
+package karaoke.parser;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import karaoke.Header;
+import karaoke.sound.Instrument;
+
+/**
+ * Collects the fields of an abc header as a parser reads them, and fills in the
+ * defaults of the fields that were not given. Shared by every KaraokeParser
+ * implementation, so they all build the same Header from the same text.
+ */
+class HeaderBuilder {
+
+    // Abstraction Function
+    //  AF(title, ..., composer, instruments, lengthGiven, tempoGiven): the header read so far, in which
+    //  the default note length applies unless lengthGiven, the default tempo unless tempoGiven,
+    //  and voice v is played by instruments.get(v), or the default instrument if it has none
+    // Rep Invariant
+    //  every key of instruments is in voices
+    // Safety from rep exposure
+    //  all fields are private, voices and instruments are copied when the Header is built
+    // Thread Safety argument
+    //  not threadsafe, a HeaderBuilder must be confined to the thread parsing the header
+
+    // property of a V: field giving the instrument of the voice
+    private static final String INSTRUMENT = "instrument";
+
+    private String title = "Unknown"; //T:
+    private int meterNumerator = 4; //M:
+    private int meterDenominator = 4; //M:
+    private String key = "C"; //K:
+    private double tempo = 100; //Q:
+    private double noteLength = .75; //L:
+    private final Set<String> voices = new HashSet<>(); //V:
+    private String music = "";
+    private double tempoLength = 1;
+    private String composer = "Unknown"; //C:
+    private final Map<String, Instrument> instruments = new HashMap<>(); //V: instrument=
+    private boolean lengthGiven = false;
+    private boolean tempoGiven = false;
+
+    /**
+     * @param title text of the T: field
+     */
+    void title(String title) {
+        this.title = title;
+    }
+
+    /**
+     * @param composer text of the C: field
+     */
+    void composer(String composer) {
+        this.composer = composer;
+    }
+
+    /**
+     * @param noteLength default note length given by the L: field, as a fraction of a whole note
+     */
+    void noteLength(double noteLength) {
+        this.noteLength = noteLength;
+        lengthGiven = true;
+    }
+
+    /**
+     * @param numerator first part of the time signature given by the M: field
+     * @param denominator second part of the time signature given by the M: field
+     */
+    void meter(int numerator, int denominator) {
+        this.meterNumerator = numerator;
+        this.meterDenominator = denominator;
+    }
+
+    /**
+     * @param tempoLength length of the beat given by the Q: field, as a fraction of a whole note
+     * @param tempo number of those beats per minute
+     */
+    void tempo(double tempoLength, double tempo) {
+        this.tempoLength = tempoLength;
+        this.tempo = tempo;
+        tempoGiven = true;
+    }
+
+    /**
+     * Adds a voice. The text of a V: field is the name of the voice, optionally followed by
+     * properties of the form name=value, separated by spaces. The property instrument gives the
+     * General MIDI instrument of the voice, either by name, e.g. "instrument=trumpet" or
+     * "instrument=acoustic_bass", or by program number from 0 to 127, e.g. "instrument=56".
+     * Other properties, and instruments that aren't recognized, are ignored.
+     * @param field text of a V: field
+     */
+    void voice(String field) {
+        final String[] words = field.trim().split(" +");
+        final String voice = words[0];
+        voices.add(voice);
+        for (int i = 1; i < words.length; i++) {
+            final int equals = words[i].indexOf('=');
+            if (equals > 0 && words[i].substring(0, equals).equalsIgnoreCase(INSTRUMENT)) {
+                final Instrument instrument = instrument(words[i].substring(equals + 1));
+                if (instrument != null) {
+                    instruments.put(voice, instrument);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param value name of an Instrument in any case, or a program number
+     * @return the instrument named or numbered by value, or null if there is none
+     */
+    private static Instrument instrument(String value) {
+        final Instrument[] all = Instrument.values();
+        if (value.matches("[0-9]{1,3}")) {
+            final int program = Integer.parseInt(value);
+            return program < all.length ? all[program] : null;
+        }
+        try {
+            return Instrument.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * @param key key given by the K: field, e.g. "Bb" or "F#m"
+     */
+    void key(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @param music the body of the abc file following the header
+     */
+    void music(String music) {
+        this.music = music;
+    }
+
+    /**
+     * @return the header with every field read so far, and the defaults for the rest
+     */
+    Header build() {
+        //Default note lengths for L=? in the header when L is absent
+        if (!lengthGiven) {
+            if ((double) meterNumerator/meterDenominator < .75) {
+                noteLength = 1.0/16;
+            }
+            else {
+                noteLength = 1.0/8;
+            }
+        }
+        //Default tempo designated as 100
+        if (!tempoGiven) {
+            tempo = 100;
+            tempoLength = noteLength;
+        }
+        final int index = 1; //X: is not kept
+        return new Header(index, title, meterNumerator, meterDenominator, key, tempo, noteLength,
+                new HashSet<>(voices), music, tempoLength, composer, new HashMap<>(instruments));
+    }
+}
@@ -4,11 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.sound.midi.MidiUnavailableException;
@@ -18,15 +16,13 @@ import edu.mit.eecs.parserlib.ParseTree;
 import edu.mit.eecs.parserlib.Parser;
 import edu.mit.eecs.parserlib.UnableToParseException;
 import edu.mit.eecs.parserlib.Visualizer;
-import karaoke.Chord;
+import karaoke.Fraction;
 import karaoke.Concat;
 import karaoke.Header;
+import karaoke.KeySignature;
 import karaoke.Music;
-import karaoke.Note;
-import karaoke.OverlayVoice;
 import karaoke.Player;
 import karaoke.Rest;
-import karaoke.Syllable;
 import karaoke.sound.Instrument;
 import karaoke.sound.MidiSequencePlayer;
 import karaoke.sound.SequencePlayer;
@@ -81,11 +77,11 @@ public class KaraokeParser {
                 "|:C,E,C z z2|G,,G,B, z z2|A,,E,A, z z2|E,,E,E z z E|e z z ^de z|\n" + 
                 "%\n";
         
-        final ParseTree<HeaderGrammar> headerParseTree = headerParser.parse(input); 
+        final ParseTree<HeaderGrammar> headerParseTree = Grammars.headerParser.parse(input); 
         Header musicHeader = makeHeader(headerParseTree);
         // will pass in the header values to the header object 
         
-        final ParseTree<MusicGrammar> parseTree = musicParser.parse(musicHeader.getMusic());
+        final ParseTree<MusicGrammar> parseTree = Grammars.musicParser.parse(musicHeader.getMusic());
         Music musicTest = makeAbstractSyntaxTree(parseTree, musicHeader);
         //Visualizer.showInBrowser(parseTree);
         
@@ -116,8 +112,49 @@ public class KaraokeParser {
         COMMENT, ENDOFLINE, DIGIT, NEWLINE, SPACEORTAB, LYRICTEXT, COMMENTTEXT
     }
 
-    private static Parser<MusicGrammar> musicParser = makeMusicParser();
-    private static Parser<HeaderGrammar> headerParser = makeHeaderParser();
+    /**
+     * Path of the header grammar, relative to the project root.
+     */
+    public static final String HEADER_GRAMMAR = "src/karaoke/parser/Header.g";
+    
+    /**
+     * Path of the music grammar, relative to the project root.
+     */
+    public static final String MUSIC_GRAMMAR = "src/karaoke/parser/Music.g";
+
+    /**
+     * Name of the system property that selects the implementation parse(String) uses,
+     * "grammar" (the default) or "streaming".
+     */
+    public static final String IMPLEMENTATION_PROPERTY = "karaoke.parser";
+    
+    /**
+     * The ways an abc file can be parsed. Both accept the same files and build the same Music.
+     */
+    public static enum Implementation {
+        /** parserlib over Header.g and Music.g, then a walk of the parse trees */
+        GRAMMAR,
+        /** StreamingParser, a single pass over the text that builds Music as it reads */
+        STREAMING
+    }
+    
+    // semitones each accidental moves a note
+    private static final Map<String, Integer> ACCIDENTALS = new HashMap<>();
+    
+    static 
+    {
+        ACCIDENTALS.put("^", 1);
+        ACCIDENTALS.put("^^", 2);
+        ACCIDENTALS.put("_", -1);
+        ACCIDENTALS.put("__", -2);
+        ACCIDENTALS.put("=", 0);
+    }
+
+    // the grammars are only compiled once the grammar implementation is first used
+    private static class Grammars {
+        private static final Parser<MusicGrammar> musicParser = makeMusicParser();
+        private static final Parser<HeaderGrammar> headerParser = makeHeaderParser();
+    }
     
     /**
      * Compile the header grammar into a parser. Designates ABCHEADER as the root of the abstract syntax tree.
@@ -128,7 +165,7 @@ public class KaraokeParser {
     private static Parser<HeaderGrammar> makeHeaderParser() { 
         try {
             // read the grammar as a file, relative to the project root.
-            final File grammarFile = new File("src/karaoke/parser/Header.g");
+            final File grammarFile = new File(HEADER_GRAMMAR);
             
             //abcheader ::= fieldnumber comment* fieldtitle otherfields* fieldkey music;
             return Parser.compile(grammarFile, HeaderGrammar.ABCHEADER);
@@ -149,7 +186,7 @@ public class KaraokeParser {
     private static Parser<MusicGrammar> makeMusicParser() {
         try {
             // read the grammar as a file, relative to the project root.
-            final File grammarFile = new File("src/karaoke/parser/Music.g");
+            final File grammarFile = new File(MUSIC_GRAMMAR);
             
             //abcBody ::= abcLine+;
             //abcLine ::= element+ endOfLine (lyric endOfLine)?  | middleOfBodyField endOfLine | comment;
@@ -162,18 +199,47 @@ public class KaraokeParser {
     }
 
     /**
-     * Parse an ABC file into a Music Datatype
+     * @return the implementation named by the system property IMPLEMENTATION_PROPERTY,
+     *         or GRAMMAR if it is not set
+     * @throws IllegalArgumentException if the property names no implementation
+     */
+    public static Implementation implementation() {
+        final String name = System.getProperty(IMPLEMENTATION_PROPERTY, "grammar");
+        return Implementation.valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Parse an ABC file into a Music Datatype, with the implementation selected by implementation()
      * @param string string to parse
      * @return Expression parsed from the string
      * @throws UnableToParseException if the string doesn't match the Expression grammar
      */
     public static Music parse(final String string) throws UnableToParseException {
-        final ParseTree<HeaderGrammar> headerParseTree = headerParser.parse(string); 
-        Header musicHeader = makeHeader(headerParseTree);
-        
-        // will pass in the header values to the header object 
-        final ParseTree<MusicGrammar> musicParseTree = musicParser.parse(musicHeader.getMusic());
-        return makeAbstractSyntaxTree(musicParseTree, musicHeader);
+        return parse(string, implementation());
+    }
+    
+    /**
+     * Parse an ABC file into a Music Datatype
+     * @param string string to parse
+     * @param implementation the parser to use
+     * @return Expression parsed from the string
+     * @throws UnableToParseException if the string doesn't match the Expression grammar
+     */
+    public static Music parse(final String string, Implementation implementation) throws UnableToParseException {
+        // the voices of the body are parsed in parallel
+        switch (implementation) {
+            case STREAMING:
+                return VoiceParser.parse(StreamingParser.parseHeader(string), StreamingParser::parseBody);
+            case GRAMMAR:
+                final ParseTree<HeaderGrammar> headerParseTree = Grammars.headerParser.parse(string); 
+                Header musicHeader = makeHeader(headerParseTree);
+                
+                // will pass in the header values to the header object 
+                return VoiceParser.parse(musicHeader, (lines, body) -> 
+                        addToBody(Grammars.musicParser.parse(lines), musicHeader, body));
+            default:
+                throw new AssertionError("should never get here");
+        }
     }
     
     /**
@@ -184,20 +250,7 @@ public class KaraokeParser {
      */
     
     public static Header makeHeader(final ParseTree<HeaderGrammar> parseTree) {
-        // default values
-        boolean lengthInit = false;
-        boolean tempoInit = false;
-        int index = 1; //X:
-        String title = "Unknown"; //T:
-        int meterNumerator = 4; //M:
-        int meterDenominator = 4; //M:
-        String key = "C"; //K:
-        double tempo = 100; //Q:
-        double noteLength = .75; //L:
-        Set<String> voices = new HashSet<>(); //V:
-        String music= ""; 
-        double tempoLength = 1;
-        String composer = "Unknown";
+        final HeaderBuilder header = new HeaderBuilder();
         
         final List<ParseTree<HeaderGrammar>> headerChildren = parseTree.children();
         for (int i=0; i<headerChildren.size(); i++) {
@@ -206,7 +259,7 @@ public class KaraokeParser {
                     break;
                 case FIELDTITLE: //fieldtitle ::= "T:" text endofline;
                     final List<ParseTree<HeaderGrammar>> titleChildren = headerChildren.get(i).children();
-                    title = titleChildren.get(0).text();
+                    header.title(titleChildren.get(0).text());
                     break;
                 case COMMENT: //comment ::= spaceortab* "%" commenttext newline;
                     break;
@@ -217,7 +270,7 @@ public class KaraokeParser {
                     switch (otherField.name()) {
                         case FIELDCOMPOSER: //fieldcomposer ::= "C:" text endofline;
                             final List<ParseTree<HeaderGrammar>> composerChildren = otherField.children();
-                            composer = composerChildren.get(0).text();
+                            header.composer(composerChildren.get(0).text());
                             break;
                         case FIELDDEFAULTLENGTH: //fielddefaultlength ::= "L:" notelengthstrict endofline;
                             final List<ParseTree<HeaderGrammar>> lengthChildren = otherField.children();
@@ -227,8 +280,7 @@ public class KaraokeParser {
                             if (lengthNums.size()>1) {
                                 lengthNum = lengthNum/Double.parseDouble(lengthNums.get(1).text());
                             }
-                            noteLength = lengthNum; //L
-                            lengthInit = true;
+                            header.noteLength(lengthNum); //L
                             break;
                         case FIELDMETER: //fieldmeter ::= "M:" meter endofline;
                             final List<ParseTree<HeaderGrammar>> fieldmeterChildren = otherField.children();
@@ -236,17 +288,15 @@ public class KaraokeParser {
                             final List<ParseTree<HeaderGrammar>> meterPossibilities = meter.children();
                             switch (meterPossibilities.get(0).name()) {
                                 case COMMON: //common ::= 'C';
-                                    meterNumerator = 4;
-                                    meterDenominator = 4;
+                                    header.meter(4, 4);
                                     break;
                                 case HALF: //half ::= "C|";
-                                    meterNumerator = 2; 
-                                    meterDenominator = 2;
+                                    header.meter(2, 2);
                                     break;
                                 case METERFRACTION: //meterfraction ::= digit "/" digit;
                                     final List<ParseTree<HeaderGrammar>> meterFraction = meterPossibilities.get(0).children();
-                                    meterNumerator = Integer.parseInt(meterFraction.get(0).text());
-                                    meterDenominator = Integer.parseInt(meterFraction.get(1).text());
+                                    header.meter(Integer.parseInt(meterFraction.get(0).text()),
+                                            Integer.parseInt(meterFraction.get(1).text()));
                                     break;
                                 default:
                                     throw new AssertionError("should never get here");
@@ -256,15 +306,16 @@ public class KaraokeParser {
                             final List<ParseTree<HeaderGrammar>> fieldtempoChildren = otherField.children();
                             ParseTree<HeaderGrammar> headerTempo = fieldtempoChildren.get(0);
                             final List<ParseTree<HeaderGrammar>> tempoChildren = headerTempo.children();
-                            tempo = Double.parseDouble(tempoChildren.get(1).text());
+                            final double tempo = Double.parseDouble(tempoChildren.get(1).text());
                             final List<ParseTree<HeaderGrammar>> tempoLengthChildren = tempoChildren.get(0).children();
 
-                            tempoLength = Double.parseDouble(tempoLengthChildren.get(0).text())/Double.parseDouble(tempoLengthChildren.get(1).text());
-                            tempoInit = true;
+                            header.tempo(Double.parseDouble(tempoLengthChildren.get(0).text())/Double.parseDouble(tempoLengthChildren.get(1).text()), tempo);
                             break;
                         case FIELDVOICE: //fieldvoice ::= "V:" text endofline;
                             final List<ParseTree<HeaderGrammar>> fieldvoiceChildren = otherField.children();
-                            voices.add(fieldvoiceChildren.get(0).text());
+                            header.voice(fieldvoiceChildren.get(0).text());
+                            break;
+                        case COMMENT: //comment ::= spaceortab* "%" commenttext newline;
                             break;
                         default:
                             throw new AssertionError("should never get here");
@@ -279,11 +330,11 @@ public class KaraokeParser {
                     if (keyChildren.size()>1) {
                         keyName += "m";
                     }
-                    key = keyName;
+                    header.key(keyName);
                     break;
                 case MUSIC: //music ::= [^$]+;
                     // pass in string of music to the music parser, basically accepts everything else
-                    music = headerChildren.get(i).text();
+                    header.music(headerChildren.get(i).text());
                     break;
      
                 default:
@@ -291,24 +342,8 @@ public class KaraokeParser {
                     
             }
         }
-        
-        //Default note lengths for L=? in the header when L is absent
-        if (!lengthInit) {
-            if ((double) meterNumerator/meterDenominator < .75) {
-                noteLength = 1.0/16;
-            }
-            else {
-                noteLength = 1.0/8;
-            }
-        }
-        //Default tempo designated as 100
-        if (!tempoInit) {
-            tempo = 100;
-            tempoLength = noteLength;
-
-        }
 
-        return new Header(index, title, meterNumerator, meterDenominator, key , tempo, noteLength, voices, music, tempoLength,composer);
+        return header.build();
 
     }
     
@@ -317,14 +352,17 @@ public class KaraokeParser {
      * 
      * @param noteValue The parsed to-be Note class object
      * @param header Header info about the entire piece
-     * @param measureAccidentals Keeps track of the accidentals throughout the measure
+     * @param keySignature key signature of header, decoded once for the whole piece
+     * @param measureAccidentals Keeps track of the accidentals throughout the measure,
+     *          mapping the MIDI note number of a natural note to its accidental in semitones
      * @return a Music Object representing that note
      */
     public static Music makeNote(
             final ParseTree<MusicGrammar> noteValue,
             Header header,
-            Map<String, String> measureAccidentals) {
-        return KaraokeParser.makeNote(noteValue, header, measureAccidentals, "1");
+            KeySignature keySignature,
+            Map<Integer, Integer> measureAccidentals) {
+        return KaraokeParser.makeNote(noteValue, header, keySignature, measureAccidentals, Fraction.ONE);
     }
         
     /**
@@ -332,64 +370,90 @@ public class KaraokeParser {
      * 
      * @param noteValue The parsed to-be Note class object
      * @param header Header info about the entire piece
-     * @param measureAccidentals Keeps track of the accidentals throughout the measure
-     * @param tupletLengthStr a (possibly) fractional string denoting the multiplicative factor if the note is part of a tuple
+     * @param keySignature key signature of header, decoded once for the whole piece
+     * @param measureAccidentals Keeps track of the accidentals throughout the measure,
+     *          mapping the MIDI note number of a natural note to its accidental in semitones
+     * @param tupletFactor the multiplicative factor of the note's length if the note is part of a tuple
      * @return a Music Object representing that note
      */
     public static Music makeNote(
             final ParseTree<MusicGrammar> noteValue,
             Header header,
-            Map<String, String> measureAccidentals,
-            String tupletLengthStr) {
+            KeySignature keySignature,
+            Map<Integer, Integer> measureAccidentals,
+            Fraction tupletFactor) {
+        return makeNote(noteValue, (hasAccidental, accidental, basenote, octaves, length) -> BodyBuilder.decodeNote(
+                header, keySignature, measureAccidentals, hasAccidental, accidental, basenote, octaves, length, tupletFactor));
+    }
+    
+    /**
+     * Decodes a note from the spelling read by a parser.
+     */
+    @FunctionalInterface
+    private interface NoteDecoder {
+        
+        /**
+         * @param hasAccidental true if the note is written with an accidental
+         * @param accidental semitones the written accidental moves the note, ignored if !hasAccidental
+         * @param basenote letter of the note, A-G or a-g
+         * @param octaves number of ' marks after the note, or minus the number of , marks
+         * @param length the length multiplier of the note
+         * @return the note
+         */
+        Music decode(boolean hasAccidental, int accidental, char basenote, int octaves, Fraction length);
+    }
+    
+    /**
+     * Reads the spelling of a note from its parsetree.
+     * 
+     * @param noteValue parsetree of note ::= pitch noteLength?;
+     * @param decoder decodes the spelling into a note
+     * @return the note decoded from noteValue
+     */
+    private static Music makeNote(final ParseTree<MusicGrammar> noteValue, NoteDecoder decoder) {
         ParseTree<MusicGrammar> pitchElement = noteValue.children().get(0);
         List<ParseTree<MusicGrammar>> pitchValueList = pitchElement.children();
-        String noteInput = ""; 
-        String accidental= ""; 
-        String note = "";
+        boolean hasAccidental = false;
+        int accidental = 0;
+        char basenote = 'C';
+        int octaves = 0;
         for (ParseTree<MusicGrammar> pitchValue : pitchValueList) {
             switch (pitchValue.name()) {
                 case ACCIDENTAL: //accidental ::= "^" | "^^" | "_" | "__" | "=";
-                    accidental += pitchValue.text();
+                    hasAccidental = true;
+                    accidental = ACCIDENTALS.get(pitchValue.text());
                     break;
                 case BASENOTE: //basenote ::= "C" | "D" | "E" | "F" | "G" | "A" | "B" | "c" | "d" | "e" | "f" | "g" | "a" | "b";
-                    note += pitchValue.text();
+                    basenote = pitchValue.text().charAt(0);
                     break;
                 case OCTAVE: //octave ::= "'"+ | ","+;
-                    note += pitchValue.text();
+                    String octave = pitchValue.text();
+                    octaves = octave.charAt(0) == ',' ? -octave.length() : octave.length();
                     break;
             }
         }
         
-        // takes care of the case for measure accidentals
-        if (measureAccidentals.containsKey(note)) {
-            String currentAccidental = measureAccidentals.get(note);
-            note = measureAccidentals.get(note) + note; 
-            if (!accidental.isEmpty()) {
-                currentAccidental = accidental + currentAccidental; 
-                measureAccidentals.put(note, currentAccidental); 
-            }
-        } else { 
-            // adds new accidental to the measure
-            if (!accidental.isEmpty()) {
-                measureAccidentals.put(note, accidental);
-            }
-        }
-        
-        noteInput = accidental + note;
-        
-        
-        
+        Fraction length = Fraction.ONE;
         if (noteValue.children().size() == 2) {
-            ParseTree<MusicGrammar> noteLength = noteValue.children().get(1);
-            String length = noteLength.text();
-            
-            // if length specified
-            if (!length.isEmpty()) {
-                return new Note(noteInput, header, length, tupletLengthStr);           
-            }
+            length = makeLength(noteValue.children().get(1));
         }
         
-        return new Note(noteInput, header, tupletLengthStr); 
+        return decoder.decode(hasAccidental, accidental, basenote, octaves, length);
+    }
+    
+    /**
+     * Decodes the length of a note or rest.
+     * 
+     * @param noteLength parsetree of noteLength ::= (digit)? ("/" (digit)?)?;
+     * @return the length multiplier, where a missing numerator is 1, a missing 
+     *          denominator is 2, and an empty length is 1
+     */
+    private static Fraction makeLength(final ParseTree<MusicGrammar> noteLength) {
+        final String length = noteLength.text();
+        if (length.isEmpty()) {
+            return Fraction.ONE;
+        }
+        return Fraction.parse(length);
     }
     
     /**
@@ -403,43 +467,48 @@ public class KaraokeParser {
         if (restValue.children().size() == 0) {
             return new Rest(header);
         }
-        
-        String restLength = restValue.children().get(0).text();
-        if (restLength.isEmpty()) {
-            return new Rest(header);
-        }
-        
-        return new Rest(header, restLength);
+        return new Rest(header, makeLength(restValue.children().get(0)));
     }
     
     public static String getLyricLine(List<ParseTree<MusicGrammar>> lyricElementValues) {
-        String lyricLine = ""; 
-        for (ParseTree<MusicGrammar> lyricElement: lyricElementValues) {
-            switch (lyricElement.text()) {
-            case " ":
-                lyricLine += ' ';
-                break; 
-            case "-": 
-                break; 
-            case "_": 
-                break; 
-            case "*": 
-                break;
-            case "~": 
-                lyricLine += ' ';
-                break; 
-            case "\\-": 
-                lyricLine += '-';
-                break; 
-            case "|": 
-                break; 
-            default: 
-                // lyric text
-                lyricLine += lyricElement.text();
-               
-            }
+        return BodyBuilder.getLyricLine(texts(lyricElementValues));
+    }
+    
+    /**
+     * @param trees parse trees
+     * @return the text of each tree, in order
+     */
+    private static List<String> texts(List<ParseTree<MusicGrammar>> trees) {
+        final List<String> texts = new ArrayList<>(trees.size());
+        for (ParseTree<MusicGrammar> tree : trees) {
+            texts.add(tree.text());
         }
-        return lyricLine; 
+        return texts;
+    }
+    
+    /**
+     * @param chordValue parsetree of chord ::= "[" note (" "* note)* "]";
+     * @param body body the chord is part of
+     * @param tupletFactor the multiplicative factor of the notes' lengths if the chord is part of a tuple
+     * @return the chord of the notes in chordValue
+     */
+    private static Music makeChord(final ParseTree<MusicGrammar> chordValue, BodyBuilder body, Fraction tupletFactor) {
+        final List<Music> notes = new ArrayList<>();
+        for (ParseTree<MusicGrammar> noteValue : chordValue.children()) {
+            notes.add(makeNote(noteValue, body, tupletFactor));
+        }
+        return body.chord(notes);
+    }
+    
+    /**
+     * @param noteValue parsetree of note ::= pitch noteLength?;
+     * @param body body the note is part of
+     * @param tupletFactor the multiplicative factor of the note's length if the note is part of a tuple
+     * @return the note
+     */
+    private static Music makeNote(final ParseTree<MusicGrammar> noteValue, BodyBuilder body, Fraction tupletFactor) {
+        return makeNote(noteValue, (hasAccidental, accidental, basenote, octaves, length) -> 
+                body.note(hasAccidental, accidental, basenote, octaves, length, tupletFactor));
     }
     
     /**
@@ -450,31 +519,22 @@ public class KaraokeParser {
      * @return A recursive Music Object represnting the elements within the entire abc body type
      */
     public static Music makeAbstractSyntaxTree(final ParseTree<MusicGrammar> abcBodyType, Header header) {
-        List<ParseTree<MusicGrammar>> abcLineList = abcBodyType.children();
-        Map<String, List<Music>> voiceToMusic = new HashMap<>();
-        
-        //initialize the first if not found, the music in general, repeat, and barline accidentals
-        String voice = "unknown"; 
-        Music music = new Rest(header, "0");
-        
-        //initialize maps
-        Map<String, Music> voiceToMusicRepeat = new HashMap<>(); 
-        Map<String, Boolean> voiceToFirstRepeat = new HashMap<>();
-        
-        
-        voiceToMusicRepeat.put(voice, new Rest(header, "0"));
-        voiceToFirstRepeat.put(voice, false);
-        
-        // format: (string) note -> (string) accidental 
-        Map<String, String> measureAccidentals = new HashMap<>();
-
+        final BodyBuilder body = new BodyBuilder(header);
+        addToBody(abcBodyType, header, body);
+        return body.build();
+    }
+    
+    /**
+     * Adds the lines of a parsed abc body to a body builder.
+     * 
+     * @param abcBodyType parsetree of abcBody ::= abcLine+;
+     * @param header Header info about the entire piece
+     * @param body builder to add the lines to
+     */
+    private static void addToBody(final ParseTree<MusicGrammar> abcBodyType, Header header, BodyBuilder body) {
         // loop through every abcLine
-        for (ParseTree<MusicGrammar> abcLineType : abcLineList) {
-            // parse line of music and append it to voice to Music map
-            Music musicLine = new Rest(header, "0");
-            List<ParseTree<MusicGrammar>> abcLineValueList = abcLineType.children();
-            
-            for (ParseTree<MusicGrammar> abcLineValue : abcLineValueList) {
+        for (ParseTree<MusicGrammar> abcLineType : abcBodyType.children()) {
+            for (ParseTree<MusicGrammar> abcLineValue : abcLineType.children()) {
                 switch (abcLineValue.name()) {
                     case ELEMENT: //element ::= noteElement | restElement | tupletElement | barline | nthRepeat | spaceOrTab;
                         ParseTree<MusicGrammar> elementValue = abcLineValue.children().get(0);
@@ -483,96 +543,32 @@ public class KaraokeParser {
                                 ParseTree<MusicGrammar> noteElementValue = elementValue.children().get(0);
                                 switch (noteElementValue.name()) {
                                     case NOTE: //note ::= pitch noteLength?;
-                                        musicLine = new Concat(musicLine, makeNote(noteElementValue, header, measureAccidentals), header);
-                                        if (!voiceToFirstRepeat.get(voice)) {
-                                            Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                            musicRepeat = new Concat(musicRepeat, makeNote(noteElementValue, header, measureAccidentals),header);
-                                            voiceToMusicRepeat.put(voice, musicRepeat);
-                                        }
+                                        body.add(makeNote(noteElementValue, body, Fraction.ONE));
                                         break;
                                     case CHORD: //chord ::= "[" note (" "* note)* "]";
-                                        List<ParseTree<MusicGrammar>> noteValueList = noteElementValue.children();
-                                        
-                                        //initialize chord with the first note
-                                        Music chord = makeNote(noteValueList.get(0), header, measureAccidentals);
-                                        
-                                        for (int i = 1; i < noteValueList.size(); i++) {
-                                            ParseTree<MusicGrammar> noteValue = noteValueList.get(i);
-                                            chord = new Chord(chord, makeNote(noteValue, header, measureAccidentals),header);
-                                        }
-                                        
-                                        musicLine = new Concat(musicLine, chord, header);
-                                        if (!voiceToFirstRepeat.get(voice)) {
-                                            Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                            musicRepeat = new Concat(musicRepeat, chord, header);
-                                            voiceToMusicRepeat.put(voice, musicRepeat);
-                                        }
-                                        
+                                        body.add(makeChord(noteElementValue, body, Fraction.ONE));
                                         break; 
                                     }
                                 break;
                             case RESTELEMENT: //restElement ::= "z" noteLength?;
-                                musicLine = new Concat(musicLine, makeRest(elementValue, header),header);
-                                if (!voiceToFirstRepeat.get(voice)) {
-                                    Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                    musicRepeat = new Concat(musicRepeat, makeRest(elementValue, header), header);
-                                    voiceToMusicRepeat.put(voice, musicRepeat);
-                                }
+                                body.add(makeRest(elementValue, header));
                                 break;
                             case TUPLETELEMENT: //tupletElement ::= tupletSpec noteElement+;
                                 // get the specs 
                                 ParseTree<MusicGrammar> tupletSpecValue = elementValue.children().get(0);      
-                                
-                                // tupletNum can only be 2,3,4
-                                int tupletNum = Integer.parseInt(tupletSpecValue.children().get(0).text());
-                                String tupletString = "1";
-                                switch (tupletNum) {
-                                    case 2:
-                                        tupletString = "3/2";
-                                        break;
-                                    case 3:
-                                        tupletString = "2/3";
-                                        break;
-                                    case 4:
-                                        tupletString = "3/4";
-                                        break;
-                                    default:
-                                        System.out.println("tuplet number is not 2,3,4");
-                                }
+                                Fraction tupletFactor = BodyBuilder.tupletFactor(
+                                        Integer.parseInt(tupletSpecValue.children().get(0).text()));
                                 
                                 // noteElement+
                                 for (int i = 1; i < elementValue.children().size(); i++) {
-                                    // noteElement
-                                    ParseTree<MusicGrammar> elementTupletValue = elementValue.children().get(i);
-                                    
                                     // note | chord
-                                    ParseTree<MusicGrammar> noteElementTupletValue = elementTupletValue.children().get(0);
+                                    ParseTree<MusicGrammar> noteElementTupletValue = elementValue.children().get(i).children().get(0);
                                     switch (noteElementTupletValue.name()) {
                                         case NOTE: //note ::= pitch noteLength?;
-                                            musicLine = new Concat(musicLine, makeNote(noteElementTupletValue, header, measureAccidentals, tupletString), header);
-                                            if (!voiceToFirstRepeat.get(voice)) {
-                                                Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                                musicRepeat = new Concat(musicRepeat, makeNote(noteElementTupletValue, header, measureAccidentals),header);
-                                                voiceToMusicRepeat.put(voice, musicRepeat);
-                                            }
+                                            body.add(makeNote(noteElementTupletValue, body, tupletFactor));
                                             break;
                                         case CHORD: //chord ::= "[" note (" "* note)* "]";
-                                            List<ParseTree<MusicGrammar>> noteValueList = noteElementTupletValue.children();
-                                            
-                                            //initialize chord with the first note
-                                            Music chord = makeNote(noteValueList.get(0), header, measureAccidentals, tupletString);
-                                            
-                                            for (int j = 1; j < noteValueList.size(); j++) {
-                                                ParseTree<MusicGrammar> noteValue = noteValueList.get(j);
-                                                chord = new Chord(chord, makeNote(noteValue, header, measureAccidentals, tupletString),header);
-                                            }
-                                            
-                                            musicLine = new Concat(musicLine, chord, header);
-                                            if (!voiceToFirstRepeat.get(voice)) {
-                                                Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                                musicRepeat = new Concat(musicRepeat, chord, header);
-                                                voiceToMusicRepeat.put(voice, musicRepeat);
-                                            }
+                                            body.add(makeChord(noteElementTupletValue, body, tupletFactor));
                                             break; 
                                         default: 
                                             System.out.println("something wrong with noteElementTupletValue");
@@ -581,41 +577,10 @@ public class KaraokeParser {
                                 
                                 break; 
                             case BARLINE: //barline ::= "|" | "||" | "[|" | "|]" | ":|" | "|:";
-                                String barlineType = elementValue.text();
-                                switch (barlineType) {
-                                    case "|":
-                                        // cause accidentals to go away
-                                        measureAccidentals.clear();
-                                        break;
-                                    case ":|":
-                                        // repeat everything from entry point
-                                        Music musicRepeat = voiceToMusicRepeat.get(voice);
-                                        musicLine = new Concat(musicLine, musicRepeat, header);
-                                        musicRepeat = new Rest(header, "0");
-                                        voiceToMusicRepeat.put(voice, musicRepeat);
-                                        break;
-                                    case "|:":
-                                        // start repeating from when this starts
-                                        musicRepeat = new Rest(header, "0");
-                                        break;
-                                    default: 
-                                        System.out.println("something wrong with barlineTYpe");
-                                }
-                                // end measure
+                                body.barline(elementValue.text());
                                 break;
                             case NTHREPEAT: //nthRepeat ::= "[1" | "[2";
-                                // will entail storing music in an additional data structure
-                                String repeatType = elementValue.text();
-                                switch (repeatType) {
-                                    case "[1": 
-                                        voiceToFirstRepeat.put(voice, true);
-                                        break;
-                                    case "[2":
-                                        voiceToFirstRepeat.put(voice, true);
-                                        break;
-                                    default: 
-                                        System.out.println("something wrong with repeatType");
-                                }
+                                body.nthRepeat(elementValue.text());
                                 break;
                             case SPACEORTAB: //spaceOrTab ::= " " | "\t";
                                 // ignore
@@ -625,135 +590,11 @@ public class KaraokeParser {
                         }
                         break;
                     case LYRIC: //lyric ::= "w:" lyricalElement*;
-                        List<ParseTree<MusicGrammar>> lyricElementValues = abcLineValue.children();
-                        
-                        // string that will be passed into each syllable
-                        String lyricLineString = getLyricLine(lyricElementValues);
-                        
-                        // keep track of syllables in lyric line 
-                        LinkedList<Syllable> syllableNoteList = new LinkedList<>();
-                        Boolean joinSyllable = false;
-                        String previousElement = ""; 
-                        int currentIndex = 0;
-                        
-                        
-                        for (ParseTree<MusicGrammar> lyricElementValue : lyricElementValues) {
-                            if (lyricElementValue.children().size() == 0) {
-                                // has no nonterminal 
-                                switch (lyricElementValue.text()) {
-                                    case " ":
-                                        currentIndex += 1;
-                                        previousElement = " ";
-                                        break;
-                                    case "-": 
-                                        if (previousElement == "-"
-                                        || previousElement == " ") { 
-                                            // hyphen is regarded as a separate syllable
-                                            Syllable latestSyllable = syllableNoteList.removeLast();
-                                            int latestSyllableBegin = latestSyllable.getBeginIndex();
-                                            int latestSyllableEnd = latestSyllable.getEndIndex();
-                                            
-                                            syllableNoteList.addLast(new Syllable(
-                                                    voice,
-                                                    lyricLineString,
-                                                    latestSyllableBegin,
-                                                    latestSyllableEnd));
-                                        }
-                                        previousElement = "-";
-                                        break; 
-                                    case "_": 
-                                        previousElement = "_";
-                                        break;
-                                    case "*":  
-                                        Syllable latestSyllable = syllableNoteList.removeLast();
-                                        int latestSyllableBegin = latestSyllable.getBeginIndex();
-                                        int latestSyllableEnd = latestSyllable.getEndIndex();
-                                        
-                                        syllableNoteList.addLast(new Syllable(
-                                                voice,
-                                                lyricLineString,
-                                                latestSyllableBegin,
-                                                latestSyllableEnd));
-                                        
-                                        previousElement = "*";
-                                        break; 
-                                    case "~": 
-                                        currentIndex += 1;
-                                        previousElement = "~";
-                                        joinSyllable = true;         
-                                        break; 
-                                    case "|": 
-                                        previousElement = "|";
-                                        break; 
-                                    default: 
-                                        System.out.println("something is wrong with lyricElement");
-                                }
-                            } else { 
-                                ParseTree<MusicGrammar> lyricElementValueChild = lyricElementValue.children().get(0);
-                                switch (lyricElementValueChild.name()) {
-                                    case BACKSLASHHYPHEN: 
-                                        // combines multiple syllables under one note
-                                        currentIndex +=1; 
-                                        previousElement = "\\-";
-                                        joinSyllable = true; 
-                                        break; 
-                                    case LYRICTEXT:
-                                        // append lyricText to syllable
-                                        String lyricString = lyricElementValueChild.text();
-                                        int beginIndex = currentIndex; 
-                                        
-                                        if (joinSyllable) {
-                                            // add new syllable object and use same begin and end index from previous 
-                                            // syllable
-                                            
-                                            Syllable latestSyllable = syllableNoteList.removeLast();
-                                            int latestSyllableBegin = latestSyllable.getBeginIndex();
-                                            int latestSyllableEnd = latestSyllable.getEndIndex();
-                                            
-                                            syllableNoteList.addLast(new Syllable(
-                                                    voice,
-                                                    lyricLineString,
-                                                    latestSyllableBegin,
-                                                    latestSyllableEnd));
-                         
-                                            // turn joinSyllable off 
-                                            joinSyllable = false;
-                          
-                                        } else {       
-                                            // regular syllable 
-                                            syllableNoteList.add(
-                                                    new Syllable(
-                                                            voice,
-                                                            lyricLineString,
-                                                            beginIndex,
-                                                            beginIndex + lyricString.length()));
-                                        }
-                                        
-                                        currentIndex += lyricString.length();
-                                        previousElement = lyricString; 
-                                        break;
-                                    default: 
-                                        System.out.println("something iw wrong with lyricElementChild");
-                                }
-                            }
-                        }
-                        
-                        // given the list of lyrics, add them to the music data type 
-                        // from left to right
-    
-                        for (Syllable syllable: syllableNoteList) {
-                            musicLine = musicLine.addSyllableToNote(syllable);
-                        }
-                        
+                        body.lyric(texts(abcLineValue.children()));
                         break; 
                     case MIDDLEOFBODYFIELD: //middleOfBodyField ::= fieldVoice;
                         ParseTree<MusicGrammar> fieldVoice = abcLineValue.children().get(0);
-                        ParseTree<MusicGrammar> text = fieldVoice.children().get(0);
-                        voice = text.text();
-                        
-                        // add repeat for voices
-                        voiceToMusicRepeat.put(voice, new Rest(header, "0"));
-                        voiceToFirstRepeat.put(voice, false);
+                        body.voice(fieldVoice.children().get(0).text());
                         break;
                     case COMMENT: //comment ::= spaceOrTab* "%" commentText newline;
                         break; 
@@ -763,34 +604,8 @@ public class KaraokeParser {
                         System.out.println("something wrong with abcLine");
                 }
             }
-            
-            // add abcLine to appropriate voice
-            if (voiceToMusic.containsKey(voice)) {
-                List<Music> voiceMusicLines = voiceToMusic.get(voice);
-                voiceMusicLines.add(musicLine);
-            } else { 
-                List<Music> voiceMusicLines = new ArrayList<>(); 
-                voiceMusicLines.add(musicLine);
-                voiceToMusic.put(voice, voiceMusicLines);
-            }
-        }
-        
-        // give voiceToMusic, concat all the music lines
-        Map<String, Music> voiceToSingleMusic = new HashMap<>();
-        for (String singleVoice : voiceToMusic.keySet()) {
-            Music voiceMusic = new Rest(header, "0");
-            for (Music musicLine : voiceToMusic.get(singleVoice)) {
-                voiceMusic = new Concat(voiceMusic, musicLine, header);
-            }
-            voiceToSingleMusic.put(singleVoice, voiceMusic);
-        }
-        
-        // overlay all of the voice
-        for (Music musicVoice : voiceToSingleMusic.values()) {
-            music = new OverlayVoice(music, musicVoice, header);
+            body.endLine();
         }
-                
-        return music;    
     }
     
     
@@ -802,14 +617,14 @@ public class KaraokeParser {
      * @return the parser grammar for the music portion of the abc file
      */
     public static Parser<MusicGrammar> getMusicParser(){
-        return musicParser;
+        return Grammars.musicParser;
     }
     
     /**
      * @return the parser grammar for the header portion of the abc file
      */
     public static Parser<HeaderGrammar> getHeaderParser(){
-        return headerParser;
+        return Grammars.headerParser;
     }
 
 }
@@ -0,0 +1,77 @@
+package karaoke.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.parser.KaraokeParser.Implementation;
+
+/**
+ * Compares how fast each KaraokeParser implementation parses a corpus of abc files.
+ */
+public class ParserBenchmark {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+
+    /**
+     * Parses every abc file in a directory with each implementation, and prints the average
+     * time each takes to parse the whole corpus. Files that don't parse are skipped.
+     * @param args directory of abc files, sample-abc if not given
+     * @throws IOException if the files can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        final File directory = new File(args.length > 0 ? args[0] : "sample-abc");
+        final List<String> corpus = new ArrayList<>();
+        for (File file : directory.listFiles((dir, name) -> name.endsWith(".abc"))) {
+            final String abc = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            try {
+                KaraokeParser.parse(abc, Implementation.GRAMMAR);
+                corpus.add(abc);
+            } catch (UnableToParseException e) {
+                System.err.println("skipping " + file + ": " + e.getMessage());
+            }
+        }
+        System.out.println(corpus.size() + " files from " + directory);
+
+        for (Implementation implementation : Implementation.values()) {
+            time(implementation.toString(), corpus, abc -> KaraokeParser.parse(abc, implementation));
+        }
+        // the streaming parser without parsing the voices in parallel
+        time("ONE THREAD", corpus, StreamingParser::parse);
+    }
+
+    /**
+     * Parses a whole abc file.
+     */
+    @FunctionalInterface
+    private interface AbcParser {
+        void parse(String abc) throws UnableToParseException;
+    }
+
+    private static void time(String name, List<String> corpus, AbcParser parser) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            parseAll(corpus, parser);
+        }
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            parseAll(corpus, parser);
+        }
+        final double millis = (System.nanoTime() - start) / 1e6 / MEASURED_ROUNDS;
+        System.out.printf("%-10s %8.3f ms per corpus%n", name, millis);
+    }
+
+    private static void parseAll(List<String> corpus, AbcParser parser) {
+        for (String abc : corpus) {
+            try {
+                parser.parse(abc);
+            } catch (UnableToParseException e) {
+                throw new AssertionError("parsed before, so should parse again", e);
+            }
+        }
+    }
+}
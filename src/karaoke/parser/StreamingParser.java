@@ -0,0 +1,567 @@
+package karaoke.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Fraction;
+import karaoke.Header;
+import karaoke.Music;
+
+/**
+ * Hand-written parser for abc files, an alternative to the parserlib grammars in Header.g and
+ * Music.g. It hands every note, rest, barline and lyric straight to the same HeaderBuilder and
+ * BodyBuilder the grammar implementation uses, so it builds no parse trees. parse() reads the
+ * text once from start to end, though the header still keeps a copy of the body as its music.
+ * KaraokeParser instead parses the header with parseHeader() and then each voice's lines with
+ * parseBody(), through VoiceParser, which copies the lines of each voice out of that body.
+ *
+ * It accepts exactly the files the grammars accept, and resolves their ambiguities the way
+ * parserlib does: a choice takes its longest matching alternative, and a repetition is greedy.
+ * Each method below is named after the grammar rule it parses.
+ */
+public class StreamingParser {
+
+    // Abstraction Function
+    //  AF(input, pos): a parse of input whose first pos characters have been read
+    // Rep Invariant
+    //  0 <= pos <= input.length()
+    // Safety from rep exposure
+    //  all fields are private, and instances never leave this class
+    // Thread Safety argument
+    //  instances are confined to the thread calling parse(), and input is not mutated while it runs
+
+    // returned by peek() at the end of the input
+    private static final int END = -1;
+
+    private final CharSequence input;
+    private int pos = 0;
+
+    private StreamingParser(CharSequence input) {
+        this.input = input;
+    }
+
+    /**
+     * Parse an ABC file into a Music Datatype.
+     * @param input abc file to parse, e.g. a String or a CharBuffer
+     * @return the music of the file
+     * @throws UnableToParseException if input doesn't match the abc grammar
+     */
+    public static Music parse(CharSequence input) throws UnableToParseException {
+        final StreamingParser parser = new StreamingParser(input);
+        final Header header = parser.abcHeader();
+        final BodyBuilder body = new BodyBuilder(header);
+        parser.abcBody(body);
+        return body.build();
+    }
+
+    /**
+     * Parse the header of an ABC file.
+     * @param input abc file to parse
+     * @return the header of the file, whose music is the rest of the file
+     * @throws UnableToParseException if the header doesn't match the abc grammar
+     */
+    static Header parseHeader(CharSequence input) throws UnableToParseException {
+        return new StreamingParser(input).abcHeader();
+    }
+
+    /**
+     * Parse lines of the body of an ABC file.
+     * @param lines lines to parse
+     * @param body builder to add the lines to
+     * @throws UnableToParseException if lines don't match the abc grammar
+     */
+    static void parseBody(CharSequence lines, BodyBuilder body) throws UnableToParseException {
+        new StreamingParser(lines).abcBody(body);
+    }
+
+    /**
+     * Parse an ABC file into a Music Datatype.
+     * @param reader reader of the abc file to parse, read to its end but not closed
+     * @return the music of the file
+     * @throws IOException if reader can't be read
+     * @throws UnableToParseException if the file doesn't match the abc grammar
+     */
+    public static Music parse(Reader reader) throws IOException, UnableToParseException {
+        final StringBuilder input = new StringBuilder();
+        final char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            input.append(buffer, 0, read);
+        }
+        return parse(input);
+    }
+
+    ///////////////////////////////////////
+    // Header.g
+    ///////////////////////////////////////
+
+    //abcheader ::= fieldnumber comment* fieldtitle otherfields* fieldkey music;
+    private Header abcHeader() throws UnableToParseException {
+        final HeaderBuilder header = new HeaderBuilder();
+
+        //fieldnumber ::= "X:"digit endofline;
+        expect("X:");
+        digit();
+        endofline();
+
+        while (isCommentStart()) {
+            comment();
+        }
+
+        //fieldtitle ::= "T:" text endofline;
+        expect("T:");
+        header.title(text());
+        endofline();
+
+        //otherfields ::= fieldcomposer | fielddefaultlength | fieldmeter | fieldtempo | fieldvoice | comment;
+        while (true) {
+            if (startsWith("C:")) {
+                //fieldcomposer ::= "C:" text endofline;
+                pos += 2;
+                header.composer(text());
+            } else if (startsWith("L:")) {
+                //fielddefaultlength ::= "L:" notelengthstrict endofline;
+                //notelengthstrict ::= digit ("/" digit)?;
+                pos += 2;
+                double lengthNum = Double.parseDouble(digit());
+                if (peek() == '/') {
+                    pos++;
+                    lengthNum = lengthNum/Double.parseDouble(digit());
+                }
+                header.noteLength(lengthNum);
+            } else if (startsWith("M:")) {
+                //fieldmeter ::= "M:" meter endofline;
+                //meter ::= common | half | meterfraction;
+                pos += 2;
+                if (startsWith("C|")) {
+                    pos += 2;
+                    header.meter(2, 2);
+                } else if (peek() == 'C') {
+                    pos++;
+                    header.meter(4, 4);
+                } else {
+                    //meterfraction ::= digit "/" digit;
+                    final int numerator = Integer.parseInt(digit());
+                    expect("/");
+                    header.meter(numerator, Integer.parseInt(digit()));
+                }
+            } else if (startsWith("Q:")) {
+                //fieldtempo ::= "Q:" tempo endofline;
+                //tempo ::= meterfraction "=" digit;
+                pos += 2;
+                final double numerator = Double.parseDouble(digit());
+                expect("/");
+                final double denominator = Double.parseDouble(digit());
+                expect("=");
+                header.tempo(numerator/denominator, Double.parseDouble(digit()));
+            } else if (startsWith("V:")) {
+                //fieldvoice ::= "V:" text endofline;
+                pos += 2;
+                header.voice(text());
+            } else if (isCommentStart()) {
+                comment();
+                continue;
+            } else {
+                break;
+            }
+            endofline();
+        }
+
+        //fieldkey ::= "K:" key endofline;
+        //key ::= keynote modeminor?;
+        //keynote ::= basenote keyaccidental?;
+        expect("K:");
+        final int keyStart = pos;
+        if (peek() < 'A' || peek() > 'G') {
+            throw fail("key");
+        }
+        pos++;
+        if (peek() == '#' || peek() == 'b') {
+            pos++;
+        }
+        if (peek() == 'm') {
+            pos++;
+        }
+        header.key(input.subSequence(keyStart, pos).toString());
+        endofline();
+
+        //music ::= [^$]+;
+        if (pos == input.length()) {
+            throw fail("music");
+        }
+        header.music(input.subSequence(pos, input.length()).toString());
+        return header.build();
+    }
+
+    //endofline ::= spaceortab? (comment)? newline;
+    private void endofline() throws UnableToParseException {
+        if (isSpaceOrTab(peek())) {
+            pos++;
+        }
+        if (isCommentStart()) {
+            comment();
+        }
+        newline();
+    }
+
+    //comment ::= spaceortab* "%" commenttext newline;
+    private void comment() throws UnableToParseException {
+        while (isSpaceOrTab(peek())) {
+            pos++;
+        }
+        expect("%");
+        text();
+        newline();
+    }
+
+    private boolean isCommentStart() {
+        return isSpaceOrTab(peek()) || peek() == '%';
+    }
+
+    //text ::= [a-zA-z 0-9'.,=]*;
+    private String text() {
+        final int start = pos;
+        for (int c = peek(); c >= 'A' && c <= 'z' || c >= '0' && c <= '9'
+                || c == ' ' || c == '\'' || c == '.' || c == ',' || c == '='; c = peek()) {
+            pos++;
+        }
+        return input.subSequence(start, pos).toString();
+    }
+
+    //digit ::= [0-9]+;
+    private String digit() throws UnableToParseException {
+        final int start = pos;
+        skipDigits();
+        if (pos == start) {
+            throw fail("digit");
+        }
+        return input.subSequence(start, pos).toString();
+    }
+
+    ///////////////////////////////////////
+    // Music.g
+    ///////////////////////////////////////
+
+    //abcBody ::= abcLine+;
+    private void abcBody(BodyBuilder body) throws UnableToParseException {
+        do {
+            abcLine(body);
+        } while (pos < input.length());
+    }
+
+    //abcLine ::= element+ endOfLine (lyric endOfLine)?  | middleOfBodyField endOfLine | comment;
+    private void abcLine(BodyBuilder body) throws UnableToParseException {
+        if (startsWith("V:")) {
+            //middleOfBodyField ::= fieldVoice;
+            //fieldVoice ::= "V:" text;
+            pos += 2;
+            body.voice(lyricText());
+            endOfLine();
+        } else if (isElementStart(peek())) {
+            do {
+                element(body);
+            } while (isElementStart(peek()));
+            endOfLine();
+            if (startsWith("w:")) {
+                //lyric ::= "w:" lyricalElement*;
+                pos += 2;
+                body.lyric(lyricalElements());
+                endOfLine();
+            }
+        } else if (peek() == '%') {
+            musicComment();
+        } else {
+            throw fail("note, rest, barline, voice field or comment");
+        }
+        body.endLine();
+    }
+
+    //element ::= noteElement | restElement | tupletElement | barline | nthRepeat | spaceOrTab;
+    private static boolean isElementStart(int c) {
+        return isNoteStart(c) || c == '[' || c == 'z' || c == '(' || c == '|' || c == ':' || isSpaceOrTab(c);
+    }
+
+    private void element(BodyBuilder body) throws UnableToParseException {
+        final int c = peek();
+        if (isSpaceOrTab(c)) {
+            pos++;
+        } else if (c == 'z') {
+            //restElement ::= "z" noteLength?;
+            pos++;
+            body.add(body.rest(noteLength()));
+        } else if (c == '(') {
+            //tupletElement ::= tupletSpec noteElement+;
+            //tupletSpec ::= "(" digit;
+            pos++;
+            final Fraction tupletFactor = BodyBuilder.tupletFactor(Integer.parseInt(digit()));
+            if (!isNoteElementStart()) {
+                throw fail("note or chord");
+            }
+            do {
+                body.add(noteElement(body, tupletFactor));
+            } while (isNoteElementStart());
+        } else if (c == '|') {
+            //barline ::= "|" | "||" | "[|" | "|]" | ":|" | "|:";
+            final int next = peek(1);
+            final int length = next == '|' || next == ']' || next == ':' ? 2 : 1;
+            body.barline(input.subSequence(pos, pos + length).toString());
+            pos += length;
+        } else if (c == ':') {
+            expect(":|");
+            body.barline(":|");
+        } else if (c == '[' && peek(1) == '|') {
+            pos += 2;
+            body.barline("[|");
+        } else if (c == '[' && (peek(1) == '1' || peek(1) == '2')) {
+            //nthRepeat ::= "[1" | "[2";
+            body.nthRepeat(input.subSequence(pos, pos + 2).toString());
+            pos += 2;
+        } else {
+            body.add(noteElement(body, Fraction.ONE));
+        }
+    }
+
+    //noteElement ::= note | chord;
+    private boolean isNoteElementStart() {
+        return isNoteStart(peek()) || peek() == '[' && isNoteStart(peek(1));
+    }
+
+    private Music noteElement(BodyBuilder body, Fraction tupletFactor) throws UnableToParseException {
+        if (peek() != '[') {
+            return note(body, tupletFactor);
+        }
+        //chord ::= "[" note (" "* note)* "]";
+        pos++;
+        final List<Music> notes = new ArrayList<>();
+        notes.add(note(body, tupletFactor));
+        while (true) {
+            final int beforeSpaces = pos;
+            while (peek() == ' ') {
+                pos++;
+            }
+            if (!isNoteStart(peek())) {
+                pos = beforeSpaces;
+                break;
+            }
+            notes.add(note(body, tupletFactor));
+        }
+        expect("]");
+        return body.chord(notes);
+    }
+
+    //note ::= pitch noteLength?;
+    //pitch ::= accidental? basenote octave?;
+    private static boolean isNoteStart(int c) {
+        return c == '^' || c == '_' || c == '=' || c >= 'A' && c <= 'G' || c >= 'a' && c <= 'g';
+    }
+
+    private Music note(BodyBuilder body, Fraction tupletFactor) throws UnableToParseException {
+        //accidental ::= "^" | "^^" | "_" | "__" | "=";
+        boolean hasAccidental = true;
+        int accidental = 0;
+        switch (peek()) {
+            case '^':
+                accidental = peek(1) == '^' ? 2 : 1;
+                pos += accidental;
+                break;
+            case '_':
+                accidental = peek(1) == '_' ? -2 : -1;
+                pos -= accidental;
+                break;
+            case '=':
+                pos++;
+                break;
+            default:
+                hasAccidental = false;
+        }
+
+        //basenote ::= "C" | "D" | "E" | "F" | "G" | "A" | "B" | "c" | "d" | "e" | "f" | "g" | "a" | "b";
+        final int basenote = peek();
+        if (!(basenote >= 'A' && basenote <= 'G' || basenote >= 'a' && basenote <= 'g')) {
+            throw fail("note letter");
+        }
+        pos++;
+
+        //octave ::= "'"+ | ","+;
+        int octaves = 0;
+        while (peek() == '\'') {
+            pos++;
+            octaves++;
+        }
+        if (octaves == 0) {
+            while (peek() == ',') {
+                pos++;
+                octaves--;
+            }
+        }
+
+        return body.note(hasAccidental, accidental, (char) basenote, octaves, noteLength(), tupletFactor);
+    }
+
+    //noteLength ::= (digit)? ("/" (digit)?)?;
+    private Fraction noteLength() {
+        final int numeratorStart = pos;
+        skipDigits();
+        final int numeratorEnd = pos;
+        if (peek() != '/') {
+            if (numeratorEnd == numeratorStart) {
+                return Fraction.ONE;
+            }
+            return Fraction.of(Integer.parseInt(input, numeratorStart, numeratorEnd, 10));
+        }
+        pos++;
+        final int denominatorStart = pos;
+        skipDigits();
+        // a missing numerator is 1 and a missing denominator is 2
+        final int numerator = numeratorEnd == numeratorStart
+                ? 1 : Integer.parseInt(input, numeratorStart, numeratorEnd, 10);
+        final int denominator = pos == denominatorStart
+                ? 2 : Integer.parseInt(input, denominatorStart, pos, 10);
+        return Fraction.of(numerator, denominator);
+    }
+
+    //lyricalElement ::= " "+ | "-" | "_" | "*" | "~" | backslashHyphen | "|" | lyricText;
+    private List<String> lyricalElements() {
+        final List<String> elements = new ArrayList<>();
+        while (true) {
+            final int start = pos;
+            final int c = peek();
+            if (c == ' ') {
+                while (peek() == ' ') {
+                    pos++;
+                }
+            } else if (c == '-' || c == '_' || c == '*' || c == '~' || c == '|') {
+                pos++;
+            } else if (c == '\\' && peek(1) == '-') {
+                //backslashHyphen ::= "\\" "-";
+                pos += 2;
+            } else {
+                final String lyricText = lyricText();
+                // parserlib keeps an empty element only when it is the first one
+                if (!lyricText.isEmpty() || elements.isEmpty()) {
+                    elements.add(lyricText);
+                }
+                if (lyricText.isEmpty()) {
+                    return elements;
+                }
+                continue;
+            }
+            elements.add(input.subSequence(start, pos).toString());
+        }
+    }
+
+    //text ::= [A-Za-z0-9'?.!,]*;
+    private String lyricText() {
+        final int start = pos;
+        for (int c = peek(); c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                || c == '\'' || c == '?' || c == '.' || c == '!' || c == ','; c = peek()) {
+            pos++;
+        }
+        return input.subSequence(start, pos).toString();
+    }
+
+    //endOfLine ::= comment | newline;
+    private void endOfLine() throws UnableToParseException {
+        if (isSpaceOrTab(peek()) || peek() == '%') {
+            musicComment();
+        } else {
+            newline();
+        }
+    }
+
+    //comment ::= spaceOrTab* "%" commentText newline;
+    private void musicComment() throws UnableToParseException {
+        while (isSpaceOrTab(peek())) {
+            pos++;
+        }
+        expect("%");
+        lyricText();
+        newline();
+    }
+
+    ///////////////////////////////////////
+    // shared by both grammars
+    ///////////////////////////////////////
+
+    //newline ::= "\n" | "\r" "\n"?;
+    private void newline() throws UnableToParseException {
+        if (peek() == '\n') {
+            pos++;
+        } else if (peek() == '\r') {
+            pos++;
+            if (peek() == '\n') {
+                pos++;
+            }
+        } else {
+            throw fail("newline");
+        }
+    }
+
+    //spaceortab ::= " " | "\t";
+    private static boolean isSpaceOrTab(int c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private void skipDigits() {
+        while (peek() >= '0' && peek() <= '9') {
+            pos++;
+        }
+    }
+
+    /**
+     * @return the next character, or END at the end of the input
+     */
+    private int peek() {
+        return peek(0);
+    }
+
+    /**
+     * @param ahead number of characters to look past the next one
+     * @return the character that many characters after the next one, or END if the input ends first
+     */
+    private int peek(int ahead) {
+        return pos + ahead < input.length() ? input.charAt(pos + ahead) : END;
+    }
+
+    private boolean startsWith(String prefix) {
+        if (pos + prefix.length() > input.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (input.charAt(pos + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(String expected) throws UnableToParseException {
+        if (!startsWith(expected)) {
+            throw fail("\"" + expected + "\"");
+        }
+        pos += expected.length();
+    }
+
+    /**
+     * @param expected description of what should have been next in the input
+     * @return exception reporting that expected was not found at the current position
+     */
+    private UnableToParseException fail(String expected) {
+        int line = 1;
+        int column = 1;
+        for (int i = 0; i < pos; i++) {
+            if (input.charAt(i) == '\n') {
+                line++;
+                column = 1;
+            } else {
+                column++;
+            }
+        }
+        final String saw = pos < input.length() ? "'" + input.charAt(pos) + "'" : "the end of the file";
+        return new UnableToParseException("expected " + expected + " at line " + line + " column " + column
+                + " but saw " + saw);
+    }
+}
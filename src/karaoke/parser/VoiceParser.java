@@ -0,0 +1,136 @@
+package karaoke.parser;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Header;
+import karaoke.Music;
+
+/**
+ * Parses the body of an abc file with its voices in parallel. The lines of one voice don't depend
+ * on the lines of any other voice until the voices are overlaid, so the body is split into the
+ * lines of each voice, and each voice is parsed into its own BodyBuilder on the common fork-join pool.
+ */
+class VoiceParser {
+
+    /**
+     * Parses lines of an abc body.
+     */
+    @FunctionalInterface
+    interface LineParser {
+
+        /**
+         * @param lines whole lines of an abc body
+         * @param body builder to add the lines to
+         * @throws UnableToParseException if lines don't match the abc grammar
+         */
+        void parse(String lines, BodyBuilder body) throws UnableToParseException;
+    }
+
+    private VoiceParser() {
+        // not instantiable, only static methods
+    }
+
+    /**
+     * Parse the body of an abc file, one task per voice.
+     * @param header header of the abc file, whose music is the body
+     * @param parser parser of the lines of the body
+     * @return the music of the body, the same as parsing the whole body with parser into one BodyBuilder
+     * @throws UnableToParseException if the body doesn't match the abc grammar
+     */
+    static Music parse(Header header, LineParser parser) throws UnableToParseException {
+        final List<String> voices = split(header.getMusic());
+        if (voices.size() == 1) {
+            final BodyBuilder body = new BodyBuilder(header);
+            parser.parse(voices.get(0), body);
+            return body.build();
+        }
+
+        final List<Future<Map<String, Music>>> tasks = new ArrayList<>();
+        for (String lines : voices) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                final BodyBuilder body = new BodyBuilder(header);
+                parser.parse(lines, body);
+                return body.voices();
+            }));
+        }
+
+        // put the voices in the order they first appear, like a single BodyBuilder would
+        final Map<String, Music> voiceToMusic = new LinkedHashMap<>();
+        for (Future<Map<String, Music>> task : tasks) {
+            try {
+                voiceToMusic.putAll(task.get());
+            } catch (ExecutionException e) {
+                // parse the whole body again in this thread, so that it throws the voice's exception
+                // with its position in the whole body rather than in the voice's lines
+                parser.parse(header.getMusic(), new BodyBuilder(header));
+                throw new AssertionError("a voice failed to parse, but the whole body parsed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("interrupted while parsing voices", e);
+            }
+        }
+        return BodyBuilder.overlay(header, voiceToMusic);
+    }
+
+    /**
+     * Splits the lines of an abc body by voice. Every V: field starts a line, so a voice's lines
+     * are the lines from each of its V: fields up to the next V: field, and the lines before the
+     * first V: field belong to BodyBuilder.FIRST_VOICE.
+     * @param music body of an abc file
+     * @return the lines of each voice, in order, for each voice in the order it first appears;
+     *         every line of music is in exactly one of them
+     */
+    static List<String> split(String music) {
+        final Map<String, StringBuilder> voiceToLines = new LinkedHashMap<>();
+        StringBuilder lines = null;
+        int lineStart = 0;
+        while (lineStart < music.length()) {
+            int lineEnd = lineStart;
+            while (lineEnd < music.length() && music.charAt(lineEnd) != '\n' && music.charAt(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            // newline ::= "\n" | "\r" "\n"?;
+            if (music.startsWith("\r\n", lineEnd)) {
+                lineEnd += 2;
+            } else if (lineEnd < music.length()) {
+                lineEnd++;
+            }
+
+            if (music.startsWith("V:", lineStart)) {
+                lines = voiceToLines.computeIfAbsent(voiceName(music, lineStart + 2), v -> new StringBuilder());
+            } else if (lines == null) {
+                lines = voiceToLines.computeIfAbsent(BodyBuilder.FIRST_VOICE, v -> new StringBuilder());
+            }
+            lines.append(music, lineStart, lineEnd);
+            lineStart = lineEnd;
+        }
+
+        final List<String> voices = new ArrayList<>();
+        for (StringBuilder voiceLines : voiceToLines.values()) {
+            voices.add(voiceLines.toString());
+        }
+        return voices;
+    }
+
+    //fieldVoice ::= "V:" text;
+    //text ::= [A-Za-z0-9'?.!,]*;
+    private static String voiceName(String music, int start) {
+        int end = start;
+        while (end < music.length()) {
+            final char c = music.charAt(end);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9'
+                    || c == '\'' || c == '?' || c == '.' || c == '!' || c == ',')) {
+                break;
+            }
+            end++;
+        }
+        return music.substring(start, end);
+    }
+}
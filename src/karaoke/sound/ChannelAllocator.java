@@ -0,0 +1,190 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Collects notes of any instruments and assigns them MIDI channels in order of start tick.
+ * Notes of the same instrument share a channel, whichever voice or track they are in. When
+ * more instruments play than there are channels, a channel is switched to another instrument
+ * with a program change: preferably a channel none of whose notes are still sounding, and
+ * otherwise the one whose notes end first, whose last notes then change instrument as they ring.
+ * Channel 9, which General MIDI synthesizers play as drums, is never used.
+ */
+class ChannelAllocator {
+
+    // Abstraction function:
+    //   AF(tracks, instruments, notes, starts, ends, size, programs, lastEnds, used) =
+    //       the notes not yet assigned a channel, where note i of track tracks[i] is MIDI note notes[i]
+    //       of the instrument whose ordinal is instruments[i], from tick starts[i] to tick ends[i],
+    //       for i in [0, size); and the channels already assigned, where channel c plays the
+    //       instrument whose ordinal is programs[c], or none if programs[c] == NO_PROGRAM, and
+    //       sounds a note until tick lastEnds[c]. used holds every instrument of every note added.
+    // Rep invariant:
+    //   0 <= size <= the lengths of the note arrays, which are equal
+    //   0 <= notes[i] < NOTES and 0 <= starts[i] <= ends[i] for i < size
+    //   programs[PERCUSSION_CHANNEL] == NO_PROGRAM
+    //   no two channels have the same program, other than NO_PROGRAM
+    // Safety from rep exposure:
+    //   all fields are private; instruments() returns an unmodifiable copy
+    // Thread safety argument:
+    //   not threadsafe, must be confined to the thread scheduling the music
+
+    private static final int CHANNELS = 16;
+    private static final int PERCUSSION_CHANNEL = 9;
+    private static final int NOTES = 128;
+    private static final int NO_PROGRAM = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] tracks = new int[INITIAL_CAPACITY];
+    private int[] instruments = new int[INITIAL_CAPACITY];
+    private int[] notes = new int[INITIAL_CAPACITY];
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private final int[] programs = new int[CHANNELS];
+    private final int[] lastEnds = new int[CHANNELS];
+    private final Set<Instrument> used = EnumSet.noneOf(Instrument.class);
+
+    ChannelAllocator() {
+        Arrays.fill(programs, NO_PROGRAM);
+    }
+
+    /**
+     * @return an allocator with the same notes waiting and the same channels assigned as this one,
+     *          which assigns channels independently of it
+     */
+    ChannelAllocator copy() {
+        final ChannelAllocator copy = new ChannelAllocator();
+        copy.tracks = tracks.clone();
+        copy.instruments = instruments.clone();
+        copy.notes = notes.clone();
+        copy.starts = starts.clone();
+        copy.ends = ends.clone();
+        copy.size = size;
+        System.arraycopy(programs, 0, copy.programs, 0, CHANNELS);
+        System.arraycopy(lastEnds, 0, copy.lastEnds, 0, CHANNELS);
+        copy.used.addAll(used);
+        return copy;
+    }
+
+    /**
+     * @return number of notes waiting to be assigned channels
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return every instrument of the notes added so far
+     */
+    Set<Instrument> instruments() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(used));
+    }
+
+    /**
+     * Makes room for more notes without growing again.
+     * @param moreNotes number of notes about to be added
+     */
+    void ensureCapacity(int moreNotes) {
+        if (size + moreNotes > notes.length) {
+            final int capacity = Math.max(size + moreNotes, 2 * notes.length);
+            tracks = Arrays.copyOf(tracks, capacity);
+            instruments = Arrays.copyOf(instruments, capacity);
+            notes = Arrays.copyOf(notes, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+    }
+
+    /**
+     * Adds a note.
+     * @param track index of the track the note's events go in, >= 0
+     * @param instr instrument of the note
+     * @param note MIDI note number, 0 to 127
+     * @param startTick tick the note starts at, >= 0
+     * @param endTick tick the note ends at, >= startTick
+     * @throws InvalidMidiDataException if note is out of range
+     */
+    void addNote(int track, Instrument instr, int note, int startTick, int endTick) throws InvalidMidiDataException {
+        if (note < 0 || note >= NOTES) {
+            throw new InvalidMidiDataException("note out of range: " + note);
+        }
+        ensureCapacity(1);
+        tracks[size] = track;
+        instruments[size] = instr.ordinal();
+        notes[size] = note;
+        starts[size] = startTick;
+        ends[size] = Math.max(startTick, endTick);
+        used.add(instr);
+        size++;
+    }
+
+    /**
+     * Assigns every note added since the last call a channel, in order of start tick, and adds
+     * its events, and the program changes that patch its instrument into the channel, to the
+     * events of its track. Channels keep their instruments from one call to the next.
+     * @param events events of each track, indexed by track
+     * @throws InvalidMidiDataException if a MIDI message can't be made
+     */
+    void addTo(List<TrackBuilder> events) throws InvalidMidiDataException {
+        final long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = ((long) starts[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(order);
+        for (long key : order) {
+            final int i = (int) key;
+            final TrackBuilder track = events.get(tracks[i]);
+            final int channel = channelFor(instruments[i], starts[i], track);
+            track.addNote(channel, notes[i], starts[i], ends[i]);
+            lastEnds[channel] = Math.max(lastEnds[channel], ends[i]);
+        }
+        size = 0;
+    }
+
+    /**
+     * @return the channel of program for a note starting at startTick, after adding the program
+     *          change that patches program into it to track if it isn't already
+     */
+    private int channelFor(int program, int startTick, TrackBuilder track) throws InvalidMidiDataException {
+        int unused = -1;
+        int firstToEnd = -1;
+        for (int channel = 0; channel < CHANNELS; channel++) {
+            if (channel == PERCUSSION_CHANNEL) {
+                continue;
+            }
+            if (programs[channel] == program) {
+                return channel;
+            }
+            if (programs[channel] == NO_PROGRAM) {
+                if (unused < 0) {
+                    unused = channel;
+                }
+            } else if (firstToEnd < 0 || lastEnds[channel] < lastEnds[firstToEnd]) {
+                firstToEnd = channel;
+            }
+        }
+        final int channel;
+        final int tick;
+        if (unused >= 0) {
+            // a channel of its own, patched before anything plays
+            channel = unused;
+            tick = 0;
+        } else {
+            // every channel is taken, so switch the one that falls silent first
+            channel = firstToEnd;
+            tick = startTick;
+        }
+        track.add(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0), tick);
+        programs[channel] = program;
+        return channel;
+    }
+}
@@ -0,0 +1,280 @@
+package karaoke.sound;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Schedules a sequence of notes and lyrics and writes it as a Type 1 Standard MIDI File, which any
+ * sequencer can play back. The first track of the file holds the title, tempo and time signature,
+ * and every voice gets a track of its own, named after it, with its notes and lyric events.
+ * Notes added without a voice go in a track without a name.
+ *
+ * Channels are assigned by instrument, shared by every voice that plays it, and switched between
+ * instruments with program changes when there are more instruments than channels. A file can't
+ * store callbacks, so play() calls them in order of beat once the file is written.
+ */
+public class MidiFileSequencePlayer implements SequencePlayer {
+
+    /**
+     * Type of the Standard MIDI File written, with the tracks played together.
+     */
+    public static final int FILE_TYPE = 1;
+
+    // meta message types
+    private static final int META_TRACK_NAME = 0x03;
+    private static final int META_LYRIC = 0x05;
+    private static final int META_TEMPO = 0x51;
+    private static final int META_TIME_SIGNATURE = 0x58;
+
+    private static final int MICROSECONDS_PER_MINUTE = 60_000_000;
+    // MIDI clocks per metronome click, and 32nd notes per quarter note, of a time signature
+    private static final int CLOCKS_PER_CLICK = 24;
+    private static final int THIRTY_SECONDS_PER_QUARTER = 8;
+
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+
+    private final int beatsPerMinute;
+    private final int ticksPerBeat;
+    private final OutputStream out;
+    private final Sequence sequence;
+    // the first track, of the title, tempo and time signature
+    private final Track conductor;
+    private final TrackBuilder conductorEvents = new TrackBuilder();
+    // index of the track of each voice, in order of first use; the key null is no voice
+    private final Map<String, Integer> trackIndices = new HashMap<>();
+    // track of each voice, and the events not yet added to it, by index
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<TrackBuilder> pending = new ArrayList<>();
+    // notes not yet added to their tracks, assigned channels when they are
+    private final ChannelAllocator notes = new ChannelAllocator();
+
+    // callback i is called at tick callbackTicks[i]
+    private int[] callbackTicks = new int[0];
+    private final List<Consumer<Double>> callbacks = new ArrayList<>();
+
+    /*
+     * Rep invariant:
+     *   beatsPerMinute and ticksPerBeat are positive, out is non-null
+     *   trackIndices maps each voice to a distinct index into tracks and pending, which have the same size
+     *   callbackTicks.length >= callbacks.size()
+     *
+     * Thread safety argument:
+     *   not threadsafe, must be confined to the thread scheduling the music
+     */
+
+    private void checkRep() {
+        assert beatsPerMinute > 0 : "should be positive number of beats per minute";
+        assert ticksPerBeat > 0 : "should be positive number of ticks per beat";
+        assert out != null : "out should be non-null";
+        assert tracks.size() == pending.size() : "every track should have pending events";
+        assert trackIndices.size() == tracks.size() : "every track should belong to a voice";
+        assert callbacks.size() <= callbackTicks.length : "callbacks should fit in callbackTicks";
+    }
+
+    /**
+     * Make a new player.
+     * @param beatsPerMinute the number of beats per minute
+     * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
+     * @param out stream that play() writes the MIDI file to, which is not closed
+     * @throws InvalidMidiDataException if ticksPerBeat is out of range
+     */
+    public MidiFileSequencePlayer(int beatsPerMinute, int ticksPerBeat, OutputStream out)
+            throws InvalidMidiDataException {
+        if (beatsPerMinute <= 0 || ticksPerBeat <= 0) {
+            throw new IllegalArgumentException("tempo and ticks per beat must be positive");
+        }
+        this.beatsPerMinute = beatsPerMinute;
+        this.ticksPerBeat = ticksPerBeat;
+        this.out = out;
+        this.sequence = new Sequence(Sequence.PPQ, ticksPerBeat);
+        this.conductor = sequence.createTrack();
+
+        final int microsecondsPerBeat = MICROSECONDS_PER_MINUTE / beatsPerMinute;
+        final byte[] tempo = {
+            (byte) (microsecondsPerBeat >>> 16), (byte) (microsecondsPerBeat >>> 8), (byte) microsecondsPerBeat
+        };
+        conductorEvents.add(new MetaMessage(META_TEMPO, tempo, tempo.length), 0);
+        checkRep();
+    }
+
+    /**
+     * Names the music, as the name of the first track.
+     * @param title title of the music
+     */
+    public void setTitle(String title) {
+        conductorEvents.add(textMessage(META_TRACK_NAME, title), 0);
+    }
+
+    /**
+     * Sets the time signature of the music.
+     * @param numerator beats per measure, positive
+     * @param denominator note value of a beat, a power of 2
+     */
+    public void setTimeSignature(int numerator, int denominator) {
+        if (numerator <= 0 || numerator > Byte.MAX_VALUE || denominator <= 0 || Integer.bitCount(denominator) != 1) {
+            throw new IllegalArgumentException("can't store time signature " + numerator + "/" + denominator);
+        }
+        final byte[] data = {
+            (byte) numerator, (byte) Integer.numberOfTrailingZeros(denominator),
+            CLOCKS_PER_CLICK, THIRTY_SECONDS_PER_QUARTER
+        };
+        try {
+            conductorEvents.add(new MetaMessage(META_TIME_SIGNATURE, data, data.length), 0);
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot set time signature", imde);
+        }
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        addNote(null, instr, pitch, startBeat, numBeats);
+    }
+
+    /**
+     * Schedule a note of a voice.
+     * @param voice name of the voice, or null for no voice
+     * @param instr instrument for the note
+     * @param pitch pitch value of the note
+     * @param startBeat the starting beat of the note
+     * @param numBeats the number of beats the note is played
+     */
+    public void addNote(String voice, Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        final int note = MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C);
+        try {
+            notes.addNote(track(voice), instr, note, toTick(startBeat), toTick(startBeat + numBeats));
+        } catch (InvalidMidiDataException imde) {
+            String msg = MessageFormat.format("Cannot add note with the pitch {0} at beat {1} " +
+                                              "for duration {2}", note, startBeat, numBeats);
+            throw new RuntimeException(msg, imde);
+        }
+    }
+
+    @Override
+    public void addNotes(Instrument instr, Pitch[] pitches, double[] startBeats, double[] numBeats) {
+        if (pitches.length != startBeats.length || pitches.length != numBeats.length) {
+            throw new IllegalArgumentException("pitches, startBeats and numBeats must have the same length");
+        }
+        notes.ensureCapacity(pitches.length);
+        pending.get(track(null)).ensureCapacity(2 * pitches.length);
+        for (int i = 0; i < pitches.length; i++) {
+            addNote(null, instr, pitches[i], startBeats[i], numBeats[i]);
+        }
+    }
+
+    /**
+     * Schedule a lyric event of a voice, to be displayed from atBeat.
+     * @param voice name of the voice, or null for no voice
+     * @param text text of the lyric
+     * @param atBeat beat at which the lyric is displayed
+     */
+    public void addLyric(String voice, String text, double atBeat) {
+        pending.get(track(voice)).add(textMessage(META_LYRIC, text), toTick(atBeat));
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        if (callbacks.size() == callbackTicks.length) {
+            callbackTicks = Arrays.copyOf(callbackTicks, Math.max(16, 2 * callbackTicks.length));
+        }
+        callbackTicks[callbacks.size()] = toTick(atBeat);
+        callbacks.add(callback);
+    }
+
+    /**
+     * Writes everything scheduled so far to this player's stream as a Type 1 Standard MIDI File,
+     * then calls the callbacks in order of beat.
+     */
+    @Override
+    public void play() {
+        buildTracks();
+        try {
+            MidiSystem.write(sequence, FILE_TYPE, out);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Cannot write MIDI file", ioe);
+        }
+
+        final long[] order = new long[callbacks.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = ((long) callbackTicks[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(order);
+        for (long key : order) {
+            callbacks.get((int) key).accept((key >>> Integer.SIZE) / (double) ticksPerBeat);
+        }
+    }
+
+    /**
+     * Assigns channels to the notes scheduled since the tracks were last built, and adds them and
+     * the other events scheduled since then to their tracks, in one pass per track.
+     */
+    private void buildTracks() {
+        try {
+            notes.addTo(pending);
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot set instrument", imde);
+        }
+        conductorEvents.addTo(conductor);
+        for (int i = 0; i < tracks.size(); i++) {
+            pending.get(i).addTo(tracks.get(i));
+        }
+    }
+
+    /**
+     * @param beat beat >= 0
+     * @return the nearest tick to beat
+     */
+    private int toTick(double beat) {
+        return (int) Math.round(beat * ticksPerBeat);
+    }
+
+    /**
+     * Creates the track of a voice, named after it, if it doesn't have one yet.
+     * @param voice name of the voice, or null for no voice
+     * @return index of the voice's track
+     */
+    private int track(String voice) {
+        final Integer index = trackIndices.get(voice);
+        if (index != null) {
+            return index;
+        }
+        final TrackBuilder events = new TrackBuilder();
+        if (voice != null) {
+            events.add(textMessage(META_TRACK_NAME, voice), 0);
+        }
+        trackIndices.put(voice, tracks.size());
+        tracks.add(sequence.createTrack());
+        pending.add(events);
+        checkRep();
+        return tracks.size() - 1;
+    }
+
+    /**
+     * @param type type of a meta message that holds text
+     * @param text text of the message
+     * @return a meta message of type holding text in UTF-8
+     */
+    private static MetaMessage textMessage(int type, String text) {
+        final byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        try {
+            return new MetaMessage(type, data, data.length);
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot store text " + text, imde);
+        }
+    }
+}
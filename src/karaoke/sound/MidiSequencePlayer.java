@@ -1,18 +1,21 @@
 package karaoke.sound;
 
-import java.math.BigInteger;
 import java.text.MessageFormat;
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.sound.midi.*;
 
 /**
  * Schedules and plays a sequence of notes using the MIDI synthesizer.
+ * The synthesizer and sequencer come from a pool shared by every player, which keeps them
+ * open with their instruments loaded from one song to the next. Only the instruments a song
+ * plays are loaded, when it starts to play.
  */
 public class MidiSequencePlayer implements SequencePlayer {
 
@@ -25,9 +28,6 @@ public class MidiSequencePlayer implements SequencePlayer {
      */
     public static final int DEFAULT_TICKS_PER_BEAT = 64;
 
-    // the volume
-    private static final int DEFAULT_VELOCITY = 100;
-
     // the generic marker meta message type
     private static final int META_MARKER = 6;
     // the "end_of_track" meta message type
@@ -35,40 +35,113 @@ public class MidiSequencePlayer implements SequencePlayer {
 
     // MIDI note number representing middle C
     private static final int MIDI_NOTE_MIDDLE_C = 60;
-    
-    private final Synthesizer synthesizer;
-
-    // active MIDI channels, assigned to instruments
-    private final Map<Instrument, Integer> channelForInstrument = new HashMap<>();
 
-    // next available channel number (not assigned to an instrument yet)
-    private int nextChannel = 0;
-
-    private final Sequencer sequencer;
+    private final Sequence sequence;
     private final Track track;
+    // events scheduled since the track was last built, added to it in order of tick by buildTrack()
+    private final TrackBuilder pending = new TrackBuilder();
+    // notes scheduled since the track was last built, assigned channels by buildTrack()
+    private final ChannelAllocator notes = new ChannelAllocator();
     private final int beatsPerMinute;
     private final int ticksPerBeat;
+    // where play() takes its synthesizer and sequencer from
+    private final SynthesizerPool pool;
 
-    // event callback functions
-    private final SortedMap<Integer, Consumer<Double>> callbacks = new TreeMap<>();
+    // event callback functions, indexed by callback number, called every time the player plays
+    private final List<Consumer<Double>> callbacks = new ArrayList<>();
     private final MetaMessage keepalive = new MetaMessage(META_MARKER, new byte[] { 0 }, 1);
+    // tick of the last callback, or -1 if there are none
+    private int lastCallbackTick = -1;
+    // tick of the last keepalive marker scheduled, or -1 if there is none
+    private int keepaliveTick = -1;
 
     /*
      * Rep invariant:
-     *   sequencer and track are non-null,
+     *   sequence and track are non-null, track is a track of sequence,
      *   beatsPerMinute and ticksPerBeat are positive,
-     *   channels and callbacks are non-null,
-     *   channels does not contain value nextChannel
+     *   notes, callbacks, pending and pool are non-null,
+     *   callbacks.get(0) is null, since callback numbers are positive
+     */
+
+    /**
+     * Marker that calls back callbacks.get(callbackNumber). Its data is callbackNumber as 4 big-endian
+     * bytes, but the sequencer hands listeners the very message in the track, so the number is read
+     * from the field without copying or decoding the data.
+     */
+    private static class CallbackMessage extends MetaMessage {
+        private static final int NUMBER_BYTES = 4;
+
+        private final int callbackNumber;
+
+        CallbackMessage(int callbackNumber) throws InvalidMidiDataException {
+            super(META_MARKER, encode(callbackNumber), NUMBER_BYTES);
+            this.callbackNumber = callbackNumber;
+        }
+
+        private static byte[] encode(int callbackNumber) {
+            final byte[] bytes = new byte[NUMBER_BYTES];
+            for (int i = 0; i < NUMBER_BYTES; i++) {
+                bytes[i] = (byte) (callbackNumber >>> (8 * (NUMBER_BYTES - 1 - i)));
+            }
+            return bytes;
+        }
+
+        /**
+         * @param meta a marker
+         * @return the callback number of meta, or 0 if it calls back nothing
+         */
+        private static int callbackNumber(MetaMessage meta) {
+            if (meta instanceof CallbackMessage) {
+                return ((CallbackMessage) meta).callbackNumber;
+            }
+            // a copy of a callback marker, e.g. from a sequencer that clones its messages
+            final byte[] data = meta.getData();
+            if (data.length != NUMBER_BYTES) {
+                return 0;
+            }
+            int number = 0;
+            for (byte b : data) {
+                number = (number << 8) | (b & 0xFF);
+            }
+            return number;
+        }
+    }
+
+    /**
+     * @param callbackNumber a positive callback number
+     * @return a marker that calls back callback number callbackNumber
+     * @throws InvalidMidiDataException if the marker can't be made
      */
+    static MetaMessage callbackMarker(int callbackNumber) throws InvalidMidiDataException {
+        return new CallbackMessage(callbackNumber);
+    }
+
+    /**
+     * @param meta a marker, made by callbackMarker or copied from one, or any other marker
+     * @return the callback number of meta, or 0 if it calls back nothing
+     */
+    static int callbackNumber(MetaMessage meta) {
+        return CallbackMessage.callbackNumber(meta);
+    }
 
     private void checkRep() {
-        assert sequencer != null : "sequencer should be non-null";
+        assert sequence != null : "sequence should be non-null";
         assert track != null : "track should be non-null";
         assert beatsPerMinute >= 0 : "should be positive number of beats per minute";
         assert ticksPerBeat >= 0 : "should be positive number of ticks per beat";
         assert callbacks != null : "callbacks should be non-null";
-        assert callbacks.keySet().stream().allMatch(n -> n >= 1) : "callback numbers should be positive";
-        assert ! channelForInstrument.values().contains(nextChannel) : "nextChannel should not be assigned";
+        assert callbacks.get(0) == null : "callback numbers should be positive";
+        assert notes != null : "notes should be non-null";
+    }
+
+    /**
+     * Opens the shared synthesizer and sequencer and loads instruments into them ahead of time,
+     * so that the first song to play doesn't wait for them. Only opens them if none are open yet.
+     * @param instruments instruments the song will play; play() loads any others it needs
+     * @throws MidiUnavailableException if MIDI device unavailable
+     */
+    public static void preload(Instrument... instruments) throws MidiUnavailableException {
+        SynthesizerPool.shared().preload(Arrays.asList(instruments));
     }
 
     /**
@@ -81,7 +154,8 @@ public class MidiSequencePlayer implements SequencePlayer {
     }
 
     /**
-     * Make a new MIDI sequence player.
+     * Make a new MIDI sequence player. The MIDI devices are only taken from the shared pool
+     * once the player plays.
      * @param beatsPerMinute the number of beats per minute
      * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
      * @throws MidiUnavailableException if MIDI device unavailable
@@ -89,35 +163,39 @@ public class MidiSequencePlayer implements SequencePlayer {
      */
     public MidiSequencePlayer(int beatsPerMinute, int ticksPerBeat)
             throws MidiUnavailableException, InvalidMidiDataException {
-        synthesizer = MidiSystem.getSynthesizer();
-        synthesizer.open();
-        synthesizer.loadAllInstruments(synthesizer.getDefaultSoundbank());
-
-        this.sequencer = MidiSystem.getSequencer();
+        this(beatsPerMinute, ticksPerBeat, SynthesizerPool.shared());
+    }
 
+    /**
+     * Make a new MIDI sequence player that plays on devices from a given pool.
+     * @param beatsPerMinute the number of beats per minute
+     * @param ticksPerBeat the number of ticks per beat; every note plays for an integer number of ticks
+     * @param pool pool that play() takes the MIDI devices from
+     * @throws InvalidMidiDataException if MIDI play fails
+     */
+    MidiSequencePlayer(int beatsPerMinute, int ticksPerBeat, SynthesizerPool pool) throws InvalidMidiDataException {
+        this.pool = pool;
         // create a sequence object with with tempo-based timing, where
         // the resolution of the time step is based on ticks per quarter note
-        Sequence sequence = new Sequence(Sequence.PPQ, ticksPerBeat);
+        this.sequence = new Sequence(Sequence.PPQ, ticksPerBeat);
         this.beatsPerMinute = beatsPerMinute;
         this.ticksPerBeat = ticksPerBeat;
 
         // create an empty track; notes will be added to this track
         this.track = sequence.createTrack();
-
-        sequencer.setSequence(sequence);
+        // callback number 0 is never used
+        callbacks.add(null);
 
         checkRep();
     }
 
     @Override
     public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
-        int channel = getChannel(instr);
         int note = getMidiNote(pitch);
         try {
-            // schedule two events in the track, one for starting a note and
-            // the other for ending the note.
-            addMidiNoteEvent(ShortMessage.NOTE_ON, channel, note, (int) (startBeat * ticksPerBeat));
-            addMidiNoteEvent(ShortMessage.NOTE_OFF, channel, note, (int) ((startBeat + numBeats) * ticksPerBeat));
+            // the note's channel, and its events starting and ending the note, are added to the
+            // track once the notes that start before it have channels
+            notes.addNote(0, instr, note, toTick(startBeat), toTick(startBeat + numBeats));
         } catch (InvalidMidiDataException imde) {
             String msg = MessageFormat.format("Cannot add note with the pitch {0} at beat {1} " +
                                               "for duration {2}", note, startBeat, numBeats);
@@ -125,32 +203,40 @@ public class MidiSequencePlayer implements SequencePlayer {
         }
     }
 
+    @Override
+    public void addNotes(Instrument instr, Pitch[] pitches, double[] startBeats, double[] numBeats) {
+        if (pitches.length != startBeats.length || pitches.length != numBeats.length) {
+            throw new IllegalArgumentException("pitches, startBeats and numBeats must have the same length");
+        }
+        notes.ensureCapacity(pitches.length);
+        pending.ensureCapacity(2 * pitches.length);
+        for (int i = 0; i < pitches.length; i++) {
+            addNote(instr, pitches[i], startBeats[i], numBeats[i]);
+        }
+    }
+
     /**
-     * Schedule a MIDI note event.
-     * @param eventType valid MidiMessage type in ShortMessage
-     * @param channel valid channel
-     * @param note valid pitch value
-     * @param tick tick >= 0
-     * @throws InvalidMidiDataException
+     * @param beat beat >= 0
+     * @return the nearest tick to beat; rounds rather than truncates so that beats
+     *         computed as tick / ticksPerBeat map back to the same tick
      */
-    private void addMidiNoteEvent(int eventType, int channel, int note, int tick) throws InvalidMidiDataException {
-        ShortMessage msg = new ShortMessage(eventType, channel, note, DEFAULT_VELOCITY);
-        this.track.add(new MidiEvent(msg, tick));
+    private int toTick(double beat) {
+        return (int) Math.round(beat * ticksPerBeat);
     }
 
     @Override
     public void addEvent(double atBeat, Consumer<Double> callback) {
         int callbackNumber = saveCallback(callback);
         try {
-            addMidiMetaEvent(callbackNumber, (int) (atBeat * ticksPerBeat));
+            addMidiMetaEvent(callbackNumber, toTick(atBeat));
         } catch (InvalidMidiDataException imde) {
             throw new RuntimeException("Cannot add event at beat " + atBeat, imde);
         }
     }
 
     private int saveCallback(Consumer<Double> callback) {
-        int key = callbacks.isEmpty() ? 1 : callbacks.lastKey() + 1;
-        callbacks.put(key, callback);
+        int key = callbacks.size();
+        callbacks.add(callback);
         checkRep();
         return key;
     }
@@ -162,34 +248,53 @@ public class MidiSequencePlayer implements SequencePlayer {
      * @throws InvalidMidiDataException
      */
     private void addMidiMetaEvent(int callback, int tick) throws InvalidMidiDataException {
-        byte[] bytes = BigInteger.valueOf(callback).toByteArray();
-        MetaMessage msg = new MetaMessage(META_MARKER, bytes, bytes.length);
-        this.track.add(new MidiEvent(msg, tick));
-        this.track.add(new MidiEvent(keepalive, tick+1));
+        pending.add(callbackMarker(callback), tick);
+        lastCallbackTick = Math.max(lastCallbackTick, tick);
     }
 
     @Override
     public void play() {
+        final SynthesizerPool.Devices devices;
         try {
-            sequencer.open();
+            devices = pool.acquire();
         } catch (MidiUnavailableException mue) {
             throw new RuntimeException("Unable to open MIDI sequencer", mue);
         }
+        final Sequencer sequencer = devices.sequencer;
+        // only the instruments of the song are loaded
+        devices.load(notes.instruments());
+        if (lastCallbackTick >= keepaliveTick) {
+            // one marker after the last callback, so the track doesn't end before it is called;
+            // only added again if callbacks have been added after it since the last play
+            keepaliveTick = lastCallbackTick + 1;
+            pending.add(keepalive, keepaliveTick);
+        }
+        buildTrack();
+        try {
+            // swapping in this song's sequence is all an idle sequencer needs
+            sequencer.setSequence(sequence);
+        } catch (InvalidMidiDataException imde) {
+            pool.release(devices);
+            throw new RuntimeException("Unable to play sequence", imde);
+        }
+        sequencer.setTickPosition(0);
         sequencer.setTempoInBPM(this.beatsPerMinute);
 
-        sequencer.addMetaEventListener(meta -> {
-            if (meta.getType() == META_MARKER) {
-                // trigger event callback
-                int callbackNumber = new BigInteger(meta.getData()).intValue();
-                if (callbackNumber > 0) {
-                    callbacks.remove(callbackNumber).accept(sequencer.getTickPosition() / (double)ticksPerBeat);
+        sequencer.addMetaEventListener(new MetaEventListener() {
+            // callbacks already called during this play
+            private final BitSet dispatched = new BitSet();
+
+            @Override
+            public void meta(MetaMessage meta) {
+                if (meta.getType() == META_MARKER) {
+                    callBack(meta, sequencer.getTickPosition() / (double) ticksPerBeat, dispatched);
+                } else if (meta.getType() == META_END_OF_TRACK) {
+                    // allow the sequencer to finish
+                    try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
+                    // stop the sequencer and give it back for the next song
+                    sequencer.removeMetaEventListener(this);
+                    pool.release(devices);
                 }
-            } else if (meta.getType() == META_END_OF_TRACK) {
-                // allow the sequencer to finish
-                try { Thread.sleep(Duration.ofSeconds(1).toMillis()); } catch (InterruptedException ie) { }
-                // stop & close the sequencer
-                sequencer.stop();
-                sequencer.close();
             }
         });
 
@@ -198,40 +303,42 @@ public class MidiSequencePlayer implements SequencePlayer {
     }
 
     /**
-     * Get a MIDI channel for the given instrument, allocating one if necessary.
-     * @param instr instrument
-     * @return channel for the instrument
+     * Calls the callback of a marker the sequencer has reached, unless it has been called already
+     * during the same play.
+     * @param meta a marker of the track, or a copy of one
+     * @param beat beat the sequencer is at
+     * @param dispatched numbers of the callbacks called so far during this play; the callback called
+     *          is added to it
      */
-    private int getChannel(Instrument instr) {
-        // check whether this instrument already has a channel
-        if (channelForInstrument.containsKey(instr)) {
-            return channelForInstrument.get(instr);
+    void callBack(MetaMessage meta, double beat, BitSet dispatched) {
+        final int callbackNumber = callbackNumber(meta);
+        if (callbackNumber > 0 && callbackNumber < callbacks.size() && !dispatched.get(callbackNumber)) {
+            dispatched.set(callbackNumber);
+            callbacks.get(callbackNumber).accept(beat);
         }
-        
-        int channel = allocateChannel();
-        patchInstrumentIntoChannel(channel, instr);
-        channelForInstrument.put(instr, channel);
-        checkRep();
-        return channel;
     }
 
     /**
-     * @return next available channel number
+     * Assigns channels to the notes scheduled since the track was last built, and adds them and
+     * the other events scheduled since then to the track, in one pass.
      */
-    private int allocateChannel() {
-        MidiChannel[] channels = synthesizer.getChannels();
-        if (nextChannel >= channels.length) {
-            throw new RuntimeException("Tried to use too many instruments: limited to " + channels.length);
-        }
-        return nextChannel++;
+    private void buildTrack() {
+        buildTrack(notes, pending, track);
     }
 
-    private void patchInstrumentIntoChannel(int channel, Instrument instr) {
+    /**
+     * Assigns channels to notes, and adds them and events to a track, in one pass.
+     * @param notes notes waiting to be assigned channels, which are removed from it
+     * @param events events waiting to be added to track, which are removed from it
+     * @param track track to add the notes and events to
+     */
+    private static void buildTrack(ChannelAllocator notes, TrackBuilder events, Track track) {
         try {
-            addMidiNoteEvent(ShortMessage.PROGRAM_CHANGE, channel, instr.ordinal(), 0);
+            notes.addTo(Collections.singletonList(events));
         } catch (InvalidMidiDataException imde) {
             throw new RuntimeException("Cannot set instrument", imde);
         }
+        events.addTo(track);
     }
 
     /**
@@ -246,15 +353,27 @@ public class MidiSequencePlayer implements SequencePlayer {
     /**
      * @return a string that displays the entire track information as a
      *         sequence of MIDI events, where each event is either turning on
-     *         or off a note at a certain tick, a marker event, or the end of
-     *         the track
+     *         or off a note at a certain tick, a marker event with the number of
+     *         the callback it calls (0 for none), or the end of the track,
+     *         including the events scheduled since the track was last built, without building it
      */
     @Override
     public String toString() {
+        // the track as buildTrack() would leave it, built from copies so that the player is unchanged
+        final Track shown;
+        try {
+            shown = new Sequence(Sequence.PPQ, ticksPerBeat).createTrack();
+        } catch (InvalidMidiDataException imde) {
+            throw new RuntimeException("Cannot show track", imde);
+        }
+        for (int i = 0; i < track.size(); i++) {
+            shown.add(track.get(i));
+        }
+        buildTrack(notes.copy(), pending.copy(), shown);
         String trackInfo = "";
 
-        for (int i = 0; i < track.size(); i++) {
-            final MidiEvent e = track.get(i);
+        for (int i = 0; i < shown.size(); i++) {
+            final MidiEvent e = shown.get(i);
             final MidiMessage msg = e.getMessage();
             final String msgString;
 
@@ -279,7 +398,7 @@ public class MidiSequencePlayer implements SequencePlayer {
                 final String typeName;
 
                 if (type == META_MARKER) {
-                    typeName = "MARKER";
+                    typeName = "MARKER Callback: " + callbackNumber(mmg);
                 } else if (type == META_END_OF_TRACK) {
                     typeName = "END_OF_TRACK";
                 } else {
@@ -21,6 +21,25 @@ public interface SequencePlayer {
      */
     public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats);
 
+    /**
+     * Schedule many notes played by one instrument, the same as calling
+     * addNote(instr, pitches[i], startBeats[i], numBeats[i]) for every i, but implementations
+     * may schedule a whole song of notes faster this way.
+     * @param instr instrument for the notes
+     * @param pitches pitch value of each note
+     * @param startBeats the starting beat of each note
+     * @param numBeats the number of beats each note is played
+     * @throws IllegalArgumentException if the arrays don't have the same length
+     */
+    public default void addNotes(Instrument instr, Pitch[] pitches, double[] startBeats, double[] numBeats) {
+        if (pitches.length != startBeats.length || pitches.length != numBeats.length) {
+            throw new IllegalArgumentException("pitches, startBeats and numBeats must have the same length");
+        }
+        for (int i = 0; i < pitches.length; i++) {
+            addNote(instr, pitches[i], startBeats[i], numBeats[i]);
+        }
+    }
+
     /**
      * Schedule a callback when the synthesizer reaches a time.
      * @param atBeat beat at which to call the callback
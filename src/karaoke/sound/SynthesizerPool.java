@@ -0,0 +1,232 @@
+package karaoke.sound;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Synthesizers and sequencers shared by every MidiSequencePlayer, opened the first time they
+ * are needed and then kept open with their instruments loaded, so that playing another song
+ * only swaps the sequence of an idle sequencer instead of opening and loading everything again.
+ * A synthesizer only loads the instruments of the songs played on it, as they are needed,
+ * rather than all 128 General MIDI instruments.
+ * Songs played at the same time each use a pair of their own; the pool grows to the most
+ * songs ever played at once, and its devices stay open for the life of the program.
+ */
+class SynthesizerPool {
+
+    // Abstraction function:
+    //   AF(idle, opener) = a pool whose open synthesizer and sequencer pairs not in use by a song
+    //       are idle, and which opens a new pair with opener when none is
+    // Rep invariant:
+    //   every pair in idle is open, with its sequencer stopped and connected to its synthesizer
+    // Safety from rep exposure:
+    //   idle is private and never returned; a pair is only handed out after it is removed from idle
+    // Thread safety argument:
+    //   idle is only accessed while holding the pool's lock; devices are opened outside it,
+    //   so one slow open doesn't hold up songs that can use a pair already open
+
+    private static final SynthesizerPool SHARED = new SynthesizerPool(SynthesizerPool::open);
+
+    // property of Gervill, the JDK's default synthesizer, that makes it load every instrument of its
+    // default soundbank when it is opened; true unless it is opened with open(line, info)
+    private static final String LOAD_DEFAULT_SOUNDBANK = "load default soundbank";
+    // Gervill's AudioSynthesizer.open(SourceDataLine, Map), or null if this JDK has no Gervill
+    private static final Method OPEN_WITH_INFO = openWithInfo();
+
+    /**
+     * Opens a new pair of devices.
+     */
+    @FunctionalInterface
+    interface Opener {
+        /**
+         * @return an open synthesizer and a sequencer connected to it
+         * @throws MidiUnavailableException if the devices can't be opened
+         */
+        Devices open() throws MidiUnavailableException;
+    }
+
+    /**
+     * An open synthesizer and a sequencer that plays into it, used by one song at a time.
+     */
+    static class Devices {
+        final Synthesizer synthesizer;
+        final Sequencer sequencer;
+        // where instruments are loaded from, or null if the synthesizer has none
+        private final Soundbank soundbank;
+        // instruments loaded into the synthesizer
+        private final Set<Instrument> loaded = EnumSet.noneOf(Instrument.class);
+
+        /**
+         * @param synthesizer an open synthesizer
+         * @param sequencer an open sequencer that plays into synthesizer
+         * @param soundbank where instruments are loaded into synthesizer from, or null if it has none
+         */
+        Devices(Synthesizer synthesizer, Sequencer sequencer, Soundbank soundbank) {
+            this.synthesizer = synthesizer;
+            this.sequencer = sequencer;
+            this.soundbank = soundbank;
+        }
+
+        /**
+         * Loads instruments into the synthesizer, unless they are loaded already.
+         * @param instruments instruments about to be played
+         */
+        void load(Collection<Instrument> instruments) {
+            if (soundbank == null) {
+                return;
+            }
+            for (Instrument instr : instruments) {
+                if (loaded.contains(instr)) {
+                    continue;
+                }
+                // General MIDI instruments are in bank 0, at their program number
+                final javax.sound.midi.Instrument patch = soundbank.getInstrument(new Patch(0, instr.ordinal()));
+                if (patch != null && synthesizer.loadInstrument(patch)) {
+                    loaded.add(instr);
+                }
+            }
+        }
+    }
+
+    private final Deque<Devices> idle = new ArrayDeque<>();
+    private final Opener opener;
+
+    /**
+     * Makes an empty pool.
+     * @param opener opens a pair of devices whenever none is idle
+     */
+    SynthesizerPool(Opener opener) {
+        this.opener = opener;
+    }
+
+    /**
+     * @return the pool shared by every MidiSequencePlayer
+     */
+    static SynthesizerPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes an idle pair of devices, opening a new pair if none is idle.
+     * @return open devices, which must be given back by release() once the song is over
+     * @throws MidiUnavailableException if the devices can't be opened
+     */
+    Devices acquire() throws MidiUnavailableException {
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        return opener.open();
+    }
+
+    /**
+     * Stops the sequencer of devices, silences their synthesizer, and makes them idle.
+     * @param devices devices returned by acquire() and not released since
+     */
+    void release(Devices devices) {
+        devices.sequencer.stop();
+        for (MidiChannel channel : devices.synthesizer.getChannels()) {
+            if (channel != null) {
+                channel.allNotesOff();
+            }
+        }
+        synchronized (this) {
+            idle.push(devices);
+        }
+    }
+
+    /**
+     * Opens a pair of devices ahead of the first song, if none is idle, and loads instruments into it.
+     * @param instruments instruments the song will play
+     * @throws MidiUnavailableException if the devices can't be opened
+     */
+    void preload(Collection<Instrument> instruments) throws MidiUnavailableException {
+        final Devices devices = acquire();
+        devices.load(instruments);
+        release(devices);
+    }
+
+    /**
+     * @return the default synthesizer, opened with no instruments loaded, and a sequencer opened
+     *          and connected to it
+     * @throws MidiUnavailableException if the devices can't be opened
+     */
+    static Devices open() throws MidiUnavailableException {
+        final Synthesizer synthesizer = MidiSystem.getSynthesizer();
+        openEmpty(synthesizer);
+        Sequencer sequencer = null;
+        try {
+            // not connected to the default synthesizer, but to the one whose instruments are loaded
+            sequencer = MidiSystem.getSequencer(false);
+            sequencer.open();
+            sequencer.getTransmitter().setReceiver(synthesizer.getReceiver());
+            return new Devices(synthesizer, sequencer, synthesizer.getDefaultSoundbank());
+        } catch (MidiUnavailableException | RuntimeException e) {
+            if (sequencer != null) {
+                sequencer.close();
+            }
+            synthesizer.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a synthesizer without the instruments of its default soundbank, which Gervill's open()
+     * loads all of, so that Devices.load is the only thing loading instruments into it.
+     * Gervill is told not to load them at all when its AudioSynthesizer interface can be called,
+     * which needs the JVM to run with --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED;
+     * otherwise they are unloaded again right after open(), which frees them but not the time
+     * spent loading them.
+     * @param synthesizer a synthesizer that isn't open
+     * @throws MidiUnavailableException if the synthesizer can't be opened
+     */
+    private static void openEmpty(Synthesizer synthesizer) throws MidiUnavailableException {
+        if (OPEN_WITH_INFO != null && OPEN_WITH_INFO.getDeclaringClass().isInstance(synthesizer)) {
+            try {
+                OPEN_WITH_INFO.invoke(synthesizer, null, Map.of(LOAD_DEFAULT_SOUNDBANK, false));
+                return;
+            } catch (IllegalAccessException e) {
+                // com.sun.media.sound isn't exported to this program, so open it the public way
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof MidiUnavailableException) {
+                    throw (MidiUnavailableException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        synthesizer.open();
+        final Soundbank soundbank = synthesizer.getDefaultSoundbank();
+        if (soundbank != null && synthesizer.isSoundbankSupported(soundbank)) {
+            synthesizer.unloadAllInstruments(soundbank);
+        }
+    }
+
+    /**
+     * @return Gervill's AudioSynthesizer.open(SourceDataLine, Map), looked up at run time since its
+     *          package isn't part of the JDK's API, or null if there is none
+     */
+    private static Method openWithInfo() {
+        try {
+            return Class.forName("com.sun.media.sound.AudioSynthesizer")
+                    .getMethod("open", SourceDataLine.class, Map.class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Compares how fast the notes of a big synthetic song are added to a MIDI track one at a time,
+ * the way MidiSequencePlayer used to, and all at once through TrackBuilder, the way it does now.
+ */
+public class TrackBenchmark {
+
+    private static final int DEFAULT_NOTES = 100_000;
+    private static final int TICKS_PER_BEAT = 64;
+    private static final int ROUNDS = 3;
+    private static final int VELOCITY = 100;
+
+    /**
+     * Builds a track of a synthetic song both ways, and prints the average time each takes, for notes
+     * scheduled in order of start tick, as Timeline.schedule does, and voice by voice, as Music.play
+     * does for a song of several voices.
+     * The song has four voices, whose notes start a sixteenth note apart and last up to two beats.
+     * @param args number of notes, 100000 if not given
+     * @throws InvalidMidiDataException if MIDI data is invalid
+     */
+    public static void main(String[] args) throws InvalidMidiDataException {
+        final int numNotes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NOTES;
+        final Random random = new Random(6031);
+        final int voices = 4;
+        final int perVoice = numNotes / voices;
+        // notes of each voice in turn, each voice in order of start tick
+        final int[] notes = new int[voices * perVoice];
+        final int[] starts = new int[notes.length];
+        final int[] ends = new int[notes.length];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = 36 + random.nextInt(48);
+            starts[i] = (i % perVoice) * (TICKS_PER_BEAT / 4);
+            ends[i] = starts[i] + 1 + random.nextInt(2 * TICKS_PER_BEAT);
+        }
+        // the same notes in order of start tick
+        final Integer[] byStart = new Integer[notes.length];
+        for (int i = 0; i < byStart.length; i++) {
+            byStart[i] = i;
+        }
+        Arrays.sort(byStart, (a, b) -> Integer.compare(starts[a], starts[b]));
+        final int[] inTickOrder = new int[notes.length];
+        final int[] voiceByVoice = new int[notes.length];
+        for (int i = 0; i < notes.length; i++) {
+            inTickOrder[i] = byStart[i];
+            voiceByVoice[i] = i;
+        }
+        System.out.println(notes.length + " notes in " + voices + " voices");
+
+        time("IN TICK ORDER", inTickOrder, notes, starts, ends);
+        time("VOICE BY VOICE", voiceByVoice, notes, starts, ends);
+    }
+
+    private static void time(String name, int[] order, int[] notes, int[] starts, int[] ends)
+            throws InvalidMidiDataException {
+        double oneAtATimeMillis = 0;
+        double allAtOnceMillis = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            final Track oneAtATime = newTrack();
+            for (int i : order) {
+                oneAtATime.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, notes[i], VELOCITY), starts[i]));
+                oneAtATime.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, notes[i], VELOCITY), ends[i]));
+            }
+            final long oneAtATimeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            final Track allAtOnce = newTrack();
+            final TrackBuilder builder = new TrackBuilder();
+            builder.ensureCapacity(2 * order.length);
+            for (int i : order) {
+                builder.addNote(0, notes[i], starts[i], ends[i]);
+            }
+            builder.addTo(allAtOnce);
+            final long allAtOnceNanos = System.nanoTime() - start;
+
+            if (oneAtATime.size() != allAtOnce.size() || oneAtATime.ticks() != allAtOnce.ticks()) {
+                throw new AssertionError("tracks should have the same events");
+            }
+            // the first round warms up
+            if (round > 0) {
+                oneAtATimeMillis += oneAtATimeNanos / 1e6 / ROUNDS;
+                allAtOnceMillis += allAtOnceNanos / 1e6 / ROUNDS;
+            }
+        }
+        System.out.printf("%-15s one at a time %10.1f ms   all at once %8.1f ms%n",
+                name, oneAtATimeMillis, allAtOnceMillis);
+    }
+
+    private static Track newTrack() throws InvalidMidiDataException {
+        return new Sequence(Sequence.PPQ, TICKS_PER_BEAT).createTrack();
+    }
+}
@@ -0,0 +1,131 @@
+package karaoke.sound;
+
+import java.util.Arrays;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Collects MIDI events in any order and adds them to a Track sorted by tick in one pass.
+ * Track.add keeps its events sorted by searching back from the end for each event's place,
+ * so adding a song's notes one at a time, each note off after notes that start before it ends,
+ * costs time proportional to the square of the number of notes; adding them in tick order
+ * only ever appends. Note messages are shared by every note of the same channel and pitch.
+ */
+class TrackBuilder {
+
+    // Abstraction function:
+    //   AF(keys, messages, size, noteMessages) = the events (messages[i], tick) for i in [0, size),
+    //       where the tick of event i is the top half of the key of event i; events of equal ticks
+    //       are in the order they were added. noteMessages caches the note messages already made.
+    // Rep invariant:
+    //   0 <= size <= keys.length == messages.length
+    //   the bottom half of the key of every event i is i, before sorting
+    // Safety from rep exposure:
+    //   all fields are private, and no arrays are returned; messages are immutable once added
+    // Thread safety argument:
+    //   not threadsafe, must be confined to the thread scheduling the music
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // number of MIDI channels and notes
+    private static final int CHANNELS = 16;
+    private static final int NOTES = 128;
+
+    private static final int DEFAULT_VELOCITY = 100;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private MidiMessage[] messages = new MidiMessage[INITIAL_CAPACITY];
+    private int size = 0;
+    // note on messages, then note off messages, by channel and note
+    private final ShortMessage[] noteMessages = new ShortMessage[2 * CHANNELS * NOTES];
+
+    /**
+     * @return a builder with the same events waiting as this one, which adds them to a track
+     *          independently of it
+     */
+    TrackBuilder copy() {
+        final TrackBuilder copy = new TrackBuilder();
+        copy.keys = keys.clone();
+        copy.messages = messages.clone();
+        copy.size = size;
+        System.arraycopy(noteMessages, 0, copy.noteMessages, 0, noteMessages.length);
+        return copy;
+    }
+
+    /**
+     * @return number of events waiting to be added to a track
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Makes room for more events without growing again.
+     * @param moreEvents number of events about to be added
+     */
+    void ensureCapacity(int moreEvents) {
+        if (size + moreEvents > keys.length) {
+            final int capacity = Math.max(size + moreEvents, 2 * keys.length);
+            keys = Arrays.copyOf(keys, capacity);
+            messages = Arrays.copyOf(messages, capacity);
+        }
+    }
+
+    /**
+     * Adds an event.
+     * @param message message of the event, which must not be mutated afterwards
+     * @param tick tick of the event, >= 0
+     */
+    void add(MidiMessage message, int tick) {
+        ensureCapacity(1);
+        keys[size] = ((long) tick << 32) | size;
+        messages[size] = message;
+        size++;
+    }
+
+    /**
+     * Adds the note on and note off events of a note.
+     * @param channel channel of the note, 0 to 15
+     * @param note MIDI note number, 0 to 127
+     * @param startTick tick the note starts at, >= 0
+     * @param endTick tick the note ends at, >= startTick
+     * @throws InvalidMidiDataException if channel or note is out of range
+     */
+    void addNote(int channel, int note, int startTick, int endTick) throws InvalidMidiDataException {
+        ensureCapacity(2);
+        add(noteMessage(ShortMessage.NOTE_ON, channel, note), startTick);
+        add(noteMessage(ShortMessage.NOTE_OFF, channel, note), endTick);
+    }
+
+    private ShortMessage noteMessage(int command, int channel, int note) throws InvalidMidiDataException {
+        if (channel < 0 || channel >= CHANNELS || note < 0 || note >= NOTES) {
+            // let ShortMessage describe what is wrong
+            return new ShortMessage(command, channel, note, DEFAULT_VELOCITY);
+        }
+        final int index = (command == ShortMessage.NOTE_ON ? 0 : CHANNELS * NOTES) + channel * NOTES + note;
+        if (noteMessages[index] == null) {
+            noteMessages[index] = new ShortMessage(command, channel, note, DEFAULT_VELOCITY);
+        }
+        return noteMessages[index];
+    }
+
+    /**
+     * Adds every event to a track in order of tick, keeping the order they were added in among
+     * events of the same tick, and removes them from this builder.
+     * Fastest when the track has no events after the first tick of these.
+     * @param track track to add the events to
+     */
+    void addTo(Track track) {
+        Arrays.sort(keys, 0, size);
+        for (int i = 0; i < size; i++) {
+            final int index = (int) keys[i];
+            track.add(new MidiEvent(messages[index], keys[i] >>> 32));
+        }
+        Arrays.fill(messages, 0, size, null);
+        size = 0;
+    }
+}
@@ -0,0 +1,375 @@
+package karaoke.sound;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * Renders a sequence of notes to 16-bit mono PCM audio with a simple built-in oscillator, without
+ * a synthesizer or sound card and as fast as the CPU allows, rather than in real time.
+ * play() writes the audio to a WAV stream. Callbacks are called in order of beat, as the audio
+ * reaches them, from the thread rendering it.
+ *
+ * Every instrument sounds like a sine wave with a quieter second harmonic; pianos, chromatic
+ * percussion, guitars and basses decay while they are held, and the rest sustain.
+ */
+public class WavSequencePlayer implements SequencePlayer {
+
+    /**
+     * Default number of samples per second.
+     */
+    public static final float DEFAULT_SAMPLE_RATE = 44100;
+
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int BYTES_PER_SAMPLE = BITS_PER_SAMPLE / 8;
+    // samples rendered at a time
+    private static final int BLOCK_FRAMES = 4096;
+    // seconds a note takes to reach full volume, and to fall silent after it ends
+    private static final double ATTACK_SECONDS = 0.005;
+    private static final double RELEASE_SECONDS = 0.05;
+    // how fast a decaying note gets quieter, per second
+    private static final double DECAY_PER_SECOND = 3;
+    // volume of each note, so that a few notes sound at once without clipping
+    private static final double NOTE_GAIN = 0.2;
+    private static final double SECOND_HARMONIC = 0.3;
+    // samples of one cycle of a sine wave, a power of 2
+    private static final int TABLE_SIZE = 4096;
+    private static final double[] SINE = new double[TABLE_SIZE];
+    // MIDI note number of A 440
+    private static final int MIDI_NOTE_A_440 = 69;
+    private static final double A_440 = 440;
+    // MIDI note number representing middle C
+    private static final int MIDI_NOTE_MIDDLE_C = 60;
+    // number of instruments in each General MIDI family
+    private static final int FAMILY_SIZE = 8;
+
+    static
+    {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            SINE[i] = Math.sin(2 * Math.PI * i / TABLE_SIZE);
+        }
+    }
+
+    private final int beatsPerMinute;
+    private final float sampleRate;
+    private final OutputStream out;
+
+    // note i starts at frame noteStarts[i], ends at frame noteEnds[i], and is played by instrument
+    // noteInstruments[i] at MIDI note noteNumbers[i], for i < numNotes
+    private int[] noteStarts = new int[0];
+    private int[] noteEnds = new int[0];
+    private int[] noteNumbers = new int[0];
+    private int[] noteInstruments = new int[0];
+    private int numNotes = 0;
+
+    // callback i is called at frame callbackFrames[i]
+    private int[] callbackFrames = new int[0];
+    private final List<Consumer<Double>> callbacks = new ArrayList<>();
+
+    /*
+     * Rep invariant:
+     *   beatsPerMinute and sampleRate are positive, out is non-null
+     *   0 <= numNotes <= the lengths of the note arrays, which are equal
+     *   0 <= noteStarts[i] <= noteEnds[i] and 0 <= noteNumbers[i] < 128 for i < numNotes
+     *   callbackFrames.length >= callbacks.size(), callbackFrames[i] >= 0 for i < callbacks.size()
+     *
+     * Thread safety argument:
+     *   not threadsafe; each song is rendered by its own player, so songs can be rendered in parallel
+     */
+
+    private void checkRep() {
+        assert beatsPerMinute > 0 : "should be positive number of beats per minute";
+        assert sampleRate > 0 : "should be positive sample rate";
+        assert out != null : "out should be non-null";
+        assert numNotes <= noteStarts.length : "notes should fit in the note arrays";
+        assert callbacks.size() <= callbackFrames.length : "callbacks should fit in callbackFrames";
+    }
+
+    /**
+     * Make a new player that renders at the default sample rate.
+     * @param beatsPerMinute the number of beats per minute
+     * @param out stream that play() writes the WAV file to, which is not closed
+     */
+    public WavSequencePlayer(int beatsPerMinute, OutputStream out) {
+        this(beatsPerMinute, DEFAULT_SAMPLE_RATE, out);
+    }
+
+    /**
+     * Make a new player.
+     * @param beatsPerMinute the number of beats per minute
+     * @param sampleRate the number of samples per second
+     * @param out stream that play() writes the WAV file to, which is not closed
+     */
+    public WavSequencePlayer(int beatsPerMinute, float sampleRate, OutputStream out) {
+        if (beatsPerMinute <= 0 || sampleRate <= 0) {
+            throw new IllegalArgumentException("tempo and sample rate must be positive");
+        }
+        this.beatsPerMinute = beatsPerMinute;
+        this.sampleRate = sampleRate;
+        this.out = out;
+        checkRep();
+    }
+
+    /**
+     * @param beat beat >= 0
+     * @return the nearest frame to beat
+     */
+    private int toFrame(double beat) {
+        return (int) Math.round(beat * 60 / beatsPerMinute * sampleRate);
+    }
+
+    @Override
+    public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+        ensureNoteCapacity(1);
+        noteStarts[numNotes] = toFrame(startBeat);
+        noteEnds[numNotes] = Math.max(noteStarts[numNotes], toFrame(startBeat + numBeats));
+        noteNumbers[numNotes] = MIDI_NOTE_MIDDLE_C + pitch.difference(Pitch.MIDDLE_C);
+        noteInstruments[numNotes] = instr.ordinal();
+        numNotes++;
+    }
+
+    @Override
+    public void addNotes(Instrument instr, Pitch[] pitches, double[] startBeats, double[] numBeats) {
+        if (pitches.length != startBeats.length || pitches.length != numBeats.length) {
+            throw new IllegalArgumentException("pitches, startBeats and numBeats must have the same length");
+        }
+        ensureNoteCapacity(pitches.length);
+        for (int i = 0; i < pitches.length; i++) {
+            addNote(instr, pitches[i], startBeats[i], numBeats[i]);
+        }
+    }
+
+    private void ensureNoteCapacity(int moreNotes) {
+        if (numNotes + moreNotes > noteStarts.length) {
+            final int capacity = Math.max(numNotes + moreNotes, 2 * noteStarts.length);
+            noteStarts = Arrays.copyOf(noteStarts, capacity);
+            noteEnds = Arrays.copyOf(noteEnds, capacity);
+            noteNumbers = Arrays.copyOf(noteNumbers, capacity);
+            noteInstruments = Arrays.copyOf(noteInstruments, capacity);
+        }
+    }
+
+    @Override
+    public void addEvent(double atBeat, Consumer<Double> callback) {
+        if (callbacks.size() == callbackFrames.length) {
+            callbackFrames = Arrays.copyOf(callbackFrames, Math.max(16, 2 * callbackFrames.length));
+        }
+        callbackFrames[callbacks.size()] = toFrame(atBeat);
+        callbacks.add(callback);
+    }
+
+    /**
+     * Renders the scheduled music and writes it to this player's stream as a WAV file,
+     * calling the callbacks as the audio reaches them.
+     */
+    @Override
+    public void play() {
+        try {
+            AudioSystem.write(audioStream(), AudioFileFormat.Type.WAVE, out);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Cannot write the rendered audio", ioe);
+        }
+    }
+
+    /**
+     * @return the format of the rendered audio: signed 16-bit little-endian mono PCM
+     */
+    public AudioFormat format() {
+        return new AudioFormat(sampleRate, BITS_PER_SAMPLE, 1, true, false);
+    }
+
+    /**
+     * Makes a stream that renders the scheduled music as it is read, calling the callbacks
+     * as the audio reaches them. Notes and callbacks added afterwards are not rendered.
+     * @return the rendered audio, in format()
+     */
+    public AudioInputStream audioStream() {
+        final Renderer renderer = new Renderer();
+        return new AudioInputStream(renderer, format(), renderer.totalFrames);
+    }
+
+    /**
+     * Renders the scheduled music, calling the callbacks as the audio reaches them.
+     * @return the rendered audio, in format(), from position 0 to its limit
+     */
+    public ByteBuffer renderPcm() {
+        final Renderer renderer = new Renderer();
+        final ByteArrayOutputStream pcm = new ByteArrayOutputStream(renderer.totalFrames * BYTES_PER_SAMPLE);
+        final byte[] buffer = new byte[BLOCK_FRAMES * BYTES_PER_SAMPLE];
+        int read;
+        while ((read = renderer.read(buffer, 0, buffer.length)) > 0) {
+            pcm.write(buffer, 0, read);
+        }
+        return ByteBuffer.wrap(pcm.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Renders a block of samples at a time, as they are read.
+     */
+    private class Renderer extends InputStream {
+
+        private final int releaseFrames = (int) Math.ceil(RELEASE_SECONDS * sampleRate);
+        private final double attackFrames = ATTACK_SECONDS * sampleRate;
+        private final int notes = numNotes;
+        private final int events = callbacks.size();
+        // indices of the notes and callbacks in order of start frame
+        private final int[] noteOrder = byFrame(noteStarts, notes);
+        private final int[] callbackOrder = byFrame(callbackFrames, events);
+        private final int totalFrames;
+
+        // next note and callback to start, as indices into noteOrder and callbackOrder
+        private int nextNote = 0;
+        private int nextCallback = 0;
+        // notes that may still be sounding
+        private int[] active = new int[16];
+        private int numActive = 0;
+        // first frame of the block in buffer, and the block's bytes
+        private int frame = 0;
+        private final double[] mix = new double[BLOCK_FRAMES];
+        private final byte[] buffer = new byte[BLOCK_FRAMES * BYTES_PER_SAMPLE];
+        private int bufferPosition = 0;
+        private int bufferLength = 0;
+
+        Renderer() {
+            int end = 0;
+            for (int i = 0; i < notes; i++) {
+                end = Math.max(end, noteEnds[i] + releaseFrames);
+            }
+            for (int i = 0; i < events; i++) {
+                end = Math.max(end, callbackFrames[i] + 1);
+            }
+            this.totalFrames = end;
+        }
+
+        @Override
+        public int read() {
+            final byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (bufferPosition == bufferLength) {
+                if (frame >= totalFrames) {
+                    return -1;
+                }
+                renderBlock();
+            }
+            final int n = Math.min(len, bufferLength - bufferPosition);
+            System.arraycopy(buffer, bufferPosition, b, off, n);
+            bufferPosition += n;
+            return n;
+        }
+
+        private void renderBlock() {
+            final int frames = Math.min(BLOCK_FRAMES, totalFrames - frame);
+            final int blockEnd = frame + frames;
+            while (nextCallback < events && callbackFrames[callbackOrder[nextCallback]] < blockEnd) {
+                final int callback = callbackOrder[nextCallback++];
+                callbacks.get(callback).accept(callbackFrames[callback] * beatsPerMinute / (60.0 * sampleRate));
+            }
+            while (nextNote < notes && noteStarts[noteOrder[nextNote]] < blockEnd) {
+                if (numActive == active.length) {
+                    active = Arrays.copyOf(active, 2 * active.length);
+                }
+                active[numActive++] = noteOrder[nextNote++];
+            }
+
+            Arrays.fill(mix, 0, frames, 0);
+            int kept = 0;
+            for (int a = 0; a < numActive; a++) {
+                final int note = active[a];
+                renderNote(note, frames);
+                if (noteEnds[note] + releaseFrames > blockEnd) {
+                    active[kept++] = note;
+                }
+            }
+            numActive = kept;
+
+            for (int i = 0; i < frames; i++) {
+                final double clipped = Math.max(-1, Math.min(1, mix[i]));
+                final short sample = (short) Math.round(clipped * Short.MAX_VALUE);
+                buffer[2 * i] = (byte) sample;
+                buffer[2 * i + 1] = (byte) (sample >> 8);
+            }
+            frame = blockEnd;
+            bufferPosition = 0;
+            bufferLength = frames * BYTES_PER_SAMPLE;
+        }
+
+        /**
+         * Adds the samples of a note in the current block to mix.
+         */
+        private void renderNote(int note, int frames) {
+            final double frequency = A_440 * Math.pow(2, (noteNumbers[note] - MIDI_NOTE_A_440) / 12.0);
+            // table entries per frame
+            final double step = frequency * TABLE_SIZE / sampleRate;
+            final boolean decays = decays(noteInstruments[note]);
+            final int start = noteStarts[note];
+            final int end = noteEnds[note];
+            final int from = Math.max(0, start - frame);
+            final int to = Math.min(frames, end + releaseFrames - frame);
+            for (int i = from; i < to; i++) {
+                final int sinceStart = frame + i - start;
+                double envelope = Math.min(1, sinceStart / attackFrames);
+                if (decays) {
+                    envelope *= Math.exp(-DECAY_PER_SECOND * sinceStart / sampleRate);
+                }
+                if (frame + i >= end) {
+                    envelope *= 1 - (frame + i - end) / (double) releaseFrames;
+                }
+                final long phase = (long) (sinceStart * step);
+                final double wave = SINE[(int) (phase & (TABLE_SIZE - 1))]
+                        + SECOND_HARMONIC * SINE[(int) ((2 * phase) & (TABLE_SIZE - 1))];
+                mix[i] += NOTE_GAIN * envelope * wave;
+            }
+        }
+    }
+
+    /**
+     * @param instrument MIDI program number of an instrument
+     * @return true if the instrument's notes get quieter while they are held
+     */
+    private static boolean decays(int instrument) {
+        final int family = instrument / FAMILY_SIZE;
+        final int pianos = Instrument.PIANO.ordinal() / FAMILY_SIZE;
+        final int chromaticPercussion = Instrument.CELESTA.ordinal() / FAMILY_SIZE;
+        final int guitars = Instrument.NYLON_STR_GUITAR.ordinal() / FAMILY_SIZE;
+        final int basses = Instrument.ACOUSTIC_BASS.ordinal() / FAMILY_SIZE;
+        return family == pianos || family == chromaticPercussion || family == guitars || family == basses;
+    }
+
+    /**
+     * @param frames frames of some items
+     * @param count number of items
+     * @return indices of the first count items, in order of frame, and of index among equal frames
+     */
+    private static int[] byFrame(int[] frames, int count) {
+        final long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) frames[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        final int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+}
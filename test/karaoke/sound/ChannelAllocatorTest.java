@@ -0,0 +1,132 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * Tests for assigning MIDI channels to the notes of many instruments
+ */
+public class ChannelAllocatorTest {
+    /*
+     * Testing strategy for ChannelAllocator
+     * instruments: one, fewer than the channels, more than the channels
+     * tracks: one, several sharing an instrument
+     * when every channel is taken: some channel silent, every channel sounding
+     */
+
+    /**
+     * @return the short messages of track, in order
+     */
+    private static List<ShortMessage> messages(Track track) {
+        List<ShortMessage> messages = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            if (track.get(i).getMessage() instanceof ShortMessage) {
+                messages.add((ShortMessage) track.get(i).getMessage());
+            }
+        }
+        return messages;
+    }
+
+    private static Track build(ChannelAllocator allocator, TrackBuilder... builders) throws InvalidMidiDataException {
+        allocator.addTo(Arrays.asList(builders));
+        Track track = new Sequence(Sequence.PPQ, 4).createTrack();
+        for (TrackBuilder builder : builders) {
+            builder.addTo(track);
+        }
+        return track;
+    }
+
+    @Test
+    public void testSharedInstrument() throws InvalidMidiDataException {
+        ChannelAllocator allocator = new ChannelAllocator();
+        allocator.addNote(0, Instrument.TRUMPET, 60, 0, 4);
+        allocator.addNote(1, Instrument.TRUMPET, 64, 0, 4);
+        allocator.addNote(1, Instrument.PIANO, 67, 2, 4);
+        assertEquals(EnumSet.of(Instrument.TRUMPET, Instrument.PIANO), allocator.instruments());
+        TrackBuilder first = new TrackBuilder();
+        TrackBuilder second = new TrackBuilder();
+        allocator.addTo(Arrays.asList(first, second));
+        assertEquals(0, allocator.size());
+        // trumpet's program change and two events for every note
+        assertEquals(3, first.size());
+        assertEquals(5, second.size());
+
+        Track track = build(allocator, first, second);
+        int trumpetChannel = -1;
+        for (ShortMessage message : messages(track)) {
+            if (message.getCommand() == ShortMessage.NOTE_ON && message.getData1() != 67) {
+                assertTrue(trumpetChannel < 0 || trumpetChannel == message.getChannel());
+                trumpetChannel = message.getChannel();
+            }
+        }
+        assertEquals(0, trumpetChannel);
+    }
+
+    @Test
+    public void testMoreInstrumentsThanChannels() throws InvalidMidiDataException {
+        ChannelAllocator allocator = new ChannelAllocator();
+        Instrument[] instruments = Instrument.values();
+        // one short note of each of 20 instruments after another, so a channel is always silent
+        for (int i = 0; i < 20; i++) {
+            allocator.addNote(0, instruments[i], 60, 4 * i, 4 * i + 2);
+        }
+        Track track = build(allocator, new TrackBuilder());
+
+        int[] programs = new int[16];
+        Arrays.fill(programs, -1);
+        int notes = 0;
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (!(event.getMessage() instanceof ShortMessage)) {
+                continue;
+            }
+            ShortMessage message = (ShortMessage) event.getMessage();
+            assertTrue("should not use the percussion channel", message.getChannel() != 9);
+            if (message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                programs[message.getChannel()] = message.getData1();
+            } else if (message.getCommand() == ShortMessage.NOTE_ON) {
+                assertEquals("should play the note's instrument", 4 * notes, event.getTick());
+                assertEquals(instruments[notes].ordinal(), programs[message.getChannel()]);
+                notes++;
+            }
+        }
+        assertEquals(20, notes);
+    }
+
+    @Test
+    public void testEveryChannelSounding() throws InvalidMidiDataException {
+        ChannelAllocator allocator = new ChannelAllocator();
+        Instrument[] instruments = Instrument.values();
+        // 15 instruments held until different ticks, then one more instrument
+        for (int i = 0; i < 15; i++) {
+            allocator.addNote(0, instruments[i], 60, 0, 100 - i);
+        }
+        allocator.addNote(0, instruments[15], 62, 10, 20);
+        List<ShortMessage> messages = messages(build(allocator, new TrackBuilder()));
+
+        ShortMessage last = null;
+        for (ShortMessage message : messages) {
+            if (message.getCommand() == ShortMessage.NOTE_ON && message.getData1() == 62) {
+                // the channel of the instrument whose note ends first, at tick 86
+                assertEquals(ShortMessage.PROGRAM_CHANGE, last.getCommand());
+                assertEquals(instruments[15].ordinal(), last.getData1());
+                assertEquals(last.getChannel(), message.getChannel());
+                assertEquals(15, message.getChannel());
+            }
+            last = message;
+        }
+    }
+}
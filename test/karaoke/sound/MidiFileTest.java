@@ -0,0 +1,194 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiFileFormat;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.MidiFile;
+import karaoke.Song;
+import karaoke.parser.KaraokeParser;
+
+/**
+ * Tests for exporting songs as Standard MIDI Files
+ */
+public class MidiFileTest {
+    /*
+     * Testing strategy for MidiFile.write and MidiFileSequencePlayer
+     * voices: none, one, several
+     * lyrics: none, on notes, spanning several lines
+     * callbacks: none, added out of order
+     * instruments: one, several in a voice, shared by voices
+     */
+
+    private static final String DUET = "X:2\n" +
+            "T:Duet\n" +
+            "M:3/4\n" +
+            "V:upper\n" +
+            "V:lower\n" +
+            "Q:1/4=90\n" +
+            "K:C\n" +
+            "V:upper\n" +
+            "c d e|\n" +
+            "w:one two three\n" +
+            "f g a|\n" +
+            "w:four five six\n" +
+            "V:lower\n" +
+            "C4 D2|\n";
+
+    private static Sequence readBack(byte[] file) throws InvalidMidiDataException, IOException {
+        MidiFileFormat format = MidiSystem.getMidiFileFormat(new ByteArrayInputStream(file));
+        assertEquals(MidiFileSequencePlayer.FILE_TYPE, format.getType());
+        return MidiSystem.getSequence(new ByteArrayInputStream(file));
+    }
+
+    /**
+     * @return text of the meta messages of type in track, in order
+     */
+    private static List<String> texts(Track track, int type) {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            if (track.get(i).getMessage() instanceof MetaMessage) {
+                MetaMessage meta = (MetaMessage) track.get(i).getMessage();
+                if (meta.getType() == type) {
+                    texts.add(new String(meta.getData(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        return texts;
+    }
+
+    /**
+     * @return number of note on events in track
+     */
+    private static int notes(Track track) {
+        int notes = 0;
+        for (int i = 0; i < track.size(); i++) {
+            if (track.get(i).getMessage() instanceof ShortMessage
+                    && ((ShortMessage) track.get(i).getMessage()).getCommand() == ShortMessage.NOTE_ON) {
+                notes++;
+            }
+        }
+        return notes;
+    }
+
+    private static Track trackNamed(Sequence sequence, String name) {
+        for (Track track : sequence.getTracks()) {
+            if (texts(track, 0x03).equals(Arrays.asList(name))) {
+                return track;
+            }
+        }
+        throw new AssertionError("no track named " + name);
+    }
+
+    @Test
+    public void testDuet() throws IOException, InvalidMidiDataException, UnableToParseException {
+        Song song = Song.compile(KaraokeParser.parse(DUET));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFile.write(song, out);
+        Sequence sequence = readBack(out.toByteArray());
+
+        assertEquals(song.timeline().ticksPerBeat(), sequence.getResolution());
+        assertEquals(3, sequence.getTracks().length);
+        Track conductor = sequence.getTracks()[0];
+        assertEquals(Arrays.asList("Duet"), texts(conductor, 0x03));
+        MetaMessage tempo = (MetaMessage) conductor.get(0).getMessage();
+        assertEquals(0x51, tempo.getType());
+        byte[] data = tempo.getData();
+        int microsecondsPerBeat = ((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8) | (data[2] & 0xFF);
+        // a beat is the default note length in 3/4, an eighth note, so 90 quarter notes are 180 beats
+        assertEquals(60_000_000 / 180, microsecondsPerBeat);
+
+        Track upper = trackNamed(sequence, "upper");
+        assertEquals(6, notes(upper));
+        assertEquals(Arrays.asList("one ", "two ", "three", "\rfour ", "five ", "six"), texts(upper, 0x05));
+        Track lower = trackNamed(sequence, "lower");
+        assertEquals(2, notes(lower));
+        assertEquals(0, texts(lower, 0x05).size());
+    }
+
+    @Test
+    public void testNoVoice() throws IOException, InvalidMidiDataException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileSequencePlayer player = new MidiFileSequencePlayer(120, 4, out);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        player.addNote(Instrument.TRUMPET, new Pitch('E'), 1, 1);
+        player.play();
+        Sequence sequence = readBack(out.toByteArray());
+
+        assertEquals(2, sequence.getTracks().length);
+        Track track = sequence.getTracks()[1];
+        assertEquals(0, texts(track, 0x03).size());
+        assertEquals(2, notes(track));
+        List<Integer> programs = new ArrayList<>();
+        List<Integer> channels = new ArrayList<>();
+        for (int i = 0; i < track.size(); i++) {
+            MidiEvent event = track.get(i);
+            if (event.getMessage() instanceof ShortMessage) {
+                ShortMessage message = (ShortMessage) event.getMessage();
+                if (message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                    programs.add(message.getData1());
+                    channels.add(message.getChannel());
+                }
+            }
+        }
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal(), Instrument.TRUMPET.ordinal()), programs);
+        assertEquals(Arrays.asList(0, 1), channels);
+    }
+
+    @Test
+    public void testCallbacksInOrder() throws InvalidMidiDataException {
+        MidiFileSequencePlayer player = new MidiFileSequencePlayer(120, 4, new ByteArrayOutputStream());
+        List<Double> beats = new ArrayList<>();
+        player.addEvent(2, beats::add);
+        player.addEvent(0.5, beats::add);
+        player.play();
+        assertEquals(Arrays.asList(0.5, 2.0), beats);
+    }
+
+    @Test
+    public void testInstrumentsSharedByVoices() throws IOException, InvalidMidiDataException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MidiFileSequencePlayer player = new MidiFileSequencePlayer(120, 4, out);
+        Instrument[] instruments = Instrument.values();
+        // 20 voices of 10 instruments, more voices than channels
+        for (int i = 0; i < 20; i++) {
+            player.addNote("voice " + i, instruments[i % 10], new Pitch('C'), i, 1);
+        }
+        player.play();
+        Sequence sequence = readBack(out.toByteArray());
+        assertEquals(21, sequence.getTracks().length);
+        int programChanges = 0;
+        for (Track track : sequence.getTracks()) {
+            for (int i = 0; i < track.size(); i++) {
+                if (track.get(i).getMessage() instanceof ShortMessage) {
+                    ShortMessage message = (ShortMessage) track.get(i).getMessage();
+                    assertTrue("should not use the percussion channel", message.getChannel() != 9);
+                    if (message.getCommand() == ShortMessage.PROGRAM_CHANGE) {
+                        programChanges++;
+                    }
+                }
+            }
+        }
+        // one channel and one program change per instrument
+        assertEquals(10, programChanges);
+    }
+}
@@ -1,6 +1,9 @@
 package karaoke.sound;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.function.Consumer;
 
 import javax.sound.midi.InvalidMidiDataException;
@@ -14,9 +17,16 @@ import karaoke.Player;
 import karaoke.Rest;
 import karaoke.Chord;
 import karaoke.Concat;
+import karaoke.Fraction;
 import karaoke.Header;
+import karaoke.KeySignature;
+import karaoke.Music;
+import karaoke.MusicBuilder;
+import karaoke.Syllable;
+import karaoke.Timeline;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -33,6 +43,18 @@ public class MusicTest {
      * length has both numerator and denominator
      * length only has numerator
      * has a flat/sharp in the key signature
+     * constructed from a string, from decoded fields
+     * 
+     * =========================================================
+     * 
+     * Testing strategy for Fraction
+     * parse: n, n/m, n/, /m, /
+     * arithmetic: same denominators, different denominators, reduces to lowest terms
+     * 
+     * =========================================================
+     * 
+     * Testing strategy for KeySignature
+     * key: no accidentals, sharps, flats, major, minor, unknown
      * 
      * =========================================================
      * 
@@ -47,6 +69,14 @@ public class MusicTest {
      * Testing strategy for Concat
      * Music types: same, different
      * Music elements: Chord, another concat, lyric, overlayvoice, rest, note, combination of the above
+     * depth: 1, very deep
+     * addSyllableToNote: free notes in m1, only in m2, none left
+     * addSyllablesToNotes: fewer, as many, more syllables than free notes; starting offset 0, >0
+     * 
+     * =========================================================
+     * 
+     * Testing strategy for MusicBuilder
+     * number of parts: 0, 1, 2+, very many
      * 
      * =========================================================
      * 
@@ -81,6 +111,12 @@ public class MusicTest {
      * length has / followed by a number
      * length has both numerator and denominator
      * length only has numerator
+     * 
+     * =========================================================
+     * 
+     * Testing strategy for Syllable
+     * getLine: syllable begins the line, ends the line, is in the middle, is empty, is skipped;
+     *          line is empty; called repeatedly
      */
     private final Player mainPlayer = new Player();
     
@@ -364,4 +400,209 @@ public class MusicTest {
         assertFalse(note1.equals(note2));
     }
     
+    @Test
+    public void testConcatDeepDuration() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        Music music = new Rest(header, "0");
+        for (int i = 0; i < 100000; i++) {
+            music = new Concat(music, new Note("C", header, "1"), header);
+        }
+        assertEquals(100000, music.duration(), 0.01);
+        assertEquals(100000, music.numNotesFree());
+    }
+    
+    @Test
+    public void testSyllableLineAtBegin() {
+        assertEquals("*la* di da", new Syllable("unknown", "la di da", 0, 2).getLine());
+    }
+    
+    @Test
+    public void testSyllableLineMiddle() {
+        assertEquals("la *di* da", new Syllable("unknown", "la di da", 3, 5).getLine());
+    }
+    
+    @Test
+    public void testSyllableLineAtEnd() {
+        assertEquals("la di *da*", new Syllable("unknown", "la di da", 6, 8).getLine());
+    }
+    
+    @Test
+    public void testSyllableLineEmptySyllable() {
+        // the closing star is written after end-1, so it comes before the opening one
+        assertEquals("la **di da", new Syllable("unknown", "la di da", 3, 3).getLine());
+    }
+    
+    @Test
+    public void testSyllableLineSkipped() {
+        Syllable skipped = new Syllable("unknown", "la di da", 0, 0);
+        assertTrue(skipped.isSkipped());
+        assertEquals("*la di da", skipped.getLine());
+    }
+    
+    @Test
+    public void testSyllableLineEmptyLine() {
+        assertEquals("", new Syllable("unknown", "", 0, 0).getLine());
+    }
+    
+    @Test
+    public void testSyllableLineSameInstance() {
+        Syllable syllable = new Syllable("unknown", "la di da", 3, 5);
+        assertSame(syllable.getLine(), syllable.getLine());
+    }
+    
+    @Test
+    public void testAddSyllableLeavesOriginal() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        Note note1 = new Note("C", header, "1");
+        Chord chord = new Chord(new Note("D", header, "1"), new Note("F", header, "1"), header);
+        Concat concat = new Concat(note1, chord, header);
+        Music first = concat.addSyllableToNote(new Syllable("unknown", "la la", 0, 2));
+        Music second = first.addSyllableToNote(new Syllable("unknown", "la la", 3, 5));
+        assertEquals(2, concat.numNotesFree());
+        assertEquals(1, note1.numNotesFree());
+        assertEquals(1, chord.numNotesFree());
+        assertEquals(1, first.numNotesFree());
+        assertEquals(0, second.numNotesFree());
+        assertEquals(second, second.addSyllableToNote(new Syllable("unknown", "la", 0, 2)));
+    }
+    
+    @Test
+    public void testMusicBuilderEmpty() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        MusicBuilder builder = new MusicBuilder(header);
+        assertTrue(builder.isEmpty());
+        assertEquals(0, builder.build().duration(), 0.01);
+    }
+    
+    @Test
+    public void testMusicBuilderSingle() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        MusicBuilder builder = new MusicBuilder(header);
+        Note note = new Note("C", header, "1");
+        builder.add(note);
+        assertEquals(note, builder.build());
+    }
+    
+    @Test
+    public void testMusicBuilderBalanced() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        Note note1 = new Note("C", header, "1");
+        Note note2 = new Note("D", header, "1");
+        Note note3 = new Note("E", header, "1");
+        Note note4 = new Note("F", header, "1");
+        MusicBuilder builder = new MusicBuilder(header);
+        builder.add(note1);
+        builder.add(note2);
+        builder.add(note3);
+        builder.add(note4);
+        Concat expected = new Concat(new Concat(note1, note2, header), new Concat(note3, note4, header), header);
+        assertEquals(expected, builder.build());
+    }
+    
+    @Test
+    public void testMusicBuilderVeryMany() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        MusicBuilder builder = new MusicBuilder(header);
+        for (int i = 0; i < 100000; i++) {
+            builder.add(new Note("C", header, "1"));
+        }
+        Music music = builder.build();
+        Music same = builder.build();
+        assertEquals(100000, music.duration(), 0.01);
+        assertEquals(music, same);
+        assertEquals(music.hashCode(), same.hashCode());
+        assertTrue(music.toString().startsWith("Concat("));
+    }
+    
+    @Test
+    public void testAddSyllablesMatchesOneAtATime() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        MusicBuilder builder = new MusicBuilder(header);
+        builder.add(new Note("C", header, "1"));
+        builder.add(new Rest(header, "1"));
+        builder.add(new Chord(new Note("D", header, "1"), new Note("F", header, "1"), header));
+        builder.add(new Note("E", header, "1"));
+        builder.add(new Note("G", header, "1"));
+        Music music = builder.build();
+        
+        List<Syllable> syllables = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            syllables.add(new Syllable("unknown", "a b c d e f", 2*i, 2*i+1));
+        }
+        Music oneAtATime = music;
+        for (Syllable syllable : syllables.subList(1, syllables.size())) {
+            oneAtATime = oneAtATime.addSyllableToNote(syllable);
+        }
+        Music bulk = music.addSyllablesToNotes(syllables, 1);
+        
+        assertEquals(0, bulk.numNotesFree());
+        assertEquals(Timeline.compile(oneAtATime, 4).syllables(), Timeline.compile(bulk, 4).syllables());
+        assertEquals(syllables.subList(1, 5), Timeline.compile(bulk, 4).syllables());
+    }
+    
+    @Test
+    public void testAddSyllablesFewerThanNotes() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        Note note1 = new Note("C", header, "1");
+        Note note2 = new Note("D", header, "1");
+        Concat concat = new Concat(note1, note2, header);
+        Syllable syllable = new Syllable("unknown", "la", 0, 2);
+        Music bulk = concat.addSyllablesToNotes(Arrays.asList(syllable), 0);
+        assertEquals(1, bulk.numNotesFree());
+        assertEquals(Arrays.asList(syllable), Timeline.compile(bulk, 4).syllables());
+        assertTrue(concat == concat.addSyllablesToNotes(Arrays.asList(syllable), 1));
+    }
+    
+    @Test
+    public void testNoteDecodedMatchesString() {
+        Header header = new Header(0,"", 0,0, "D",0,0,new HashSet<String>(),"",0,"");
+        Note parsed = new Note("f'", header, "3/2", "2/3");
+        Note decoded = Note.decoded(90, Fraction.of(3, 2), Fraction.of(2, 3), header);
+        assertEquals(parsed, decoded);
+        assertEquals(1.0, decoded.duration(), 0.01);
+    }
+    
+    @Test
+    public void testKeySignature() {
+        assertEquals(KeySignature.NONE, KeySignature.of("C"));
+        assertEquals(KeySignature.of("G"), KeySignature.of("Em"));
+        assertEquals(1, KeySignature.of("D").transpose('C' - 'A'));
+        assertEquals(0, KeySignature.of("D").transpose('G' - 'A'));
+        assertEquals(-1, KeySignature.of("Abm").transpose('F' - 'A'));
+        assertEquals(0, KeySignature.of("Bb").transpose('A' - 'A'));
+        assertEquals(KeySignature.NONE, KeySignature.of("H#"));
+    }
+    
+    @Test
+    public void testFractionParse() {
+        assertEquals(Fraction.of(3), Fraction.parse("3"));
+        assertEquals(Fraction.of(3, 4), Fraction.parse("6/8"));
+        assertEquals(Fraction.of(3, 2), Fraction.parse("3/"));
+        assertEquals(Fraction.of(1, 4), Fraction.parse("/4"));
+        assertEquals(Fraction.of(1, 2), Fraction.parse("/"));
+    }
+    
+    @Test
+    public void testFractionArithmetic() {
+        Fraction third = Fraction.of(1, 3);
+        assertEquals(Fraction.ONE, third.plus(third).plus(third));
+        assertEquals(Fraction.of(5, 6), third.plus(Fraction.of(1, 2)));
+        assertEquals(Fraction.of(1, 2), Fraction.of(3, 4).times(Fraction.of(2, 3)));
+        assertEquals(Fraction.of(1, 2), third.max(Fraction.of(1, 2)));
+        assertEquals(2, Fraction.of(-4, -6).numerator());
+        assertEquals(3, Fraction.of(-4, -6).denominator());
+        assertEquals(12, Fraction.lcm(4, 6));
+        assertEquals(40, Fraction.of(5, 12).toTicks(96));
+    }
+    
+    @Test
+    public void testTicksPerBeat() {
+        Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+        Note triplet = new Note("C", header, "1/2", "2/3");
+        Note sixteenth = new Note("D", header, "1/4", "1");
+        assertEquals(6, triplet.ticksPerBeat());
+        assertEquals(12, new Concat(triplet, sixteenth, header).ticksPerBeat());
+        assertEquals(1, new Rest(header, "2").ticksPerBeat());
+    }
+    
 }
@@ -0,0 +1,292 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import karaoke.Header;
+import karaoke.NioWebServer;
+import karaoke.Player;
+import karaoke.Syllable;
+
+/**
+ * Tests for streaming lyrics from the NIO server
+ */
+public class NioWebServerTest {
+    /*
+     * Testing strategy for NioWebServer
+     * path: /textStream, a voice, /events/ or /ws/ of either, not served
+     * WebSocket: syllables of one line, of a new line, beginning the line, ending it, empty;
+     *            client closes, no key; frames sent behind the handshake
+     * clients: 1, many more than I/O threads, of several voices
+     * client: receives lyrics, disconnects
+     */
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Header header = new Header(1, "Duet", 4, 4, "C", 100, 0.125,
+            new HashSet<>(Arrays.asList("upper", "lower")), "", 0.125, "Unknown");
+    private Player player;
+    private NioWebServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        player = new Player();
+        server = new NioWebServer(0, player, header, 2);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    /**
+     * Connects to the server and reads the response up to the first lyric.
+     */
+    private BufferedReader connect(Socket socket, String path) throws IOException {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static String readStreamStart(BufferedReader in) throws IOException {
+        String status = in.readLine();
+        // headers, then the line of spaces
+        while (!in.readLine().isEmpty()) {
+        }
+        assertTrue(in.readLine().trim().isEmpty());
+        return status;
+    }
+
+    private void awaitClients(String voice, int expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (player.numClients(voice) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, player.numClients(voice));
+    }
+
+    @Test
+    public void testTextStream() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            BufferedReader in = connect(socket, "/textStream");
+            assertEquals("HTTP/1.1 200 OK", readStreamStart(in));
+            awaitClients("unknown", 1);
+            player.streamToAll("hello *world*", "unknown");
+            player.streamToAll("s\u00e9 \u00f1", "unknown");
+            assertEquals("hello *world*", in.readLine());
+            assertEquals("s\u00e9 \u00f1", in.readLine());
+        }
+    }
+
+    @Test
+    public void testEventStream() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            BufferedReader in = connect(socket, "/events/upper");
+            assertEquals("HTTP/1.1 200 OK", in.readLine());
+            assertEquals("Content-Type: text/event-stream; charset=utf-8", in.readLine());
+            while (!in.readLine().isEmpty()) {
+            }
+            awaitClients("upper", 1);
+            player.streamToAll("hello *w\u00f6rld*", "upper");
+            assertEquals("data: hello *w\u00f6rld*", in.readLine());
+            assertEquals("", in.readLine());
+        }
+    }
+
+    /**
+     * Reads a frame from the server, which is unmasked and short.
+     * @return the frame's opcode followed by its data
+     */
+    private static byte[] readFrame(DataInputStream in) throws IOException {
+        final int opcode = in.readUnsignedByte() & 0x0F;
+        int length = in.readUnsignedByte();
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        }
+        final byte[] frame = new byte[1 + length];
+        frame[0] = (byte) opcode;
+        in.readFully(frame, 1, length);
+        return frame;
+    }
+
+    private static byte[] highlight(int lineId, int begin, int end) {
+        return ByteBuffer.allocate(10).put((byte) 0x2).put((byte) 1).putInt(lineId)
+                .putShort((short) begin).putShort((short) end).array();
+    }
+
+    private static byte[] line(int lineId, String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(6 + bytes.length).put((byte) 0x2).put((byte) 0).putInt(lineId)
+                .put(bytes).array();
+    }
+
+    /**
+     * Sends the example handshake from RFC 6455 for path, followed in the same write by frames,
+     * and reads the server's answer to it.
+     * @return the rest of what the server sends
+     */
+    private static DataInputStream upgrade(Socket socket, String path, byte[] frames) throws IOException {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        OutputStream out = socket.getOutputStream();
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        request.write(frames);
+        out.write(request.toByteArray());
+        out.flush();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        List<String> response = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        while (response.isEmpty() || !response.get(response.size() - 1).isEmpty()) {
+            char c = (char) in.readUnsignedByte();
+            if (c == '\n') {
+                response.add(line.toString().trim());
+                line.setLength(0);
+            } else {
+                line.append(c);
+            }
+        }
+        assertEquals("HTTP/1.1 101 Switching Protocols", response.get(0));
+        assertTrue(response.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+        return in;
+    }
+
+    /**
+     * @return a short frame from a client, which masks its data
+     */
+    private static byte[] masked(int opcode, byte[] data) {
+        final byte[] mask = { 1, 2, 3, 4 };
+        final ByteBuffer frame = ByteBuffer.allocate(6 + data.length)
+                .put((byte) (0x80 | opcode)).put((byte) (0x80 | data.length)).put(mask);
+        for (int i = 0; i < data.length; i++) {
+            frame.put((byte) (data[i] ^ mask[i % 4]));
+        }
+        return frame.array();
+    }
+
+    @Test
+    public void testWebSocket() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            DataInputStream in = upgrade(socket, "/ws/upper", new byte[0]);
+            OutputStream out = socket.getOutputStream();
+            awaitClients("upper", 1);
+
+            player.streamSyllable(new Syllable("upper", "s\u00e9 me", 0, 2));
+            player.streamSyllable(new Syllable("upper", "s\u00e9 me", 3, 5));
+            player.streamSyllable(new Syllable("upper", "now", 0, 3));
+            player.streamSyllable(new Syllable("upper", "now", 1, 1));
+            assertArrayEquals(line(0, "s\u00e9 me"), readFrame(in));
+            assertArrayEquals(highlight(0, 0, 2), readFrame(in));
+            assertArrayEquals(highlight(0, 3, 5), readFrame(in));
+            assertArrayEquals(line(1, "now"), readFrame(in));
+            assertArrayEquals(highlight(1, 0, 3), readFrame(in));
+            assertArrayEquals(highlight(1, 1, 1), readFrame(in));
+
+            // close frame with status 1000
+            out.write(masked(0x8, new byte[] { 0x03, (byte) 0xE8 }));
+            out.flush();
+            assertArrayEquals(new byte[] { 0x8, 0x03, (byte) 0xE8 }, readFrame(in));
+            assertEquals(-1, in.read());
+            awaitClients("upper", 0);
+        }
+    }
+
+    @Test
+    public void testWebSocketFramesBehindHandshake() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            // a ping and a close frame sent in the same segment as the upgrade request
+            final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            frames.write(masked(0x9, "hi".getBytes(StandardCharsets.US_ASCII)));
+            frames.write(masked(0x8, new byte[] { 0x03, (byte) 0xE8 }));
+            DataInputStream in = upgrade(socket, "/ws/upper", frames.toByteArray());
+            assertArrayEquals(new byte[] { 0xA, 'h', 'i' }, readFrame(in));
+            assertArrayEquals(new byte[] { 0x8, 0x03, (byte) 0xE8 }, readFrame(in));
+            assertEquals(-1, in.read());
+            awaitClients("upper", 0);
+        }
+    }
+
+    @Test
+    public void testWebSocketWithoutKey() throws IOException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            BufferedReader in = connect(socket, "/ws/upper");
+            assertEquals("HTTP/1.1 400 Bad Request", in.readLine());
+        }
+    }
+
+    @Test
+    public void testNotFound() throws IOException {
+        try (Socket socket = new Socket("localhost", server.port())) {
+            BufferedReader in = connect(socket, "/nobody");
+            assertEquals("HTTP/1.1 404 Not Found", in.readLine());
+        }
+    }
+
+    @Test
+    public void testManyClients() throws IOException, InterruptedException {
+        final int numClients = 500;
+        List<Socket> sockets = new ArrayList<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        try {
+            for (int i = 0; i < numClients; i++) {
+                Socket socket = new Socket("localhost", server.port());
+                sockets.add(socket);
+                readers.add(connect(socket, i % 2 == 0 ? "/upper" : "/lower"));
+            }
+            for (BufferedReader in : readers) {
+                readStreamStart(in);
+            }
+            awaitClients("upper", numClients / 2);
+            awaitClients("lower", numClients / 2);
+
+            for (int line = 0; line < 10; line++) {
+                player.streamToAll("upper " + line, "upper");
+                player.streamToAll("lower " + line, "lower");
+            }
+            for (int i = 0; i < numClients; i++) {
+                String voice = i % 2 == 0 ? "upper" : "lower";
+                for (int line = 0; line < 10; line++) {
+                    assertEquals(voice + " " + line, readers.get(i).readLine());
+                }
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testDisconnect() throws IOException, InterruptedException {
+        Socket socket = new Socket("localhost", server.port());
+        BufferedReader in = connect(socket, "/upper");
+        readStreamStart(in);
+        awaitClients("upper", 1);
+        socket.close();
+        awaitClients("upper", 0);
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Test;
 import edu.mit.eecs.parserlib.ParseTree;
 import edu.mit.eecs.parserlib.UnableToParseException;
 import karaoke.Music;
+import karaoke.Timeline;
 import karaoke.parser.KaraokeParser;
 import karaoke.parser.KaraokeParser.MusicGrammar;
 
@@ -43,6 +44,7 @@ public class ParserTest {
      * music has 0, 1, >1 repeats
      * music has repeat on different lines
      * music has/doesn't have accidentals
+     * accidentals: carried through measure, overridden in measure, reset by barline, from key signature
      * music has 1, 2, >2 voices
      * music has/doesn't have lyrics
      * 
@@ -694,5 +696,30 @@ public class ParserTest {
         Music m = KaraokeParser.parse(input);
     }
     
+    @Test
+    public void testMeasureAccidentals() throws UnableToParseException {
+        final String input = "X:1\n" + 
+                "T:Accidentals\n" + 
+                "L:1/4\n" + 
+                "K:G\n" + 
+                "F ^F F =F F _F ^^F | F c, =c, ^c, c,|\n";
+        Timeline timeline = Timeline.compile(KaraokeParser.parse(input), 1);
+        int[] expected = { 66, 66, 66, 65, 65, 64, 67, 66, 60, 60, 61, 61 };
+        assertEquals(expected.length, timeline.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], timeline.note(i));
+        }
+    }
+    
+    @Test
+    public void testRepeatKeepsTuplets() throws UnableToParseException {
+        final String input = "X:1\n" + 
+                "T:Repeated tuplet\n" + 
+                "L:1/4\n" + 
+                "K:C\n" + 
+                "(3CDE F:|\n";
+        Music m = KaraokeParser.parse(input);
+        assertEquals(6.0, m.duration(), 0.01);
+    }
     
 }
@@ -0,0 +1,408 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import karaoke.Player;
+import karaoke.Player.OverflowPolicy;
+import karaoke.Syllable;
+
+/**
+ * Tests for streaming lyrics to clients
+ */
+public class PlayerTest {
+    /*
+     * Testing strategy for Player
+     * clients of a voice: 0, 1, >1
+     * client: keeps up, stalled until the queue overflows, disconnects, dead connection (closed), removed,
+     *         disconnected with its voice, disconnected with every voice
+     * registry: clients join while lyrics are streamed
+     * late join: no lyrics yet, fewer than RECENT_LINES lines, more, more than the queue's capacity
+     * client stream: plain text, server-sent events of one line, of several lines, dead event stream;
+     *                written by the thread adding it, by a writer task
+     * syllable: begins its line, ends it, empty, streamed as text and as events
+     * overflow policy: DROP_OLDEST, DISCONNECT
+     */
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * Client whose connection blocks every write until it is released, and records what it received.
+     */
+    private static class StalledClient extends OutputStream {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        // threads that have written to this client
+        private final Set<Thread> writers = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writers.add(Thread.currentThread());
+            writing.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (received) {
+                received.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+
+        List<String> lines() {
+            synchronized (received) {
+                if (received.size() == 0) {
+                    return new ArrayList<>();
+                }
+                return Arrays.asList(new String(received.toByteArray(), StandardCharsets.UTF_8).split("\n"));
+            }
+        }
+    }
+
+    private static void awaitLines(StalledClient client, int expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (client.lines().size() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testNoClients() {
+        Player player = new Player();
+        player.streamToAll("nobody listens", "unknown");
+    }
+
+    @Test
+    public void testClientsKeepUp() throws InterruptedException {
+        Player player = new Player(4, OverflowPolicy.DISCONNECT);
+        StalledClient first = new StalledClient();
+        StalledClient second = new StalledClient();
+        StalledClient otherVoice = new StalledClient();
+        first.released.countDown();
+        second.released.countDown();
+        otherVoice.released.countDown();
+        player.addWriterAsync(first, "upper");
+        player.addWriterAsync(second, "upper");
+        player.addWriterAsync(otherVoice, "lower");
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            player.streamToAll("line " + i, "upper");
+            expected.add("line " + i);
+            awaitLines(first, i + 1);
+            awaitLines(second, i + 1);
+        }
+        assertEquals(expected, first.lines());
+        assertEquals(expected, second.lines());
+        assertEquals(1, otherVoice.closed.getCount());
+    }
+
+    @Test
+    public void testStalledClientDropsOldest() throws InterruptedException {
+        final int capacity = 4;
+        Player player = new Player(capacity, OverflowPolicy.DROP_OLDEST);
+        StalledClient stalled = new StalledClient();
+        player.addWriterAsync(stalled, "upper");
+
+        player.streamToAll("first", "upper");
+        assertTrue(stalled.writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // the writer is stuck writing "first", but streaming doesn't wait for it
+        for (int i = 0; i < 1000; i++) {
+            player.streamToAll("line " + i, "upper");
+        }
+        stalled.released.countDown();
+
+        awaitLines(stalled, capacity + 1);
+        assertEquals(Arrays.asList("first", "line 996", "line 997", "line 998", "line 999"), stalled.lines());
+        assertEquals(1, stalled.closed.getCount());
+    }
+
+    @Test
+    public void testStalledClientDisconnects() throws InterruptedException {
+        final int capacity = 4;
+        Player player = new Player(capacity, OverflowPolicy.DISCONNECT);
+        StalledClient stalled = new StalledClient();
+        StalledClient fast = new StalledClient();
+        fast.released.countDown();
+        player.addWriterAsync(stalled, "upper");
+        player.addWriterAsync(fast, "upper");
+
+        player.streamToAll("first", "upper");
+        assertTrue(stalled.writing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitLines(fast, 1);
+        for (int i = 0; i < capacity + 1; i++) {
+            player.streamToAll("line " + i, "upper");
+            awaitLines(fast, i + 2);
+        }
+        stalled.released.countDown();
+
+        assertTrue(stalled.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first"), stalled.lines());
+        // the client that keeps up still receives every line
+        assertEquals(capacity + 2, fast.lines().size());
+        assertEquals(1, fast.closed.getCount());
+        assertEquals(1, player.numClients("upper"));
+    }
+
+    private static void awaitClients(Player player, String voice, int expected) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (player.numClients(voice) != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testDeadConnectionRemoved() throws InterruptedException {
+        Player player = new Player();
+        CountDownLatch deadClosed = new CountDownLatch(1);
+        OutputStream dead = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+            @Override
+            public void close() {
+                deadClosed.countDown();
+            }
+        };
+        StalledClient alive = new StalledClient();
+        alive.released.countDown();
+        player.addWriterAsync(dead, "upper");
+        player.addWriterAsync(alive, "upper");
+        assertEquals(2, player.numClients("upper"));
+
+        player.streamToAll("hello", "upper");
+        awaitClients(player, "upper", 1);
+        assertEquals(1, player.numClients("upper"));
+        assertTrue(deadClosed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        awaitLines(alive, 1);
+        assertEquals(Arrays.asList("hello"), alive.lines());
+    }
+
+    @Test
+    public void testRemoveWriter() throws InterruptedException {
+        Player player = new Player();
+        StalledClient client = new StalledClient();
+        player.addWriterAsync(client, "upper");
+        player.removeWriter(client, "upper");
+        assertEquals(0, player.numClients("upper"));
+        assertTrue(client.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        player.streamToAll("too late", "upper");
+    }
+
+    @Test
+    public void testDisconnectVoice() throws InterruptedException, ExecutionException, TimeoutException {
+        Player player = new Player();
+        StalledClient upper = new StalledClient();
+        StalledClient lower = new StalledClient();
+        CompletableFuture<Void> upperDisconnected = player.addWriterAsync(upper, "upper");
+        player.addEventStreamAsync(lower, "lower");
+        player.disconnect("upper");
+        upperDisconnected.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertTrue(upper.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(0, player.numClients("upper"));
+        assertEquals(1, player.numClients("lower"));
+        player.disconnect("nobody");
+    }
+
+    @Test
+    public void testDisconnectAll() throws InterruptedException, ExecutionException, TimeoutException {
+        Player player = new Player();
+        List<CompletableFuture<Void>> disconnected = new ArrayList<>();
+        for (String voice : Arrays.asList("upper", "upper", "lower")) {
+            disconnected.add(player.addEventStreamAsync(new StalledClient(), voice));
+        }
+        player.disconnectAll();
+        for (CompletableFuture<Void> future : disconnected) {
+            // a handler joining the future is woken without being interrupted
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(0, player.numClients("upper"));
+        assertEquals(0, player.numClients("lower"));
+    }
+
+    @Test
+    public void testWrittenByAddingThread() throws InterruptedException {
+        Player player = new Player();
+        StalledClient text = new StalledClient();
+        StalledClient events = new StalledClient();
+        text.released.countDown();
+        events.released.countDown();
+        Thread textThread = new Thread(() -> player.addWriter(text, "upper"));
+        Thread eventThread = new Thread(() -> player.addEventStream(events, "upper"));
+        textThread.start();
+        eventThread.start();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (player.numClients("upper") < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        player.streamToAll("hello", "upper");
+        awaitLines(text, 1);
+        awaitLines(events, 1);
+        player.disconnect("upper");
+        textThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        eventThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        // each returned once its client was disconnected, having written every lyric itself
+        assertFalse(textThread.isAlive());
+        assertFalse(eventThread.isAlive());
+        assertEquals(Arrays.asList("hello"), text.lines());
+        assertEquals(Arrays.asList("data: hello"), events.lines());
+        assertEquals(Collections.singleton(textThread), text.writers);
+        assertEquals(Collections.singleton(eventThread), events.writers);
+        assertTrue(text.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(events.closed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEventStream() throws InterruptedException {
+        Player player = new Player();
+        StalledClient first = new StalledClient();
+        StalledClient second = new StalledClient();
+        first.released.countDown();
+        second.released.countDown();
+        player.addEventStreamAsync(first, "upper");
+        player.addEventStreamAsync(second, "upper");
+
+        player.streamToAll("hello *w\u00f6rld*", "upper");
+        player.streamToAll("two\nlines", "upper");
+        List<String> expected = Arrays.asList("data: hello *w\u00f6rld*", "", "data: two", "data: lines");
+        for (StalledClient client : Arrays.asList(first, second)) {
+            awaitLines(client, expected.size());
+            assertEquals(expected, client.lines());
+        }
+    }
+
+    @Test
+    public void testDeadEventStream() throws InterruptedException, ExecutionException, TimeoutException {
+        Player player = new Player();
+        OutputStream dead = new OutputStream() {
+            @Override public void write(int b) throws IOException {
+                throw new IOException("client is gone");
+            }
+        };
+        CompletableFuture<Void> disconnected = player.addEventStreamAsync(dead, "upper");
+        player.streamToAll("hello", "upper");
+        disconnected.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(0, player.numClients("upper"));
+    }
+
+    @Test
+    public void testStreamSyllable() throws InterruptedException {
+        Player player = new Player();
+        StalledClient text = new StalledClient();
+        StalledClient events = new StalledClient();
+        text.released.countDown();
+        events.released.countDown();
+        player.addWriterAsync(text, "upper");
+        player.addEventStreamAsync(events, "upper");
+
+        player.streamSyllable(new Syllable("upper", "s\u00e9 di da", 0, 2));
+        player.streamSyllable(new Syllable("upper", "s\u00e9 di da", 6, 8));
+        player.streamSyllable(new Syllable("upper", "s\u00e9 di da", 3, 3));
+        awaitLines(text, 3);
+        assertEquals(Arrays.asList("*s\u00e9* di da", "s\u00e9 di *da*", "s\u00e9 **di da"), text.lines());
+        List<String> expected = Arrays.asList("data: *s\u00e9* di da", "", "data: s\u00e9 di *da*", "",
+                "data: s\u00e9 **di da");
+        awaitLines(events, expected.size());
+        assertEquals(expected, events.lines());
+    }
+
+    @Test
+    public void testLateJoin() throws InterruptedException {
+        Player player = new Player();
+        player.streamSyllable(new Syllable("upper", "one two", 0, 3));
+        player.streamSyllable(new Syllable("upper", "one two", 4, 7));
+        StalledClient early = new StalledClient();
+        early.released.countDown();
+        player.addWriterAsync(early, "upper");
+        awaitLines(early, 1);
+        assertEquals(Arrays.asList("one *two*"), early.lines());
+
+        for (String line : Arrays.asList("three", "four", "five")) {
+            player.streamSyllable(new Syllable("upper", line, 0, line.length()));
+        }
+        StalledClient late = new StalledClient();
+        late.released.countDown();
+        player.addWriterAsync(late, "upper");
+        player.streamSyllable(new Syllable("upper", "six", 0, 3));
+        List<String> expected = Arrays.asList("*three*", "*four*", "*five*", "*six*");
+        assertEquals(Player.RECENT_LINES + 1, expected.size());
+        awaitLines(late, expected.size());
+        assertEquals(expected, late.lines());
+
+        StalledClient otherVoice = new StalledClient();
+        otherVoice.released.countDown();
+        player.addWriterAsync(otherVoice, "lower");
+        player.streamToAll("lower line", "lower");
+        awaitLines(otherVoice, 1);
+        assertEquals(Arrays.asList("lower line"), otherVoice.lines());
+    }
+
+    @Test
+    public void testLateJoinSmallQueue() throws InterruptedException {
+        Player player = new Player(2, OverflowPolicy.DISCONNECT);
+        for (String line : Arrays.asList("three", "four", "five")) {
+            player.streamToAll(line, "upper");
+        }
+        StalledClient client = new StalledClient();
+        client.released.countDown();
+        player.addWriterAsync(client, "upper");
+        awaitLines(client, 2);
+        assertEquals(Arrays.asList("four", "five"), client.lines());
+        assertEquals(1, player.numClients("upper"));
+    }
+
+    @Test
+    public void testJoinWhileStreaming() throws InterruptedException {
+        final int numClients = 200;
+        Player player = new Player();
+        ExecutorService joiners = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < numClients; i++) {
+            StalledClient client = new StalledClient();
+            client.released.countDown();
+            String voice = i % 2 == 0 ? "upper" : "lower";
+            joiners.execute(() -> player.addWriterAsync(client, voice));
+        }
+        // every lyric goes to the clients that joined before it, while others are joining
+        for (int i = 0; i < 1000; i++) {
+            player.streamToAll("line", i % 2 == 0 ? "upper" : "lower");
+        }
+        joiners.shutdown();
+        assertTrue(joiners.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(numClients, player.numClients("upper") + player.numClients("lower"));
+    }
+}
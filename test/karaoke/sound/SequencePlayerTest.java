@@ -5,8 +5,13 @@ import static org.junit.Assert.*;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
 import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
 import javax.sound.midi.MidiUnavailableException;
 
 import org.junit.Test;
@@ -441,6 +446,115 @@ public class SequencePlayerTest {
     
     
     
+    /*
+     * Testing strategy for MidiSequencePlayer's callbacks, without playing
+     * callbacks: none, one, several at the same tick, added out of order
+     * marker: in the track, copied from the track, not a callback
+     * callback number: one byte, every byte in use, with bytes >= 0x80
+     * firing: once, again in the same play, again in another play, unknown number
+     * toString: before play, between adding notes; after one play, after two
+     */
+
+    @Test
+    public void testCallbackMarkersInTrack() throws MidiUnavailableException, InvalidMidiDataException {
+        MidiSequencePlayer player = new MidiSequencePlayer(120, 4);
+        assertEquals("Meta event: END_OF_TRACK Tick: 0\n", player.toString());
+        player.addEvent(1, beat -> {});
+        player.addEvent(0.5, beat -> {});
+        player.addEvent(1, beat -> {});
+        assertEquals("Meta event: MARKER Callback: 2 Tick: 2\n"
+                + "Meta event: MARKER Callback: 1 Tick: 4\n"
+                + "Meta event: MARKER Callback: 3 Tick: 4\n"
+                + "Meta event: END_OF_TRACK Tick: 4\n", player.toString());
+    }
+
+    @Test
+    public void testCallbackNumberEncoding() throws InvalidMidiDataException {
+        for (int number : new int[] { 1, 0x7F, 0x80, 0x01020304, 0x7F80FF01, Integer.MAX_VALUE }) {
+            MetaMessage marker = MidiSequencePlayer.callbackMarker(number);
+            byte[] data = marker.getData();
+            assertEquals(4, data.length);
+            for (int i = 0; i < data.length; i++) {
+                assertEquals((byte) (number >>> (24 - 8 * i)), data[i]);
+            }
+            assertEquals(number, MidiSequencePlayer.callbackNumber(marker));
+            // a sequencer that clones its messages hands the listener a plain copy, which is decoded
+            MetaMessage copy = (MetaMessage) marker.clone();
+            assertEquals(number, MidiSequencePlayer.callbackNumber(copy));
+        }
+        assertEquals(0, MidiSequencePlayer.callbackNumber(new MetaMessage(6, new byte[] { 0 }, 1)));
+        assertEquals(0, MidiSequencePlayer.callbackNumber(new MetaMessage(6, new byte[0], 0)));
+    }
+
+    @Test
+    public void testCallbackFiresOncePerPlay() throws MidiUnavailableException, InvalidMidiDataException {
+        MidiSequencePlayer player = new MidiSequencePlayer(120, 4);
+        List<Double> first = new ArrayList<>();
+        List<Double> second = new ArrayList<>();
+        player.addEvent(1, first::add);
+        player.addEvent(2, second::add);
+
+        BitSet firstPlay = new BitSet();
+        player.callBack((MetaMessage) MidiSequencePlayer.callbackMarker(2).clone(), 2.0, firstPlay);
+        player.callBack(MidiSequencePlayer.callbackMarker(2), 2.5, firstPlay);
+        assertEquals(Arrays.asList(2.0), second);
+        assertEquals(Arrays.asList(), first);
+
+        // numbers that call back nothing
+        player.callBack(new MetaMessage(6, new byte[] { 0 }, 1), 0, firstPlay);
+        player.callBack(MidiSequencePlayer.callbackMarker(3), 0, firstPlay);
+        player.callBack(MidiSequencePlayer.callbackMarker(1), 1.0, firstPlay);
+        assertEquals(Arrays.asList(1.0), first);
+        assertEquals(Arrays.asList(2.0), second);
+
+        // playing again calls every callback again
+        BitSet secondPlay = new BitSet();
+        player.callBack(MidiSequencePlayer.callbackMarker(1), 1.0, secondPlay);
+        player.callBack(MidiSequencePlayer.callbackMarker(2), 2.0, secondPlay);
+        assertEquals(Arrays.asList(1.0, 1.0), first);
+        assertEquals(Arrays.asList(2.0, 2.0), second);
+    }
+
+    /**
+     * @return a player on fake devices, with a note of each of two instruments and a callback, where
+     *          toString is called between adding the notes if peek
+     */
+    private static MidiSequencePlayer twoInstruments(boolean peek) throws InvalidMidiDataException {
+        MidiSequencePlayer player = new MidiSequencePlayer(120, 4,
+                new SynthesizerPool(new SynthesizerPoolTest.FakeOpener()));
+        player.addNote(Instrument.PIANO, new Pitch('C'), 2, 1);
+        player.addEvent(2, beat -> {});
+        if (peek) {
+            player.toString();
+        }
+        // starts before the piano, so it gets the first channel if the notes are assigned channels together
+        player.addNote(Instrument.VIOLIN, new Pitch('E'), 0, 1);
+        return player;
+    }
+
+    @Test
+    public void testToStringLeavesPlayerUnchanged() throws InvalidMidiDataException {
+        MidiSequencePlayer peeked = twoInstruments(true);
+        MidiSequencePlayer unpeeked = twoInstruments(false);
+        assertEquals(unpeeked.toString(), peeked.toString());
+        assertEquals(peeked.toString(), peeked.toString());
+        // play() builds the track, with a keepalive marker after the callback
+        peeked.play();
+        unpeeked.play();
+        assertEquals(unpeeked.toString(), peeked.toString());
+        assertTrue(peeked.toString().contains("Meta event: MARKER Callback: 0 Tick: 9\n"));
+    }
+
+    @Test
+    public void testPlayTwiceOneKeepalive() throws InvalidMidiDataException {
+        MidiSequencePlayer player = twoInstruments(false);
+        player.play();
+        final String once = player.toString();
+        player.play();
+        assertEquals(once, player.toString());
+        assertEquals(1, once.split("MARKER Callback: 0", -1).length - 1);
+    }
+
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
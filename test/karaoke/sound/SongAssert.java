@@ -0,0 +1,66 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+
+import karaoke.Header;
+import karaoke.Song;
+import karaoke.Syllable;
+import karaoke.Timeline;
+
+/**
+ * Assertions about compiled songs, shared by the tests of everything that builds or stores them
+ */
+class SongAssert {
+
+    private SongAssert() {
+        // not instantiable, only static methods
+    }
+
+    /**
+     * Asserts that two songs have the same header, with the same instrument for each voice,
+     * and the same timeline, event by event and syllable by syllable.
+     * @param expected song that actual should be the same as
+     * @param actual song built or read back some other way
+     */
+    static void assertSameSong(Song expected, Song actual) {
+        Header expectedHeader = expected.header();
+        Header actualHeader = actual.header();
+        assertEquals(expectedHeader.index(), actualHeader.index());
+        assertEquals(expectedHeader.title(), actualHeader.title());
+        assertEquals(expectedHeader.composer(), actualHeader.composer());
+        assertEquals(expectedHeader.meterN(), actualHeader.meterN());
+        assertEquals(expectedHeader.meterD(), actualHeader.meterD());
+        assertEquals(expectedHeader.key(), actualHeader.key());
+        assertEquals(expectedHeader.voices(), actualHeader.voices());
+        for (String voice : expectedHeader.voices()) {
+            assertEquals(expectedHeader.instrument(voice), actualHeader.instrument(voice));
+        }
+        assertEquals(expectedHeader.getMusic(), actualHeader.getMusic());
+        assertEquals(expectedHeader.tempo(), actualHeader.tempo(), 0);
+        assertEquals(expectedHeader.noteLength(), actualHeader.noteLength(), 0);
+        assertEquals(expectedHeader.tempoLength(), actualHeader.tempoLength(), 0);
+
+        Timeline expectedTimeline = expected.timeline();
+        Timeline actualTimeline = actual.timeline();
+        assertEquals(expectedTimeline.ticksPerBeat(), actualTimeline.ticksPerBeat());
+        assertEquals(expectedTimeline.size(), actualTimeline.size());
+        for (int i = 0; i < expectedTimeline.size(); i++) {
+            assertEquals(expectedTimeline.start(i), actualTimeline.start(i));
+            assertEquals(expectedTimeline.length(i), actualTimeline.length(i));
+            assertEquals(expectedTimeline.note(i), actualTimeline.note(i));
+            assertEquals(expectedTimeline.syllableIndex(i), actualTimeline.syllableIndex(i));
+            assertEquals(expectedTimeline.voiceIndex(i), actualTimeline.voiceIndex(i));
+        }
+        assertEquals(expectedTimeline.voices(), actualTimeline.voices());
+        assertEquals(expectedTimeline.syllables().size(), actualTimeline.syllables().size());
+        for (int i = 0; i < expectedTimeline.syllables().size(); i++) {
+            Syllable expectedSyllable = expectedTimeline.syllables().get(i);
+            Syllable actualSyllable = actualTimeline.syllables().get(i);
+            assertEquals(expectedSyllable.getVoice(), actualSyllable.getVoice());
+            assertEquals(expectedSyllable.getLyricLine(), actualSyllable.getLyricLine());
+            assertEquals(expectedSyllable.getBeginIndex(), actualSyllable.getBeginIndex());
+            assertEquals(expectedSyllable.getEndIndex(), actualSyllable.getEndIndex());
+            assertEquals(expectedSyllable.getLine(), actualSyllable.getLine());
+        }
+    }
+}
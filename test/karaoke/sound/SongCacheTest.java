@@ -0,0 +1,111 @@
+package karaoke.sound;
+
+import static karaoke.sound.SongAssert.assertSameSong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Song;
+import karaoke.SongCache;
+import karaoke.SongFile;
+
+/**
+ * Tests for the on-disk cache of compiled songs
+ */
+public class SongCacheTest {
+    /*
+     * Testing strategy for SongCache
+     * key: same abc, different abc
+     * lookup: missing entry, stored entry, corrupt entry
+     * load: miss then hit, hit after corrupt entry
+     * song: one voice, several voices, with and without lyrics
+     */
+
+    private static final String SCALE = "X:1\n" +
+            "T:Scale\n" +
+            "C:Unknown\n" +
+            "L:1/4\n" +
+            "Q:1/4=120\n" +
+            "K:D\n" +
+            "C D (3EFG A|\n" +
+            "w:do re mi fa so la\n";
+
+    private static final String DUET = "X:2\n" +
+            "T:Duet\n" +
+            "V:upper\n" +
+            "V:lower\n" +
+            "K:C\n" +
+            "V:upper\n" +
+            "c2 d2|\n" +
+            "w:high low\n" +
+            "V:lower\n" +
+            "C D E F|\n";
+
+    private static File tempDirectory() throws IOException {
+        File directory = Files.createTempDirectory("songcache").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    @Test
+    public void testKey() throws IOException {
+        assertEquals(SongCache.key(SCALE), SongCache.key(SCALE));
+        assertNotEquals(SongCache.key(SCALE), SongCache.key(DUET));
+        assertNotEquals(SongCache.key(SCALE), SongCache.key(SCALE + "%\n"));
+    }
+
+    @Test
+    public void testLookupMissing() throws IOException {
+        SongCache cache = new SongCache(tempDirectory());
+        assertFalse(cache.lookup(SongCache.key(SCALE)).isPresent());
+    }
+
+    @Test
+    public void testLoadMissThenHit() throws IOException, UnableToParseException {
+        SongCache cache = new SongCache(tempDirectory());
+        Song parsed = cache.load(SCALE);
+        Optional<Song> cached = cache.lookup(SongCache.key(SCALE));
+        assertTrue(cached.isPresent());
+        assertSameSong(parsed, cached.get());
+        assertSameSong(parsed, cache.load(SCALE));
+    }
+
+    @Test
+    public void testSeveralVoices() throws IOException, UnableToParseException {
+        SongCache cache = new SongCache(tempDirectory());
+        Song parsed = cache.load(DUET);
+        assertSameSong(parsed, cache.lookup(SongCache.key(DUET)).get());
+    }
+
+    @Test(expected = IOException.class)
+    public void testLookupCorrupt() throws IOException, UnableToParseException {
+        File directory = tempDirectory();
+        SongCache cache = new SongCache(directory);
+        cache.load(SCALE);
+        File entry = new File(directory, SongCache.key(SCALE) + SongFile.SUFFIX);
+        byte[] bytes = Files.readAllBytes(entry.toPath());
+        Files.write(entry.toPath(), Arrays.copyOf(bytes, bytes.length / 2));
+        cache.lookup(SongCache.key(SCALE));
+    }
+
+    @Test
+    public void testLoadAfterCorrupt() throws IOException, UnableToParseException {
+        File directory = tempDirectory();
+        SongCache cache = new SongCache(directory);
+        Song parsed = cache.load(SCALE);
+        File entry = new File(directory, SongCache.key(SCALE) + SongFile.SUFFIX);
+        Files.write(entry.toPath(), new byte[] { 1, 2, 3 });
+        assertSameSong(parsed, cache.load(SCALE));
+        assertSameSong(parsed, cache.lookup(SongCache.key(SCALE)).get());
+    }
+}
@@ -0,0 +1,124 @@
+package karaoke.sound;
+
+import static karaoke.sound.SongAssert.assertSameSong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Header;
+import karaoke.MusicBuilder;
+import karaoke.Note;
+import karaoke.Rest;
+import karaoke.Song;
+import karaoke.SongFile;
+import karaoke.Timeline;
+import karaoke.parser.KaraokeParser;
+
+/**
+ * Tests for reading and writing the binary song format
+ */
+public class SongFileTest {
+    /*
+     * Testing strategy for SongFile
+     * song: no events, notes only, notes and lyrics, several voices, many events
+     * voices: with and without an instrument
+     * lyric lines: shared by several syllables, one per syllable
+     * file: song file, abc file, other version, truncated
+     */
+
+    private static final String DUET = "X:2\n" +
+            "T:Duet\n" +
+            "C:Somebody\n" +
+            "V:upper instrument=violin\n" +
+            "V:lower\n" +
+            "Q:1/4=90\n" +
+            "K:G\n" +
+            "V:upper\n" +
+            "c2 d2|(3efg a2|\n" +
+            "w:high-er low_ and lower\n" +
+            "V:lower\n" +
+            "C D E F|\n" +
+            "w:one two three four\n";
+
+    private final Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("songfile", SongFile.SUFFIX);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static Song roundTrip(Song song) throws IOException {
+        File file = tempFile();
+        SongFile.write(song, file);
+        assertTrue(SongFile.isSongFile(file));
+        return SongFile.read(file);
+    }
+
+    @Test
+    public void testEmptySong() throws IOException {
+        Song song = new Song(header, Timeline.compile(new Rest(header, "1"), 1));
+        assertSameSong(song, roundTrip(song));
+    }
+
+    @Test
+    public void testLyricsAndVoices() throws IOException, UnableToParseException {
+        Song song = Song.compile(KaraokeParser.parse(DUET));
+        Song read = roundTrip(song);
+        assertSameSong(song, read);
+        assertEquals(Instrument.VIOLIN, read.header().instrument("upper"));
+        assertEquals(Header.DEFAULT_INSTRUMENT, read.header().instrument("lower"));
+        // syllables of one lyric line share a single copy of it
+        assertTrue(read.timeline().syllables().get(0).getLyricLine()
+                == read.timeline().syllables().get(1).getLyricLine());
+    }
+
+    @Test
+    public void testManyEvents() throws IOException {
+        MusicBuilder builder = new MusicBuilder(header);
+        final int numNotes = 100000;
+        for (int i = 0; i < numNotes; i++) {
+            builder.add(new Note(i % 2 == 0 ? "C" : "c'", header, "1/4", "1"));
+        }
+        Song song = Song.compile(builder.build());
+        Song read = roundTrip(song);
+        assertEquals(numNotes, read.timeline().size());
+        assertSameSong(song, read);
+    }
+
+    @Test
+    public void testAbcIsNotSongFile() throws IOException {
+        File file = tempFile();
+        Files.write(file.toPath(), DUET.getBytes());
+        assertFalse(SongFile.isSongFile(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersion() throws IOException {
+        File file = tempFile();
+        SongFile.write(new Song(header, Timeline.compile(new Rest(header, "1"), 1)), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer.wrap(bytes).putInt(Integer.BYTES, SongFile.FORMAT_VERSION + 1);
+        Files.write(file.toPath(), bytes);
+        SongFile.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws IOException, UnableToParseException {
+        File file = tempFile();
+        SongFile.write(Song.compile(KaraokeParser.parse(DUET)), file);
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+        SongFile.read(file);
+    }
+}
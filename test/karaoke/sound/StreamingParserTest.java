@@ -0,0 +1,239 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Header;
+import karaoke.Song;
+import karaoke.Timeline;
+import karaoke.parser.KaraokeParser;
+import karaoke.parser.KaraokeParser.Implementation;
+import karaoke.parser.StreamingParser;
+
+/**
+ * Tests that the streaming parser builds the same songs as the grammar parser
+ */
+public class StreamingParserTest {
+    /*
+     * Testing strategy for StreamingParser
+     * header: defaults only, every field, comments between fields, trailing comments,
+     *         voices with instruments by name/number/unknown, voices without
+     * body: notes with accidentals/octaves/lengths, chords, rests, tuplets, repeats, nth repeats,
+     *       several voices, lyrics with every lyrical element, comment lines, \r\n line ends
+     * input: String, CharBuffer, Reader, every sample file
+     * voices: one voice, lines before the first V:, voices interleaved, voice repeated,
+     *         accidental before a voice switch; parsed in parallel vs. in one pass;
+     *         voices named in and out of hash order
+     * invalid input: missing field, bad note, missing newline
+     */
+
+    private static final String EVERYTHING = "X:7\n" +
+            "% a comment before the title\n" +
+            "T:Every Thing, ever\n" +
+            "C:Some Body\n" +
+            " %indented comment\n" +
+            "M:C|\n" +
+            "L:1/4\n" +
+            "Q:3/8=60\n" +
+            "V:one\n" +
+            "V:two\n" +
+            "K:Ebm\n" +
+            "V:one\n" +
+            "|: ^c2 __d/ =e3/4 f'' G,, z/2 | [CEG] [C E  G] (3abc (2[ce]d (4ABcd :|\n" +
+            "w:a-way fly__ * ~ time\\-out go | lo-ng  e-nd\n" +
+            "%commentline\n" +
+            "V:two\n" +
+            "[|C4|[1 D4:|[2 E4|]\r\n" +
+            "w:one two three\r\n" +
+            "V:one\n" +
+            "c d e f|| z4 %tail\n";
+
+    private static final String MINIMAL = "X:1\n" +
+            "T:\n" +
+            "K:C\n" +
+            "C\n";
+
+    private static final String INTERLEAVED = "X:1\n" +
+            "T:Interleaved\n" +
+            "V:1\n" +
+            "V:2\n" +
+            "K:F\n" +
+            "C D ^E F\n" +
+            "w:be-fore voi-ces\n" +
+            "V:1\n" +
+            "^c d e f\n" +
+            "V:2\n" +
+            "c2 |: C2 :|\n" +
+            "w:un-der re-peat\n" +
+            "V:1\n" +
+            "c d e f|\n" +
+            "%between\n" +
+            "V:2\n" +
+            "[1 C4 :|[2 E4|\n";
+
+    private static final String INSTRUMENTS = "X:1\n" +
+            "T:Band\n" +
+            "V:lead instrument=Trumpet\n" +
+            "V:bass   instrument=33 range=low\n" +
+            "V:odd instrument=kazoo\n" +
+            "V:plain\n" +
+            "K:C\n" +
+            "V:lead\n" +
+            "c d e f|\n" +
+            "w:la la la la\n" +
+            "V:bass\n" +
+            "C, D, E, F,|\n" +
+            "V:plain\n" +
+            "C4|\n";
+
+    private static Song compile(String abc, Implementation implementation) throws UnableToParseException {
+        return Song.compile(KaraokeParser.parse(abc, implementation));
+    }
+
+    private static void assertSameSong(String abc) throws UnableToParseException {
+        SongAssert.assertSameSong(compile(abc, Implementation.GRAMMAR), compile(abc, Implementation.STREAMING));
+    }
+
+    private static void assertBothFail(String abc) {
+        for (Implementation implementation : Implementation.values()) {
+            try {
+                KaraokeParser.parse(abc, implementation);
+                throw new AssertionError(implementation + " parsed invalid abc");
+            } catch (UnableToParseException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testMinimal() throws UnableToParseException {
+        assertSameSong(MINIMAL);
+    }
+
+    @Test
+    public void testEverything() throws UnableToParseException {
+        assertSameSong(EVERYTHING);
+    }
+
+    @Test
+    public void testSampleFiles() throws IOException, UnableToParseException {
+        int parsed = 0;
+        for (File file : new File("sample-abc").listFiles()) {
+            String abc = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            try {
+                KaraokeParser.parse(abc, Implementation.GRAMMAR);
+            } catch (UnableToParseException e) {
+                assertBothFail(abc);
+                continue;
+            }
+            assertSameSong(abc);
+            parsed++;
+        }
+        assertTrue("expected some sample files to parse", parsed > 0);
+    }
+
+    @Test
+    public void testVoiceOrder() throws UnableToParseException {
+        String abc = "X:1\nT:Order\nV:zeta\nV:alpha\nV:mid\nV:b\nK:C\n" +
+                "V:zeta\nC D|\nV:alpha\nE F|\nV:mid\nG A|\nV:b\nB c|\n";
+        // overlaid in the order the voices first appear, so the last one is compiled first
+        for (Implementation implementation : Implementation.values()) {
+            assertEquals(Arrays.asList("b", "mid", "alpha", "zeta"), compile(abc, implementation).timeline().voices());
+        }
+        Song oneParse = new Song(compile(abc, Implementation.STREAMING).header(),
+                Timeline.compile(StreamingParser.parse(abc)));
+        assertEquals(Arrays.asList("b", "mid", "alpha", "zeta"), oneParse.timeline().voices());
+    }
+
+    @Test
+    public void testVoiceInstruments() throws UnableToParseException {
+        assertSameSong(INSTRUMENTS);
+        Header header = compile(INSTRUMENTS, Implementation.STREAMING).header();
+        assertEquals(new HashSet<>(Arrays.asList("lead", "bass", "odd", "plain")), header.voices());
+        assertEquals(Instrument.TRUMPET, header.instrument("lead"));
+        assertEquals(Instrument.FINGERED_BASS, header.instrument("bass"));
+        assertEquals(Header.DEFAULT_INSTRUMENT, header.instrument("odd"));
+        assertEquals(Header.DEFAULT_INSTRUMENT, header.instrument("plain"));
+        assertEquals(Header.DEFAULT_INSTRUMENT, header.instrument(null));
+    }
+
+    @Test
+    public void testCharBufferAndReader() throws IOException, UnableToParseException {
+        Timeline fromString = Timeline.compile(StreamingParser.parse(EVERYTHING));
+        Timeline fromBuffer = Timeline.compile(StreamingParser.parse(CharBuffer.wrap(EVERYTHING)));
+        Timeline fromReader = Timeline.compile(StreamingParser.parse(new StringReader(EVERYTHING)));
+        assertEquals(fromString.size(), fromBuffer.size());
+        assertEquals(fromString.size(), fromReader.size());
+        for (int i = 0; i < fromString.size(); i++) {
+            assertEquals(fromString.note(i), fromBuffer.note(i));
+            assertEquals(fromString.note(i), fromReader.note(i));
+        }
+    }
+
+    @Test
+    public void testInterleavedVoices() throws UnableToParseException {
+        assertSameSong(INTERLEAVED);
+        Song parallel = compile(INTERLEAVED, Implementation.STREAMING);
+        SongAssert.assertSameSong(new Song(parallel.header(), Timeline.compile(StreamingParser.parse(INTERLEAVED))), parallel);
+        // the sharp c of voice 1 lasts to the end of its measure, but doesn't carry over to voice 2's c
+        int sharps = 0;
+        int naturals = 0;
+        for (int i = 0; i < parallel.timeline().size(); i++) {
+            sharps += parallel.timeline().note(i) == 73 ? 1 : 0;
+            naturals += parallel.timeline().note(i) == 72 ? 1 : 0;
+        }
+        assertEquals(2, sharps);
+        assertEquals(2, naturals); // voice 2 repeats its c
+    }
+
+    @Test
+    public void testParallelSampleFiles() throws IOException, UnableToParseException {
+        for (File file : new File("sample-abc").listFiles()) {
+            String abc = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            Song parallel;
+            try {
+                parallel = compile(abc, Implementation.STREAMING);
+            } catch (UnableToParseException e) {
+                continue;
+            }
+            SongAssert.assertSameSong(new Song(parallel.header(), Timeline.compile(StreamingParser.parse(abc))), parallel);
+        }
+    }
+
+    @Test
+    public void testInvalidVoice() {
+        String abc = "X:1\nT:Bad Voice\nV:1\nV:2\nK:C\nV:1\nC D\nV:2\nC H\nV:1\nE F\n";
+        assertBothFail(abc);
+        try {
+            KaraokeParser.parse(abc, Implementation.STREAMING);
+        } catch (UnableToParseException e) {
+            // reported at its line of the whole body, not of voice 2's lines
+            assertTrue(e.getMessage(), e.getMessage().contains("line 4 column 3"));
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        assertBothFail("T:No Index\nK:C\nC\n");
+        assertBothFail("X:1\nT:No Key\nC\n");
+        assertBothFail("X:1\nT:No Music\nK:C\n");
+        assertBothFail("X:1\nT:Bad Note\nK:C\nC H\n");
+        assertBothFail("X:1\nT:Open Chord\nK:C\n[CE\n");
+        assertBothFail("X:1\nT:No Newline\nK:C\nC D");
+        assertBothFail("X:1\nT:Bad Lyric\nK:C\nC D\nw:a $\n");
+        // a comment after a header field must be followed by a blank line
+        assertBothFail("X:1\nT:Comment\nL:1/4 %length\nK:C\nC\n");
+    }
+}
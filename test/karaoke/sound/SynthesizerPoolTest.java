@@ -0,0 +1,266 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNoException;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MidiChannel;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Patch;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+import org.junit.Test;
+
+/**
+ * Tests for sharing synthesizers and sequencers between songs, with fake devices
+ */
+public class SynthesizerPoolTest {
+    /*
+     * Testing strategy for SynthesizerPool
+     * acquire: no idle pair, an idle pair, two at once with no idle pair
+     * release: stops the sequencer, makes the pair idle
+     *
+     * Testing strategy for Devices.load
+     * soundbank: none, has the instrument, lacks the instrument
+     * instruments: none loaded yet, some already loaded; loaded by MidiSequencePlayer.play
+     *
+     * Testing strategy for open
+     * the JDK's default synthesizer, preloaded with one instrument (the fakes above can't show
+     * what a real synthesizer loads when it is opened; skipped where there is no audio device)
+     */
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /**
+     * @return an object of type that returns the zero value of every method's type, except that
+     *          it counts the calls to stop(), a synthesizer has no channels and adds the program
+     *          of every instrument loaded into it to loaded, and a soundbank has every program
+     *          but those in missing
+     */
+    static <T> T fake(Class<T> type, AtomicInteger stops, List<Integer> loaded, Set<Integer> missing) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getChannels": return new MidiChannel[0];
+                    case "stop": stops.incrementAndGet(); return null;
+                    case "loadInstrument":
+                        loaded.add(((javax.sound.midi.Instrument) args[0]).getPatch().getProgram());
+                        return true;
+                    case "getInstrument":
+                        final Patch patch = (Patch) args[0];
+                        return missing.contains(patch.getProgram()) ? null : new FakeInstrument(patch);
+                    case "hashCode": return System.identityHashCode(proxy);
+                    case "equals": return proxy == args[0];
+                    case "toString": return type.getSimpleName();
+                    default: break;
+                    }
+                    final Class<?> result = method.getReturnType();
+                    if (result == boolean.class) {
+                        return false;
+                    } else if (result == int.class) {
+                        return 0;
+                    } else if (result == long.class) {
+                        return 0L;
+                    } else if (result == float.class) {
+                        return 0f;
+                    }
+                    return null;
+                }));
+    }
+
+    /**
+     * Instrument of a fake soundbank.
+     */
+    private static class FakeInstrument extends javax.sound.midi.Instrument {
+        FakeInstrument(Patch patch) {
+            super(null, patch, "program " + patch.getProgram(), null);
+        }
+
+        @Override
+        public Object getData() {
+            return null;
+        }
+    }
+
+    /**
+     * Opens fake devices, and counts how many pairs it opened and how often their sequencers were stopped.
+     */
+    static class FakeOpener implements SynthesizerPool.Opener {
+        private final AtomicInteger opened = new AtomicInteger();
+        private final AtomicInteger stops = new AtomicInteger();
+        // programs loaded into every synthesizer opened, in order
+        private final List<Integer> loaded = Collections.synchronizedList(new ArrayList<>());
+        private final Set<Integer> missing = new HashSet<>();
+
+        @Override
+        public SynthesizerPool.Devices open() {
+            opened.incrementAndGet();
+            return new SynthesizerPool.Devices(fake(Synthesizer.class, stops, loaded, missing),
+                    fake(Sequencer.class, stops, loaded, missing), fake(Soundbank.class, stops, loaded, missing));
+        }
+    }
+
+    @Test
+    public void testAcquireOpensWhenNoneIdle() throws MidiUnavailableException {
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool pool = new SynthesizerPool(opener);
+        SynthesizerPool.Devices first = pool.acquire();
+        SynthesizerPool.Devices second = pool.acquire();
+        assertTrue(first != second);
+        assertEquals(2, opener.opened.get());
+    }
+
+    @Test
+    public void testAcquireReusesReleased() throws MidiUnavailableException {
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool pool = new SynthesizerPool(opener);
+        SynthesizerPool.Devices devices = pool.acquire();
+        pool.release(devices);
+        assertEquals("should stop the sequencer", 1, opener.stops.get());
+        assertSame(devices, pool.acquire());
+        assertEquals(1, opener.opened.get());
+        // released again, it is idle again
+        pool.release(devices);
+        assertSame(devices, pool.acquire());
+        assertEquals(1, opener.opened.get());
+    }
+
+    @Test
+    public void testPreloadLeavesPairIdle() throws MidiUnavailableException {
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool pool = new SynthesizerPool(opener);
+        pool.preload(Collections.singletonList(Instrument.PIANO));
+        pool.acquire();
+        assertEquals(1, opener.opened.get());
+    }
+
+    @Test
+    public void testConcurrentAcquireDistinct() throws Exception {
+        final int songs = 8;
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool pool = new SynthesizerPool(opener);
+        List<SynthesizerPool.Devices> released = new ArrayList<>();
+        for (int i = 0; i < songs / 2; i++) {
+            released.add(pool.acquire());
+        }
+        for (SynthesizerPool.Devices devices : released) {
+            pool.release(devices);
+        }
+
+        // every song acquires at once, half from the idle pairs and half newly opened
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(songs);
+        try {
+            List<Future<SynthesizerPool.Devices>> acquired = new ArrayList<>();
+            for (int i = 0; i < songs; i++) {
+                acquired.add(threads.submit((Callable<SynthesizerPool.Devices>) () -> {
+                    start.await();
+                    return pool.acquire();
+                }));
+            }
+            start.countDown();
+            List<SynthesizerPool.Devices> distinct = new ArrayList<>();
+            for (Future<SynthesizerPool.Devices> future : acquired) {
+                SynthesizerPool.Devices devices = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                for (SynthesizerPool.Devices other : distinct) {
+                    assertTrue("should be distinct pairs", other != devices);
+                }
+                distinct.add(devices);
+            }
+            assertEquals(songs, opener.opened.get());
+            for (SynthesizerPool.Devices devices : released) {
+                assertTrue("should reuse every idle pair", distinct.contains(devices));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLoadOnlyWhatIsMissing() throws MidiUnavailableException {
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool.Devices devices = new SynthesizerPool(opener).acquire();
+        devices.load(Arrays.asList(Instrument.PIANO, Instrument.TRUMPET));
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal(), Instrument.TRUMPET.ordinal()), opener.loaded);
+        devices.load(Arrays.asList(Instrument.TRUMPET, Instrument.VIOLIN, Instrument.PIANO));
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal(), Instrument.TRUMPET.ordinal(),
+                Instrument.VIOLIN.ordinal()), opener.loaded);
+        devices.load(Collections.emptyList());
+        assertEquals(3, opener.loaded.size());
+    }
+
+    @Test
+    public void testLoadMissingFromSoundbank() throws MidiUnavailableException {
+        FakeOpener opener = new FakeOpener();
+        opener.missing.add(Instrument.VIOLIN.ordinal());
+        SynthesizerPool.Devices devices = new SynthesizerPool(opener).acquire();
+        devices.load(Arrays.asList(Instrument.VIOLIN, Instrument.PIANO));
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal()), opener.loaded);
+        // tried again once the soundbank has it
+        opener.missing.clear();
+        devices.load(Arrays.asList(Instrument.VIOLIN, Instrument.PIANO));
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal(), Instrument.VIOLIN.ordinal()), opener.loaded);
+    }
+
+    @Test
+    public void testLoadWithoutSoundbank() {
+        AtomicInteger stops = new AtomicInteger();
+        List<Integer> loaded = new ArrayList<>();
+        SynthesizerPool.Devices devices = new SynthesizerPool.Devices(
+                fake(Synthesizer.class, stops, loaded, Collections.emptySet()),
+                fake(Sequencer.class, stops, loaded, Collections.emptySet()), null);
+        devices.load(Arrays.asList(Instrument.PIANO));
+        assertEquals(Collections.emptyList(), loaded);
+    }
+
+    @Test
+    public void testPlayLoadsSongInstruments() throws MidiUnavailableException, InvalidMidiDataException {
+        FakeOpener opener = new FakeOpener();
+        SynthesizerPool pool = new SynthesizerPool(opener);
+        pool.preload(Arrays.asList(Instrument.PIANO));
+        MidiSequencePlayer player = new MidiSequencePlayer(120, 4, pool);
+        player.addNote(Instrument.TRUMPET, new Pitch('C'), 0, 1);
+        player.addNote(Instrument.PIANO, new Pitch('E'), 0, 1);
+        player.addNote(Instrument.TRUMPET, new Pitch('G'), 1, 1);
+        player.play();
+        // the preloaded piano isn't loaded again, and nothing the song doesn't play is loaded
+        assertEquals(Arrays.asList(Instrument.PIANO.ordinal(), Instrument.TRUMPET.ordinal()), opener.loaded);
+        assertEquals(1, opener.opened.get());
+    }
+
+    @Test
+    public void testOpenLoadsNothingUpFront() throws MidiUnavailableException {
+        SynthesizerPool pool = new SynthesizerPool(SynthesizerPool::open);
+        try {
+            pool.preload(Arrays.asList(Instrument.PIANO));
+        } catch (MidiUnavailableException e) {
+            assumeNoException(e);
+        }
+        SynthesizerPool.Devices devices = pool.acquire();
+        try {
+            assertEquals(1, devices.synthesizer.getLoadedInstruments().length);
+        } finally {
+            devices.sequencer.close();
+            devices.synthesizer.close();
+        }
+    }
+}
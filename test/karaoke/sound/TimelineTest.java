@@ -0,0 +1,291 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import edu.mit.eecs.parserlib.UnableToParseException;
+import karaoke.Chord;
+import karaoke.Concat;
+import karaoke.Header;
+import karaoke.Music;
+import karaoke.MusicBuilder;
+import karaoke.Note;
+import karaoke.OverlayVoice;
+import karaoke.Player;
+import karaoke.Rest;
+import karaoke.Syllable;
+import karaoke.Timeline;
+import karaoke.parser.KaraokeParser;
+
+/**
+ * Tests for compiling Music into a flat Timeline
+ */
+public class TimelineTest {
+    /*
+     * Testing strategy for Timeline.compile
+     * Music types: note, rest, chord, concat, overlayvoice, combination of the above
+     * concat shape: left-leaning, right-leaning, very deep
+     * syllables: none, skipped, on notes, on chords
+     * note lengths: whole beats, fractions of a beat
+     * resolution: given, minimal for the music
+     * voices: none, named, nested in another named voice
+     *
+     * Testing strategy for Timeline.schedule
+     * instruments: default for every voice, given by the header for some voices
+     * agrees with Music.play: voices without lyrics given instruments by the header
+     */
+
+    private final Header header = new Header(0,"", 0,0, "C",0,0,new HashSet<String>(),"",0,"");
+
+    @Test
+    public void testSingleNote() {
+        Timeline timeline = Timeline.compile(new Note("C", header, "1"), 4);
+        assertEquals(1, timeline.size());
+        assertEquals(0, timeline.start(0));
+        assertEquals(4, timeline.length(0));
+        assertEquals(60, timeline.note(0));
+        assertEquals(Timeline.NO_SYLLABLE, timeline.syllableIndex(0));
+    }
+
+    @Test
+    public void testRestIsEmpty() {
+        Timeline timeline = Timeline.compile(new Rest(header, "2"), 4);
+        assertEquals(0, timeline.size());
+    }
+
+    @Test
+    public void testConcatLeftLeaningInOrder() {
+        Music music = new Concat(new Concat(new Note("C", header, "1"), new Rest(header, "1/2"), header),
+                new Note("D", header, "1"), header);
+        Timeline timeline = Timeline.compile(music, 4);
+        assertEquals(2, timeline.size());
+        assertEquals(0, timeline.start(0));
+        assertEquals(60, timeline.note(0));
+        assertEquals(6, timeline.start(1));
+        assertEquals(62, timeline.note(1));
+    }
+
+    @Test
+    public void testConcatRightLeaningInOrder() {
+        Music music = new Concat(new Note("C", header, "1"),
+                new Concat(new Note("D", header, "/", "1"), new Note("E", header, "1"), header), header);
+        Timeline timeline = Timeline.compile(music, 4);
+        assertEquals(3, timeline.size());
+        assertEquals(0, timeline.start(0));
+        assertEquals(4, timeline.start(1));
+        assertEquals(2, timeline.length(1));
+        assertEquals(6, timeline.start(2));
+    }
+
+    @Test
+    public void testOverlayVoiceSortedByStart() {
+        Music voice1 = new Concat(new Note("C", header, "1"), new Note("D", header, "1"), header);
+        Music voice2 = new Concat(new Rest(header, "/"), new Note("E", header, "1"), header);
+        Timeline timeline = Timeline.compile(new OverlayVoice(voice1, voice2, header), 2);
+        assertEquals(3, timeline.size());
+        assertEquals(0, timeline.start(0));
+        assertEquals(1, timeline.start(1));
+        assertEquals(64, timeline.note(1));
+        assertEquals(2, timeline.start(2));
+    }
+
+    @Test
+    public void testNamedVoices() {
+        Music bass = new Note("C", header, "1");
+        Music melody = new Chord(new Note("E", header, "1"), new Note("G", header, "1"), header);
+        Music both = new OverlayVoice(new OverlayVoice(new Rest(header, "0"), bass, header, "bass"),
+                melody, header, "melody");
+        Timeline timeline = Timeline.compile(new OverlayVoice(both, new Note("A", header, "1"), header), 1);
+        assertEquals(Arrays.asList("melody", "bass"), timeline.voices());
+        assertEquals(4, timeline.size());
+        for (int i = 0; i < timeline.size(); i++) {
+            final String voice;
+            switch (timeline.note(i)) {
+            case 60: voice = "bass"; break;
+            case 64: case 67: voice = "melody"; break;
+            default: voice = null;
+            }
+            int index = timeline.voiceIndex(i);
+            assertEquals(voice, index == Timeline.NO_VOICE ? null : timeline.voices().get(index));
+        }
+    }
+
+    @Test
+    public void testChordLyric() {
+        Syllable syllable = new Syllable("unknown", "la", 0, 2);
+        Music chord = new Chord(new Note("C", header, "1"), new Note("E", header, "1"), header, syllable);
+        Timeline timeline = Timeline.compile(chord, 4);
+        assertEquals(3, timeline.size());
+        int lyrics = 0;
+        for (int i = 0; i < timeline.size(); i++) {
+            assertEquals(0, timeline.start(i));
+            if (timeline.syllableIndex(i) != Timeline.NO_SYLLABLE) {
+                lyrics++;
+                assertEquals(Timeline.NO_NOTE, timeline.note(i));
+                assertEquals(syllable, timeline.syllables().get(timeline.syllableIndex(i)));
+            }
+        }
+        assertEquals(1, lyrics);
+    }
+
+    @Test
+    public void testNoteLyric() {
+        Syllable syllable = new Syllable("unknown", "la", 0, 2);
+        Music music = new Concat(new Note("C", header, "1"), new Note("D", header, "1"), header)
+                .addSyllableToNote(syllable);
+        Timeline timeline = Timeline.compile(music, 4);
+        assertEquals(0, timeline.syllableIndex(0));
+        assertEquals(Timeline.NO_SYLLABLE, timeline.syllableIndex(1));
+        assertEquals(1, timeline.syllables().size());
+    }
+
+    @Test
+    public void testVeryDeepConcat() {
+        Music music = new Rest(header, "0");
+        final int numNotes = 100000;
+        for (int i = 0; i < numNotes; i++) {
+            music = new Concat(music, new Note("C", header, "1"), header);
+        }
+        Timeline timeline = Timeline.compile(music, 1);
+        assertEquals(numNotes, timeline.size());
+        assertEquals(numNotes - 1, timeline.start(numNotes - 1));
+    }
+
+    @Test
+    public void testParsedSong() throws UnableToParseException {
+        final String input = "X:1\n" +
+                "T:Scale\n" +
+                "L:1/4\n" +
+                "K:C\n" +
+                "C D E F|\n" +
+                "w:do re mi fa\n";
+        Music music = KaraokeParser.parse(input);
+        Timeline timeline = Timeline.compile(music, 4);
+        assertEquals(4, timeline.size());
+        assertEquals(4, timeline.syllables().size());
+        for (int i = 0; i < timeline.size(); i++) {
+            assertEquals(4 * i, timeline.start(i));
+            assertEquals(i, timeline.syllableIndex(i));
+        }
+    }
+
+    @Test
+    public void testMinimalTicksPerBeat() {
+        Music triplets = new Concat(new Note("C", header, "1", "2/3"),
+                new Concat(new Note("D", header, "1", "2/3"), new Note("E", header, "1", "2/3"), header), header);
+        Music music = new Concat(triplets, new Note("F", header, "/4", "1"), header);
+        Timeline timeline = Timeline.compile(music);
+        assertEquals(12, timeline.ticksPerBeat());
+        assertEquals(8, timeline.start(1));
+        assertEquals(16, timeline.start(2));
+        assertEquals(24, timeline.start(3));
+        assertEquals(3, timeline.length(3));
+    }
+
+    @Test
+    public void testNoDriftOverLongSong() {
+        MusicBuilder builder = new MusicBuilder(header);
+        final int numTriplets = 30000;
+        for (int i = 0; i < 3 * numTriplets; i++) {
+            builder.add(new Note("C", header, "1", "2/3"));
+        }
+        builder.add(new Note("D", header, "1"));
+        Timeline timeline = Timeline.compile(builder.build());
+        assertEquals(3, timeline.ticksPerBeat());
+        assertEquals(2 * numTriplets * 3, timeline.start(timeline.size() - 1));
+    }
+
+    /**
+     * Records the instrument and number of notes of every call to addNotes, and the number of
+     * notes played by each instrument.
+     */
+    private static class NoteCounter implements SequencePlayer {
+        private final List<String> calls = new ArrayList<>();
+        private final Map<Instrument, Integer> notes = new EnumMap<>(Instrument.class);
+
+        @Override
+        public void addNote(Instrument instr, Pitch pitch, double startBeat, double numBeats) {
+            calls.add(instr + " 1");
+            notes.merge(instr, 1, Integer::sum);
+        }
+
+        @Override
+        public void addNotes(Instrument instr, Pitch[] pitches, double[] startBeats, double[] numBeats) {
+            calls.add(instr + " " + pitches.length);
+            notes.merge(instr, pitches.length, Integer::sum);
+        }
+
+        @Override
+        public void addEvent(double atBeat, Consumer<Double> callback) {
+            // lyrics aren't counted
+        }
+
+        @Override
+        public void play() {
+            // nothing to play
+        }
+    }
+
+    /**
+     * @return music with a note in no voice, a chord in voice melody and a note in voice bass
+     */
+    private Music voicedMusic(Header header) {
+        Music bass = new Note("C", header, "1");
+        Music melody = new Chord(new Note("E", header, "1"), new Note("G", header, "1"), header);
+        Music both = new OverlayVoice(new OverlayVoice(new Rest(header, "0"), bass, header, "bass"),
+                melody, header, "melody");
+        return new OverlayVoice(both, new Note("A", header, "1"), header);
+    }
+
+    @Test
+    public void testScheduleDefaultInstrument() {
+        Timeline timeline = Timeline.compile(voicedMusic(header), 1);
+        NoteCounter player = new NoteCounter();
+        timeline.schedule(player, new Player());
+        assertEquals(Arrays.asList(Header.DEFAULT_INSTRUMENT + " 4"), player.calls);
+    }
+
+    @Test
+    public void testScheduleVoiceInstruments() {
+        Header band = new Header(0, "", 0, 0, "C", 0, 0, new HashSet<>(Arrays.asList("melody", "bass")), "", 0, "",
+                Collections.singletonMap("bass", Instrument.FINGERED_BASS));
+        Timeline timeline = Timeline.compile(voicedMusic(band), 1);
+        NoteCounter player = new NoteCounter();
+        timeline.schedule(player, new Player(), band);
+        // each instrument's notes at once, in order of instrument
+        assertEquals(Arrays.asList(Header.DEFAULT_INSTRUMENT + " 3", Instrument.FINGERED_BASS + " 1"), player.calls);
+    }
+
+    @Test
+    public void testPlayMatchesSchedule() {
+        Map<String, Instrument> instruments = new HashMap<>();
+        instruments.put("melody", Instrument.VIOLIN);
+        instruments.put("bass", Instrument.FINGERED_BASS);
+        Header band = new Header(0, "", 0, 0, "C", 0, 0, new HashSet<>(Arrays.asList("melody", "bass")), "", 0, "",
+                instruments);
+        // no note has a lyric, so no syllable tells which voice it is in
+        Music music = voicedMusic(band);
+        NoteCounter played = new NoteCounter();
+        music.play(played, 0, new Player());
+        NoteCounter scheduled = new NoteCounter();
+        Timeline.compile(music, 1).schedule(scheduled, new Player(), band);
+
+        Map<Instrument, Integer> expected = new EnumMap<>(Instrument.class);
+        expected.put(Header.DEFAULT_INSTRUMENT, 1);
+        expected.put(Instrument.FINGERED_BASS, 1);
+        expected.put(Instrument.VIOLIN, 2);
+        assertEquals(expected, scheduled.notes);
+        assertEquals(expected, played.notes);
+    }
+}
@@ -0,0 +1,111 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.junit.Test;
+
+/**
+ * Tests for adding events to a track all at once
+ */
+public class TrackBuilderTest {
+    /*
+     * Testing strategy for TrackBuilder
+     * events added: none, in order of tick, out of order, several at the same tick
+     * notes: same channel and pitch, different pitches
+     * track: empty, already built once
+     */
+
+    private static Track newTrack() throws InvalidMidiDataException {
+        return new Sequence(Sequence.PPQ, 4).createTrack();
+    }
+
+    /**
+     * @return the events of track without its end of track event
+     */
+    private static MidiEvent[] events(Track track) {
+        MidiEvent[] events = new MidiEvent[track.size() - 1];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = track.get(i);
+        }
+        return events;
+    }
+
+    @Test
+    public void testEmpty() throws InvalidMidiDataException {
+        Track track = newTrack();
+        TrackBuilder builder = new TrackBuilder();
+        builder.addTo(track);
+        assertEquals(0, events(track).length);
+    }
+
+    @Test
+    public void testSortedByTick() throws InvalidMidiDataException {
+        Track track = newTrack();
+        TrackBuilder builder = new TrackBuilder();
+        builder.addNote(0, 60, 0, 8);
+        builder.addNote(0, 64, 2, 4);
+        MetaMessage marker = new MetaMessage(6, new byte[] { 1 }, 1);
+        builder.add(marker, 4);
+        assertEquals(5, builder.size());
+        builder.addTo(track);
+        assertEquals(0, builder.size());
+
+        MidiEvent[] events = events(track);
+        long[] ticks = { 0, 2, 4, 4, 8 };
+        int[] commands = { ShortMessage.NOTE_ON, ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF, -1, ShortMessage.NOTE_OFF };
+        int[] pitches = { 60, 64, 64, -1, 60 };
+        assertEquals(ticks.length, events.length);
+        for (int i = 0; i < events.length; i++) {
+            assertEquals(ticks[i], events[i].getTick());
+            if (commands[i] < 0) {
+                // added after the note off at the same tick
+                assertSame(marker, events[i].getMessage());
+            } else {
+                ShortMessage message = (ShortMessage) events[i].getMessage();
+                assertEquals(commands[i], message.getCommand());
+                assertEquals(pitches[i], message.getData1());
+            }
+        }
+    }
+
+    @Test
+    public void testNoteMessagesShared() throws InvalidMidiDataException {
+        Track track = newTrack();
+        TrackBuilder builder = new TrackBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.addNote(1, 60, 3 * i, 3 * i + 2);
+        }
+        builder.addTo(track);
+        MidiEvent[] events = events(track);
+        assertEquals(200, events.length);
+        for (int i = 0; i < events.length; i += 2) {
+            assertSame(events[0].getMessage(), events[i].getMessage());
+            assertSame(events[1].getMessage(), events[i + 1].getMessage());
+        }
+        assertEquals(1, ((ShortMessage) events[0].getMessage()).getChannel());
+    }
+
+    @Test
+    public void testBuiltTwice() throws InvalidMidiDataException {
+        Track track = newTrack();
+        TrackBuilder builder = new TrackBuilder();
+        builder.addNote(0, 60, 4, 8);
+        builder.addTo(track);
+        builder.addNote(0, 62, 0, 2);
+        builder.addTo(track);
+        MidiEvent[] events = events(track);
+        long[] ticks = { 0, 2, 4, 8 };
+        assertEquals(ticks.length, events.length);
+        for (int i = 0; i < events.length; i++) {
+            assertEquals(ticks[i], events[i].getTick());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package karaoke.sound;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+import org.junit.Test;
+
+/**
+ * Tests for rendering notes to PCM audio and WAV files
+ */
+public class WavSequencePlayerTest {
+    /*
+     * Testing strategy for WavSequencePlayer
+     * notes: none, one, several at once
+     * callbacks: none, before, during and after the notes, added out of order
+     * output: renderPcm(), play() to a WAV file
+     */
+
+    private static final float SAMPLE_RATE = 8000;
+    // at 60 beats per minute, a beat is a second
+    private static final int BEATS_PER_MINUTE = 60;
+
+    /**
+     * @return the samples of pcm from frame from inclusive to frame to exclusive
+     */
+    private static short[] samples(ByteBuffer pcm, int from, int to) {
+        short[] samples = new short[to - from];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = pcm.getShort(2 * (from + i));
+        }
+        return samples;
+    }
+
+    /**
+     * @return number of times the samples change sign
+     */
+    private static int signChanges(short[] samples) {
+        int changes = 0;
+        for (int i = 1; i < samples.length; i++) {
+            if ((samples[i - 1] < 0) != (samples[i] < 0)) {
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    @Test
+    public void testNothing() {
+        WavSequencePlayer player = new WavSequencePlayer(BEATS_PER_MINUTE, SAMPLE_RATE, new ByteArrayOutputStream());
+        assertEquals(0, player.renderPcm().remaining());
+    }
+
+    @Test
+    public void testOneNote() {
+        WavSequencePlayer player = new WavSequencePlayer(BEATS_PER_MINUTE, SAMPLE_RATE, new ByteArrayOutputStream());
+        // A above middle C is 440 Hz
+        player.addNote(Instrument.PIANO, new Pitch('A'), 1, 1);
+        ByteBuffer pcm = player.renderPcm();
+        int frames = pcm.remaining() / 2;
+        assertTrue("should last the note and its release", frames > 2 * 8000 && frames < 3 * 8000);
+
+        assertTrue("should be silent before the note", Arrays.equals(new short[8000], samples(pcm, 0, 8000)));
+        int changes = signChanges(samples(pcm, 8000, 2 * 8000));
+        assertTrue("should be about 440 Hz: " + changes, Math.abs(changes - 2 * 440) <= 4);
+        assertTrue("should fall silent after the release",
+                Arrays.equals(new short[frames - 2 * 8000 - 400], samples(pcm, 2 * 8000 + 400, frames)));
+    }
+
+    @Test
+    public void testChordDoesNotClip() {
+        WavSequencePlayer player = new WavSequencePlayer(BEATS_PER_MINUTE, SAMPLE_RATE, new ByteArrayOutputStream());
+        player.addNotes(Instrument.TRUMPET,
+                new Pitch[] { new Pitch('C'), new Pitch('E'), new Pitch('G') },
+                new double[] { 0, 0, 0 },
+                new double[] { 1, 1, 1 });
+        short[] samples = samples(player.renderPcm(), 0, 8000);
+        int loudest = 0;
+        for (short sample : samples) {
+            loudest = Math.max(loudest, Math.abs(sample));
+        }
+        assertTrue("should be heard", loudest > Short.MAX_VALUE / 4);
+        assertTrue("should not clip", loudest < Short.MAX_VALUE);
+    }
+
+    @Test
+    public void testCallbacks() {
+        WavSequencePlayer player = new WavSequencePlayer(BEATS_PER_MINUTE, SAMPLE_RATE, new ByteArrayOutputStream());
+        List<Double> beats = new ArrayList<>();
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 2);
+        player.addEvent(5, beats::add);
+        player.addEvent(1.5, beats::add);
+        player.addEvent(0, beats::add);
+        ByteBuffer pcm = player.renderPcm();
+        assertEquals(List.of(0.0, 1.5, 5.0), beats);
+        assertTrue("should last until the last callback", pcm.remaining() / 2 > 5 * 8000);
+    }
+
+    @Test
+    public void testPlayWritesWav() throws IOException, UnsupportedAudioFileException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WavSequencePlayer player = new WavSequencePlayer(120, SAMPLE_RATE, out);
+        player.addNote(Instrument.PIANO, new Pitch('C'), 0, 1);
+        player.addNote(Instrument.PIANO, new Pitch('E'), 1, 1);
+        ByteBuffer pcm = player.renderPcm();
+        player.play();
+
+        ByteArrayInputStream wav = new ByteArrayInputStream(out.toByteArray());
+        AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(wav);
+        assertEquals(AudioFileFormat.Type.WAVE, fileFormat.getType());
+        wav.reset();
+        try (AudioInputStream audio = AudioSystem.getAudioInputStream(wav)) {
+            AudioFormat format = audio.getFormat();
+            assertEquals(SAMPLE_RATE, format.getSampleRate(), 0);
+            assertEquals(16, format.getSampleSizeInBits());
+            assertEquals(1, format.getChannels());
+            byte[] samples = audio.readAllBytes();
+            assertTrue("should be the same audio", Arrays.equals(pcm.array(), samples));
+        }
+    }
+}